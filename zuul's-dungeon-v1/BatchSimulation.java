@@ -0,0 +1,447 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.LongStream;
+
+/**
+ * Class BatchSimulation - plays many games headless and in parallel
+ * and sums up how they went: how often the player wins, how many
+ * commands winning takes, who kills the player, how far the quests
+ * get and which games got stuck or failed. Used to balance combat
+ * and to find dead ends in the story.
+ *
+ * Every game is played by a Strategy, which picks the player's next
+ * command by looking at the game, and is seeded with a seed of its
+ * own, so any single game can be played again with play. The events
+ * of the games are thrown away without being rendered.
+ *
+ * Run the main method with any of these options (defaults in brackets):
+ *   games=N       number of games (10000)
+ *   commands=N    commands after which a game counts as stuck (500)
+ *   seed=N        seed of the first game, the others count up (1)
+ *   script=FILE   play the commands in FILE, one per line, in every
+ *                 game (a random player)
+ *   world=FILE    the world to play in (the standard world)
+ *   threads=N     number of threads (one per core)
+ */
+public class BatchSimulation
+{
+    // the options, by name.
+    private static TreeMap<String, String> options = new TreeMap<>();
+    // what a random player says.
+    private static final String[] PHRASES = {"hi", "hello", "what's up", "bye"};
+
+    /**
+     * Picks the player's commands.
+     */
+    public interface Strategy
+    {
+        /**
+         * Return the player's next command.
+         * @param game The game, as it is now.
+         * @param random The player's own random stream.
+         * @return The command, or null if the player has nothing
+         * more to do.
+         */
+        Command nextCommand(Game game, SplittableRandom random);
+    }
+
+    /**
+     * Main method for running the simulation.
+     * @param args Options of the form name=value.
+     */
+    public static void main(String[] args) throws IOException {
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        int games = Integer.parseInt(options.getOrDefault("games", "10000"));
+        int maxCommands = Integer.parseInt(options.getOrDefault("commands", "500"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        WorldTemplate world = options.containsKey("world") ? WorldLoader.load(Paths.get(options.get("world"))) : Game.getStandardWorld();
+        Strategy strategy = options.containsKey("script") ? script(Files.readAllLines(Paths.get(options.get("script")), StandardCharsets.UTF_8)) : BatchSimulation::randomCommand;
+
+        long start = System.nanoTime();
+        Stats stats = run(world, strategy, games, maxCommands, seed, threads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        stats.print(System.out, world);
+        System.out.printf("%.2f s, %.0f games/s, %.0f commands/s on %d threads%n", seconds, games / seconds, stats.getCommands() / seconds, threads);
+    }
+
+    /**
+     * Play "games" games in parallel, seeded "seed", "seed" + 1 and
+     * so on, and sum up how they went. The result doesn't depend on
+     * the number of threads.
+     * @param world The world to play in.
+     * @param strategy Picks the player's commands.
+     * @param games The number of games.
+     * @param maxCommands The number of commands after which a game
+     * is given up on.
+     * @param seed The seed of the first game.
+     * @param threads The number of threads.
+     * @return The statistics.
+     */
+    public static Stats run(WorldTemplate world, Strategy strategy, int games, int maxCommands, long seed, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.submit(() -> LongStream.range(seed, seed + games).parallel()
+                                               .mapToObj(gameSeed -> play(world, strategy, maxCommands, gameSeed))
+                                               .collect(Stats::new, Stats::add, Stats::combine)).join();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Play one game headless until it's over, the strategy has
+     * nothing more to do or "maxCommands" commands have been given.
+     * @param world The world to play in.
+     * @param strategy Picks the player's commands.
+     * @param maxCommands The number of commands after which the
+     * game is given up on.
+     * @param seed The game's seed.
+     * @return How the game went.
+     */
+    public static Playthrough play(WorldTemplate world, Strategy strategy, int maxCommands, long seed) {
+        // nobody reads the games, so their events are dropped without
+        // ever being rendered.
+        PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+        Game game = new Game(new Parser(InputStream.nullInputStream(), out), events -> { }, world);
+        game.setSeed(seed);
+        String failure = null;
+        try {
+            game.start("Player");
+            SplittableRandom random = new SplittableRandom(~seed);
+            while (!game.isFinished() && game.getCommandCount() < maxCommands) {
+                Command command = strategy.nextCommand(game, random);
+                if (command == null) {
+                    break;
+                }
+                game.processCommand(command);
+            }
+        } catch (RuntimeException e) {
+            failure = e.toString();
+        }
+        boolean[][] parts = new boolean[world.getQuestCount()][];
+        for (int q = 0; q < parts.length; q++) {
+            Quest quest = game.getQuest(world.getQuestName(q));
+            parts[q] = new boolean[quest == null ? 0 : quest.getPartCount()];
+            for (int part = 0; part < parts[q].length; part++) {
+                parts[q][part] = quest.getPart(part);
+            }
+        }
+        return new Playthrough(seed, game.getOutcome(), game.getKiller(), game.getCommandCount(), parts, failure);
+    }
+
+    /**
+     * Return a strategy typing "lines" one after the other, the
+     * same in every game.
+     * @param lines The commands.
+     * @return The strategy.
+     */
+    public static Strategy script(List<String> lines) {
+        Parser parser = new Parser(InputStream.nullInputStream(), new PrintStream(OutputStream.nullOutputStream()));
+        List<Command> commands = new ArrayList<>();
+        for (String line : lines) {
+            commands.add(parser.parse(line));
+        }
+        return (game, random) -> game.getCommandCount() < commands.size() ? commands.get(game.getCommandCount()) : null;
+    }
+
+    /**
+     * A random player: mostly walks around, picks up what it finds,
+     * uses and gives away what it carries and talks to whoever is
+     * near. It never quits.
+     * @param game The game.
+     * @param random The player's random stream.
+     * @return The command.
+     */
+    public static Command randomCommand(Game game, SplittableRandom random) {
+        Character player = game.getPlayer();
+        Room room = player.getLocation();
+        int choice = random.nextInt(100);
+        if (choice < 45) {
+            List<String> directions = new ArrayList<>(room.getDirections());
+            if (!directions.isEmpty()) {
+                return new Command(CommandWord.GO, directions.get(random.nextInt(directions.size())).toLowerCase());
+            }
+        } else if (choice < 50) {
+            return new Command(CommandWord.GO, "back");
+        } else if (choice < 65) {
+            String item = pick(room.getItemNames(), random);
+            if (item != null) {
+                return new Command(CommandWord.TAKE, item.toLowerCase());
+            }
+        } else if (choice < 80) {
+            String item = pick(player.getItemNames(), random);
+            if (item != null) {
+                return new Command(CommandWord.USE, item.toLowerCase());
+            }
+        } else if (choice < 88) {
+            Character near = game.checkWhoIsNear();
+            String item = pick(player.getItemNames(), random);
+            if (near != null && item != null) {
+                return new Command(CommandWord.GIVE, (near.getName() + " " + item).toLowerCase());
+            }
+        } else if (choice < 90) {
+            String item = pick(player.getItemNames(), random);
+            if (item != null) {
+                return new Command(CommandWord.DROP, item.toLowerCase());
+            }
+        } else if (choice < 96) {
+            return new Command(CommandWord.SAY, PHRASES[random.nextInt(PHRASES.length)]);
+        }
+        return new Command(CommandWord.LOOK, null);
+    }
+
+    /**
+     * Return a random element of "list".
+     * @return The element, or null if the list is empty.
+     */
+    private static String pick(List<String> list, SplittableRandom random) {
+        return list.isEmpty() ? null : list.get(random.nextInt(list.size()));
+    }
+
+    /**
+     * How one game went.
+     */
+    public static class Playthrough
+    {
+        // the game's seed.
+        private long seed;
+        // how the game ended, PLAYING if it was given up on.
+        private Outcome outcome;
+        // who killed the player, null if nobody did.
+        private String killer;
+        // the number of commands given.
+        private int commands;
+        // for every quest of the world, which parts were completed.
+        private boolean[][] questParts;
+        // the exception the game failed with, null if it didn't.
+        private String failure;
+
+        /**
+         * Create the record of a game.
+         * @param seed The game's seed.
+         * @param outcome How the game ended.
+         * @param killer Who killed the player, null if nobody did.
+         * @param commands The number of commands given.
+         * @param questParts Which parts of every quest were completed.
+         * @param failure The exception the game failed with, null if
+         * it didn't.
+         */
+        public Playthrough(long seed, Outcome outcome, String killer, int commands, boolean[][] questParts, String failure) {
+            this.seed = seed;
+            this.outcome = outcome;
+            this.killer = killer;
+            this.commands = commands;
+            this.questParts = questParts;
+            this.failure = failure;
+        }
+
+        /**
+         * @return The game's seed.
+         */
+        public long getSeed() {
+            return seed;
+        }
+
+        /**
+         * @return How the game ended, PLAYING if it was given up on.
+         */
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * @return Who killed the player, null if nobody did.
+         */
+        public String getKiller() {
+            return killer;
+        }
+
+        /**
+         * @return The number of commands given.
+         */
+        public int getCommands() {
+            return commands;
+        }
+
+        /**
+         * @return The exception the game failed with, null if it
+         * didn't.
+         */
+        public String getFailure() {
+            return failure;
+        }
+    }
+
+    /**
+     * How a batch of games went, summed up. Stats of separate
+     * batches can be combined.
+     */
+    public static class Stats
+    {
+        // the number of games, and of commands given in them.
+        private long games;
+        private long commands;
+        // the number of games by outcome. Games given up on count
+        // as PLAYING.
+        private long[] outcomes = new long[Outcome.values().length];
+        // the total, fewest and most commands in the games won.
+        private long winCommands;
+        private int fewestWinCommands = Integer.MAX_VALUE;
+        private int mostWinCommands;
+        // the number of deaths, by killer.
+        private TreeMap<String, Long> killers = new TreeMap<>();
+        // the number of failed games by exception, with the seed of
+        // the first one to reproduce it.
+        private TreeMap<String, Long> failures = new TreeMap<>();
+        private TreeMap<String, Long> failureSeeds = new TreeMap<>();
+        // how often each part of each quest was completed, by the
+        // quest's index in the world and the part.
+        private long[][] questParts = new long[0][];
+
+        /**
+         * Add a game.
+         * @param game How the game went.
+         */
+        public void add(Playthrough game) {
+            games++;
+            commands += game.commands;
+            if (game.failure != null) {
+                failures.merge(game.failure, 1L, Long::sum);
+                failureSeeds.merge(game.failure, game.seed, Math::min);
+            } else {
+                outcomes[game.outcome.ordinal()]++;
+            }
+            if (game.outcome == Outcome.WON) {
+                winCommands += game.commands;
+                fewestWinCommands = Math.min(fewestWinCommands, game.commands);
+                mostWinCommands = Math.max(mostWinCommands, game.commands);
+            }
+            if (game.killer != null) {
+                killers.merge(game.killer, 1L, Long::sum);
+            }
+            if (questParts.length < game.questParts.length) {
+                questParts = new long[game.questParts.length][];
+            }
+            for (int q = 0; q < game.questParts.length; q++) {
+                if (questParts[q] == null) {
+                    questParts[q] = new long[game.questParts[q].length];
+                }
+                for (int part = 0; part < game.questParts[q].length; part++) {
+                    if (game.questParts[q][part]) {
+                        questParts[q][part]++;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Add all the games of "other".
+         * @param other The stats of other games.
+         */
+        public void combine(Stats other) {
+            games += other.games;
+            commands += other.commands;
+            for (int i = 0; i < outcomes.length; i++) {
+                outcomes[i] += other.outcomes[i];
+            }
+            winCommands += other.winCommands;
+            fewestWinCommands = Math.min(fewestWinCommands, other.fewestWinCommands);
+            mostWinCommands = Math.max(mostWinCommands, other.mostWinCommands);
+            other.killers.forEach((name, count) -> killers.merge(name, count, Long::sum));
+            other.failures.forEach((failure, count) -> failures.merge(failure, count, Long::sum));
+            other.failureSeeds.forEach((failure, seed) -> failureSeeds.merge(failure, seed, Math::min));
+            if (questParts.length < other.questParts.length) {
+                long[][] grown = new long[other.questParts.length][];
+                System.arraycopy(questParts, 0, grown, 0, questParts.length);
+                questParts = grown;
+            }
+            for (int q = 0; q < other.questParts.length; q++) {
+                if (questParts[q] == null) {
+                    questParts[q] = other.questParts[q] == null ? null : other.questParts[q].clone();
+                } else if (other.questParts[q] != null) {
+                    for (int part = 0; part < questParts[q].length; part++) {
+                        questParts[q][part] += other.questParts[q][part];
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return The number of games.
+         */
+        public long getGames() {
+            return games;
+        }
+
+        /**
+         * @return The number of commands given in all games.
+         */
+        public long getCommands() {
+            return commands;
+        }
+
+        /**
+         * Return the number of games that ended with "outcome".
+         * @param outcome The outcome; PLAYING for games given up on.
+         * @return The number of games.
+         */
+        public long getCount(Outcome outcome) {
+            return outcomes[outcome.ordinal()];
+        }
+
+        /**
+         * Return the share of games won.
+         * @return The win rate, from 0 to 1.
+         */
+        public double getWinRate() {
+            return games == 0 ? 0 : (double) getCount(Outcome.WON) / games;
+        }
+
+        /**
+         * Print the stats, one per line.
+         * @param out Where to print the stats.
+         * @param world The world the games were played in.
+         */
+        public void print(PrintStream out, WorldTemplate world) {
+            out.printf("%d games, %d commands%n", games, commands);
+            for (Outcome outcome : Outcome.values()) {
+                out.printf("  %-8s %8d  %6.2f%%%n", outcome == Outcome.PLAYING ? "STUCK" : outcome.name(), getCount(outcome), 100.0 * getCount(outcome) / Math.max(games, 1));
+            }
+            long wins = getCount(Outcome.WON);
+            if (wins > 0) {
+                out.printf("commands to win: average %.1f, fewest %d, most %d%n", (double) winCommands / wins, fewestWinCommands, mostWinCommands);
+            }
+            for (Map.Entry<String, Long> killer : killers.entrySet()) {
+                out.printf("killed by %s: %d%n", killer.getKey(), killer.getValue());
+            }
+            for (int q = 0; q < questParts.length; q++) {
+                if (questParts[q] == null) {
+                    continue;
+                }
+                StringBuilder line = new StringBuilder(world.getQuestName(q) + " parts completed:");
+                for (int part = 0; part < questParts[q].length; part++) {
+                    line.append(" ").append(part).append("=").append(questParts[q][part]);
+                }
+                out.println(line);
+            }
+            for (Map.Entry<String, Long> failure : failures.entrySet()) {
+                out.printf("FAILED %d times, first with seed %d: %s%n", failure.getValue(), failureSeeds.get(failure.getKey()), failure.getKey());
+            }
+        }
+    }
+}
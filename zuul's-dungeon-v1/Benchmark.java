@@ -0,0 +1,426 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+
+/**
+ * Class Benchmark - measures the operations run for every command:
+ * parsing, processing each command word, rendering the room, finding
+ * nearby characters, moving the characters and weighing inventories,
+ * as well as loading worlds from code, text and binary world files,
+ * saving and restoring games as snapshots, and looking names up case
+ * insensitively in a NameIndex and in the maps it replaced.
+ * Every benchmark runs against a fresh SyntheticWorld of configurable
+ * size and reports the average time and the bytes allocated per
+ * operation, so regressions show up before they reach the players.
+ * 
+ * Run the main method with any of these options (defaults in brackets):
+ *   rooms=N       number of rooms (1000)
+ *   characters=N  number of characters besides the player (100)
+ *   items=N       items in every room (2)
+ *   inventory=N   items carried by the player (10)
+ *   worldRooms=N  number of rooms in the worlds loaded by world.* and
+ *                 in the games of snapshot.large.* (100000)
+ *   names=N       number of names looked up by lookup.* (100000)
+ *   warmup=S      seconds of warm-up per benchmark (1)
+ *   time=S        seconds measured per benchmark (2)
+ *   only=PREFIX   only run benchmarks whose name starts with PREFIX
+ */
+public class Benchmark
+{
+    // where the results of the operations go, so the JIT can't
+    // skip the work.
+    private static volatile Object sink;
+    // the options, by name.
+    private static TreeMap<String, String> options = new TreeMap<>();
+    // the benchmarks, in the order they're run.
+    private static ArrayList<String> names = new ArrayList<>();
+    private static ArrayList<Setup> setups = new ArrayList<>();
+
+    /**
+     * Main method for running the benchmarks.
+     * @param args Options of the form name=value.
+     */
+    public static void main(String[] args) {
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        registerAll();
+        System.out.printf("world: %d rooms, %d characters, %d items per room, %d in inventory%n",
+                          option("rooms", 1000), option("characters", 100),
+                          option("items", 2), option("inventory", 10));
+        System.out.printf("%-28s %12s %10s%n", "benchmark", "ns/op", "B/op");
+        String only = options.get("only");
+        for (int i = 0; i < names.size(); i++) {
+            if (only == null || names.get(i).startsWith(only)) {
+                run(names.get(i), setups.get(i).create(newGame()));
+                sink = null;
+            }
+        }
+    }
+    
+    /**
+     * Register every benchmark.
+     */
+    private static void registerAll() {
+        final String[] lines = {"go north", "look", "take rusty sword", "say hi", "xyzzy"};
+        register("parse", game -> {
+            Parser parser = new Parser(InputStream.nullInputStream(), System.out);
+            return i -> parser.parse(lines[i % lines.length]);
+        });
+        registerCommands("command.go", "go east", "go west");
+        registerCommands("command.look", "look");
+        registerCommands("command.look-item", "look item 0-0");
+        registerCommands("command.look-inventory", "look inventory");
+        registerCommands("command.take-drop", "take item 0-0", "drop item 0-0");
+        registerCommands("command.use", "use trinket 0");
+        registerCommands("command.say", "say hi");
+        registerCommands("command.give", "give npc0 nothing");
+        registerCommands("command.help", "help");
+        registerCommands("command.quit", "quit now");
+        registerCommands("command.unknown", "xyzzy");
+        register("room.getLongDescription", game -> {
+            Room room = game.getPlayer().getLocation();
+            return i -> room.getLongDescription();
+        });
+        register("room.getItemsString", game -> {
+            Room room = game.getPlayer().getLocation();
+            return i -> room.getItemsString();
+        });
+        register("room.getExitString", game -> {
+            Room room = game.getPlayer().getLocation();
+            return i -> room.getExitString();
+        });
+        register("room.getNeighbours", game -> {
+            Room room = game.getPlayer().getLocation();
+            return i -> room.getNeighbours();
+        });
+        register("game.checkWhoIsNear", game -> i -> game.checkWhoIsNear());
+        register("game.moveCharacters", game -> i -> {
+            game.moveCharacters();
+            return null;
+        });
+        register("character.getWeight", game -> {
+            Character player = game.getPlayer();
+            return i -> player.getWeight();
+        });
+        register("world.standard.build", game -> i -> Game.buildStandardWorld());
+        register("world.standard.start", game -> {
+            PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+            return i -> {
+                Game started = new Game(new Parser(InputStream.nullInputStream(), out), out);
+                started.start("Player");
+                return started;
+            };
+        });
+        register("world.large.build", game -> i -> buildLargeWorld());
+        register("world.large.text", game -> {
+            Path file = writeLargeWorld(false);
+            return i -> loadWorld(file);
+        });
+        register("world.large.binary", game -> {
+            Path file = writeLargeWorld(true);
+            return i -> loadWorld(file);
+        });
+        register("world.large.start", game -> {
+            WorldTemplate world = buildLargeWorld();
+            PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+            return i -> {
+                Game started = new Game(new Parser(InputStream.nullInputStream(), out), out, world);
+                started.start("Player");
+                return started;
+            };
+        });
+        register("snapshot.write", game -> i -> Snapshot.write(game));
+        register("snapshot.read", game -> {
+            ByteBuffer snapshot = takeSnapshot(game);
+            return i -> restore(snapshot, game.getWorld().getTemplate());
+        });
+        register("snapshot.large.write", game -> {
+            Game large = playLargeGame();
+            return i -> Snapshot.write(large);
+        });
+        register("snapshot.large.read", game -> {
+            Game large = playLargeGame();
+            ByteBuffer snapshot = takeSnapshot(large);
+            return i -> restore(snapshot, large.getWorld().getTemplate());
+        });
+        registerLookups();
+    }
+    
+    /**
+     * Register the benchmarks looking names up without regard to
+     * case: the same names in a TreeMap ordered by
+     * String.CASE_INSENSITIVE_ORDER, in a HashMap of lower case
+     * names, and in a NameIndex, and then the lookups of the game
+     * that use a NameIndex. Half the names are looked up in lower
+     * case and half in upper case, in random order.
+     */
+    private static void registerLookups() {
+        final int count = option("names", 100000);
+        final String[] names = new String[count];
+        final String[] queries = new String[count];
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < count; i++) {
+            names[i] = "Rusty sword " + i;
+        }
+        for (int i = 0; i < count; i++) {
+            String name = names[random.nextInt(count)];
+            queries[i] = i % 2 == 0 ? name.toLowerCase() : name.toUpperCase();
+        }
+        register("lookup.treemap", game -> {
+            TreeMap<String, String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (String name : names) {
+                map.put(name, name);
+            }
+            return i -> map.get(queries[i % count]);
+        });
+        register("lookup.hashmap-lowercase", game -> {
+            HashMap<String, String> map = new HashMap<>();
+            for (String name : names) {
+                map.put(name.toLowerCase(), name);
+            }
+            return i -> map.get(queries[i % count].toLowerCase());
+        });
+        register("lookup.nameindex", game -> {
+            NameIndex<String> index = new NameIndex<>();
+            for (String name : names) {
+                index.put(name, name);
+            }
+            return i -> index.get(queries[i % count]);
+        });
+        register("lookup.world.getItem", game -> {
+            WorldTemplate world = buildLargeWorld();
+            String[] items = new String[count];
+            for (int i = 0; i < count; i++) {
+                String name = world.getItem(random.nextInt(world.getItemCount())).getName();
+                items[i] = i % 2 == 0 ? name : name.toUpperCase();
+            }
+            return i -> world.getItem(world.getItemIndex(items[i % count]));
+        });
+        register("lookup.room.getExit", game -> {
+            Room room = game.getPlayer().getLocation();
+            String[] directions = room.getDirections().toArray(new String[0]);
+            for (int i = 0; i < directions.length; i += 2) {
+                directions[i] = directions[i].toUpperCase();
+            }
+            return i -> room.getExit(directions[i % directions.length]);
+        });
+        register("lookup.dictionary", game -> {
+            Dictionary dictionary = new Dictionary();
+            String[] phrases = {"hi", "HELLO", "What's up", "xyzzy"};
+            return i -> dictionary.getWordGroup(phrases[i % phrases.length]);
+        });
+    }
+    
+    /**
+     * Start a game in the world of the world.large benchmarks and
+     * let its characters wander for a while, so that they have
+     * histories and many rooms have been created.
+     * @return The game.
+     */
+    private static Game playLargeGame() {
+        PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+        Game game = new Game(new Parser(InputStream.nullInputStream(), out), out, buildLargeWorld());
+        game.start("Player");
+        for (int i = 0; i < 20; i++) {
+            game.moveCharacters();
+        }
+        return game;
+    }
+    
+    /**
+     * Take a snapshot of "game" and print its size.
+     * @param game The game.
+     * @return The snapshot.
+     */
+    private static ByteBuffer takeSnapshot(Game game) {
+        ByteBuffer snapshot = Snapshot.write(game);
+        System.out.printf("(snapshot: %d bytes, %d rooms created)%n", snapshot.remaining(), game.getWorld().getRoomsCreated());
+        return snapshot;
+    }
+    
+    /**
+     * Restore a game from a snapshot, for the snapshot benchmarks.
+     * @param snapshot The snapshot, which is left as it is.
+     * @param world The world the game was played in.
+     * @return The game.
+     */
+    private static Game restore(ByteBuffer snapshot, WorldTemplate world) {
+        try {
+            return Snapshot.read(snapshot.duplicate(), world);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * Build the world loaded by the world.large benchmarks.
+     * @return The world.
+     */
+    private static WorldTemplate buildLargeWorld() {
+        int rooms = option("worldRooms", 100000);
+        return SyntheticWorld.build(rooms, rooms / 10, option("items", 2), option("inventory", 10), 42);
+    }
+    
+    /**
+     * Write the world loaded by the world.large benchmarks to a
+     * temporary file, which is deleted when the JVM exits.
+     * @param binary Whether to write the binary form or the text form.
+     * @return The file.
+     */
+    private static Path writeLargeWorld(boolean binary) {
+        try {
+            Path file = Files.createTempFile("world", binary ? ".zdw" : ".txt");
+            file.toFile().deleteOnExit();
+            if (binary) {
+                WorldLoader.writeBinary(buildLargeWorld(), file);
+            } else {
+                WorldLoader.writeText(buildLargeWorld(), file);
+            }
+            System.out.printf("(%s: %d KB)%n", file.getFileName(), Files.size(file) / 1024);
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * Load a world file, for the world.large benchmarks.
+     * @param file The world file.
+     * @return The world.
+     */
+    private static WorldTemplate loadWorld(Path file) {
+        try {
+            return WorldLoader.load(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * Register a benchmark processing the given commands in turn.
+     * @param name The benchmark's name.
+     * @param lines The commands, as typed by the player.
+     */
+    private static void registerCommands(String name, String... lines) {
+        register(name, game -> {
+            Parser parser = new Parser(InputStream.nullInputStream(), System.out);
+            final Command[] commands = new Command[lines.length];
+            for (int i = 0; i < lines.length; i++) {
+                commands[i] = parser.parse(lines[i]);
+            }
+            return i -> {
+                game.processCommand(commands[i % commands.length]);
+                return null;
+            };
+        });
+    }
+    
+    /**
+     * Register a benchmark.
+     * @param name The benchmark's name.
+     * @param setup Creates the operation to measure from a fresh game.
+     */
+    private static void register(String name, Setup setup) {
+        names.add(name);
+        setups.add(setup);
+    }
+    
+    /**
+     * Create a game whose output is thrown away, holding a fresh
+     * synthetic world of the configured size.
+     * @return The game.
+     */
+    public static Game newGame() {
+        PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+        WorldTemplate world = SyntheticWorld.build(option("rooms", 1000), option("characters", 100),
+                                                   option("items", 2), option("inventory", 10), 42);
+        Game game = new Game(new Parser(InputStream.nullInputStream(), out), out, world);
+        game.start("Player");
+        return game;
+    }
+    
+    /**
+     * Warm up, then measure "operation" and print the results.
+     * @param name The benchmark's name.
+     * @param operation The operation to measure.
+     */
+    private static void run(String name, Operation operation) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        measure(operation, option("warmup", 1) * 1000000000L);
+        long bytesBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        long count = measure(operation, option("time", 2) * 1000000000L);
+        long elapsed = System.nanoTime() - start;
+        long bytes = threads.getCurrentThreadAllocatedBytes() - bytesBefore;
+        System.out.printf("%-28s %12.1f %10d%n", name, (double) elapsed / count, bytes / count);
+    }
+    
+    /**
+     * Run "operation" in batches until "nanos" have passed. Batches
+     * start with a single run and grow up to 100 runs while they take
+     * less than a millisecond, so that slow operations such as loading
+     * a world don't overshoot the time by much.
+     * @return The number of times the operation ran.
+     */
+    private static long measure(Operation operation, long nanos) {
+        long now = System.nanoTime();
+        long end = now + nanos;
+        long count = 0;
+        int batch = 1;
+        int i = 0;
+        while (now < end) {
+            for (int j = 0; j < batch; j++) {
+                sink = operation.run(i++);
+            }
+            count += batch;
+            long started = now;
+            now = System.nanoTime();
+            if (batch < 100 && now - started < 1000000) {
+                batch = Math.min(batch * 2, 100);
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Return the value of an integer option.
+     * @param name The option's name.
+     * @param defaultValue The value used when the option isn't given.
+     * @return The option's value.
+     */
+    private static int option(String name, int defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value);
+    }
+    
+    /**
+     * An operation to measure. "i" counts the runs.
+     */
+    private interface Operation
+    {
+        Object run(int i);
+    }
+    
+    /**
+     * Creates the operation to measure from a fresh game.
+     */
+    private interface Setup
+    {
+        Operation create(Game game);
+    }
+}
@@ -0,0 +1,199 @@
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Class ChannelParser - the network-facing sibling of Parser. It
+ * doesn't read a stream itself; LineServer hands it every complete
+ * line straight from the connection's receive buffer, and the line
+ * is tokenized there, without a Scanner and without building a
+ * String for the whole line. The session's game takes the results,
+ * waiting while the player hasn't typed anything.
+ *
+ * At most MAX_QUEUED lines wait for the game. Once that many do, the
+ * connection stops handing over lines and being read (see pause) until
+ * the game has taken half of them, so a player who types faster than
+ * the game plays can't make the server's heap grow without bound.
+ */
+public class ChannelParser extends Parser
+{
+    // marks the end of the player's input in the queue.
+    private static final Object END = new Object();
+    // the most lines waiting for the game before the connection
+    // stops being read.
+    public static final int MAX_QUEUED = 64;
+    // the receive buffer as characters, for tokenizing the lines.
+    private ByteLine line;
+    // lines received but not yet taken by the game. The first line
+    // (the player's name) is queued as a String, every later line
+    // as a Command.
+    private LinkedBlockingQueue<Object> received;
+    // whether the player's name has been received.
+    private boolean named;
+    // set while the connection isn't read because the queue is full.
+    private AtomicBoolean paused;
+    // run by the game's thread once it has taken half of the lines
+    // of a paused queue, so the connection is read again.
+    private Runnable drained;
+
+    /**
+     * Create a parser for one connection.
+     * @param out Where the prompt is printed.
+     * @param drained Run once the game has taken half of the lines
+     * after the connection was paused (see pause).
+     */
+    public ChannelParser(PrintStream out, Runnable drained) {
+        super(out);
+        this.drained = drained;
+        line = new ByteLine();
+        received = new LinkedBlockingQueue<>();
+        paused = new AtomicBoolean();
+    }
+    
+    /**
+     * Receive one line of input. Only called by the thread serving
+     * the connection, and only the bytes of the line are read, so
+     * the buffer may be reused as soon as this returns.
+     * @param bytes The buffer holding the line.
+     * @param offset The index of the line's first byte.
+     * @param length The length of the line, without the line break.
+     */
+    public void receive(byte[] bytes, int offset, int length) {
+        if (!named) {
+            named = true;
+            received.add(new String(bytes, offset, length, StandardCharsets.UTF_8));
+            return;
+        }
+        line.wrap(bytes);
+        received.add(tokenize(line, offset, offset + length));
+    }
+    
+    /**
+     * Return whether MAX_QUEUED lines are waiting for the game, so
+     * no more should be received for now.
+     * @return True if the queue is full.
+     */
+    public boolean isFull() {
+        return received.size() >= MAX_QUEUED;
+    }
+    
+    /**
+     * Return how many lines are waiting for the game.
+     * @return The number of lines.
+     */
+    public int getQueued() {
+        return received.size();
+    }
+    
+    /**
+     * Stop receiving lines since the queue is full, until the game
+     * has taken half of them and "drained" has been run, unless the
+     * game has taken them already. Only called by the thread serving
+     * the connection.
+     * @return True if the connection mustn't be read until "drained"
+     * is run, false if it may go on being read.
+     */
+    public boolean pause() {
+        paused.set(true);
+        if (received.size() > MAX_QUEUED / 2) {
+            return true;
+        }
+        // the game took the lines before it saw the pause; if it
+        // hasn't claimed it since, carry on as if never paused.
+        return !paused.compareAndSet(true, false);
+    }
+    
+    /**
+     * Tell the game there won't be any more input, e.g. since the
+     * player disconnected.
+     */
+    public void endOfInput() {
+        received.add(END);
+    }
+    
+    /**
+     * Wait for the player's name.
+     * @return The player's name, or null if the player disconnected.
+     */
+    public String getInput() {
+        Object line = take();
+        if (line instanceof String) {
+            return (String) line;
+        }
+        return null;
+    }
+    
+    /**
+     * Prompt the player and wait for the next command.
+     * @return The next command, or null if the player disconnected.
+     */
+    public Command getCommand() {
+        prompt();
+        Object line = take();
+        if (line instanceof Command) {
+            return (Command) line;
+        }
+        return null;
+    }
+    
+    /**
+     * Take the next received line, waiting until there is one.
+     * The end of input is left in the queue for later calls.
+     */
+    private Object take() {
+        try {
+            Object line = received.take();
+            if (line == END) {
+                received.add(END);
+            } else if (paused.get() && received.size() <= MAX_QUEUED / 2 && paused.compareAndSet(true, false)) {
+                drained.run();
+            }
+            return line;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return END;
+        }
+    }
+    
+    /**
+     * A receive buffer seen as characters, so Parser.tokenize can
+     * read the lines in it. Every byte is one character, which is
+     * all tokenizing needs, since the bytes of a UTF-8 character
+     * other than ASCII are never whitespace or part of a command
+     * word. The second word is decoded as UTF-8 by subSequence.
+     */
+    private static class ByteLine implements CharSequence
+    {
+        // the receive buffer.
+        private byte[] bytes;
+        
+        /**
+         * Look at "bytes" from now on.
+         * @param bytes The receive buffer.
+         */
+        public void wrap(byte[] bytes) {
+            this.bytes = bytes;
+        }
+        
+        public int length() {
+            return bytes.length;
+        }
+        
+        public char charAt(int index) {
+            return (char) (bytes[index] & 0xff);
+        }
+        
+        /**
+         * Return the bytes from "start" to "end" decoded as UTF-8,
+         * which may be fewer characters than bytes.
+         */
+        public CharSequence subSequence(int start, int end) {
+            return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        }
+        
+        public String toString() {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -1,30 +1,49 @@
-import java.util.Stack;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
 /**
  * Class Character - represents a character.
  * Keeps track of all parameters as well as
- * dialogue, inventory and location history
- * (used to keep track of where the character
- * is and to backtrack - the topmost Room in
- * this stack is the character's current 
- * location).
+ * dialogue, inventory, location and location
+ * history (used to backtrack with "go back").
+ * The history only holds the last few rooms,
+ * so wandering characters don't use more
+ * memory the longer they wander.
+ * The inventory is an ItemContainer, so items
+ * may be handed to a character by other threads,
+ * as the players of a SharedWorld do.
  */
 public class Character
 {
     // the name of the character, used for both internal
     // and display purposes.
     private String name;
-    // a stack keeping track of the character's history,
+    // the number of rooms a character can go back through
+    // unless set otherwise.
+    public static final int DEFAULT_HISTORY_DEPTH = 32;
+    // the most rooms a character can be set to go back through.
+    public static final int MAX_HISTORY_DEPTH = 4096;
+    // the character's current location.
+    private Room location;
+    // the world the rooms belong to, used to look up the
+    // rooms in the history.
+    private World world;
+    // a ring buffer of the indexes of the previous locations,
     // enables backtracking when using the "go back" command.
-    // Top room in the stack is the current location.
-    private Stack<Room> locationHistory;
-    // a map keeping track of what items belong to the
-    // character's inventory.
-    private TreeMap<String, Item> inventory;
+    // The most recent one is just before historyEnd.
+    private int[] history;
+    private int historyEnd;
+    private int historySize;
+    // the items in the character's inventory, which also
+    // keeps their total weight up to date.
+    private ItemContainer inventory;
     // the character's inventory's capacity.
     private double capacity;
+    // the capacity in whole grams.
+    private long capacityGrams;
     // the initial damage the character is capable of
     // inflicting.
     private int damage;
@@ -40,7 +59,7 @@ public class Character
 
     /**
      * Create a character with defined name, capacity,
-     * damage and health and default (empty) locationHistory,
+     * damage and health and default (empty) location history,
      * inventory and dialogue (a TreeMap mapping a word to a
      * response).
      * @param name The character's name.
@@ -53,12 +72,13 @@ public class Character
     public Character(String name, double capacity, int damage, int health, boolean moveable, boolean hostile) {
         this.name = name;
         this.capacity = capacity;
+        capacityGrams = Math.round(capacity * 1000);
         this.damage = damage;
         this.health = health;
         this.moveable = moveable;
         this.hostile = hostile;
-        locationHistory = new Stack<Room>();
-        inventory = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        history = new int[DEFAULT_HISTORY_DEPTH];
+        inventory = new ItemContainer();
         dialogue = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
     }
     
@@ -91,26 +111,159 @@ public class Character
     }
     
     /**
-     * Add a location to the stack.
+     * Move the character into "room", remembering the
+     * current location in the history. Once the history
+     * is full, the oldest location is forgotten.
      */
     public void addLocationHistory(Room room) {
-        locationHistory.push(room);
+        Room previous = location;
+        remember(previous);
+        location = room;
+        if (room != null) {
+            world = room.getWorld();
+        }
+        move(previous, room);
     }
     
     /**
-     * Remove the current location from the
-     * stack and return the previous.
-     * @return The previous location.
+     * Move the character back to the previous location
+     * and return the location left.
+     * @return The location left, or null if there is no
+     * previous location to go back to.
      */
     public Room subtractLocationHistory() {
-        return locationHistory.pop();
+        if (historySize == 0) {
+            return null;
+        }
+        Room current = location;
+        location = world.getRoom(forget());
+        move(current, location);
+        return current;
+    }
+    
+    /**
+     * Take the character out of its location's occupants, ahead
+     * of a move that arrive completes. Used where the room left
+     * and the room entered are looked after by different threads
+     * (see SharedWorld); until the character arrives, it's in
+     * neither room's occupants.
+     */
+    public void depart() {
+        if (location != null) {
+            location.removeOccupant(this);
+        }
     }
     
     /**
-     * Clear character's location history.
+     * Complete a move begun by depart: move the character into
+     * "room" without touching the room it left.
+     * @param room The room entered.
+     * @param back True if the character goes back through its
+     * history (see subtractLocationHistory), false if the room
+     * left is remembered (see addLocationHistory).
+     */
+    public void arrive(Room room, boolean back) {
+        if (back) {
+            forget();
+        } else {
+            remember(location);
+        }
+        location = room;
+        world = room.getWorld();
+        room.addOccupant(this);
+    }
+    
+    /**
+     * Add "previous" to the history, forgetting the oldest
+     * location once the history is full.
+     * @param previous The location left, null if none.
+     */
+    private void remember(Room previous) {
+        if (previous != null && history.length > 0) {
+            history[historyEnd] = previous.getIndex();
+            historyEnd = (historyEnd + 1) % history.length;
+            historySize = Math.min(historySize + 1, history.length);
+        }
+    }
+    
+    /**
+     * Take the most recent location out of the history, which
+     * must not be empty.
+     * @return The index of the location.
+     */
+    private int forget() {
+        historyEnd = (historyEnd - 1 + history.length) % history.length;
+        historySize--;
+        return history[historyEnd];
+    }
+    
+    /**
+     * Return the location subtractLocationHistory would move
+     * the character back to, without moving it.
+     * @return The previous location, or null if there is none.
+     */
+    public Room getPreviousLocation() {
+        if (historySize == 0) {
+            return null;
+        }
+        return world.getRoom(history[(historyEnd - 1 + history.length) % history.length]);
+    }
+    
+    /**
+     * Clear character's location history. The
+     * character is no longer in any room.
      */
     public void clearLocationHistory() {
-        locationHistory.clear();
+        Room current = location;
+        location = null;
+        historySize = 0;
+        move(current, null);
+    }
+    
+    /**
+     * Set how many rooms the character can go back
+     * through, keeping the most recent ones.
+     * @param depth The number of rooms, 0 for none, at most
+     * MAX_HISTORY_DEPTH.
+     */
+    public void setHistoryDepth(int depth) {
+        if (depth < 0 || depth > MAX_HISTORY_DEPTH) {
+            throw new IllegalArgumentException("History depth " + depth + " isn't between 0 and " + MAX_HISTORY_DEPTH + ".");
+        }
+        int[] resized = new int[depth];
+        int kept = Math.min(historySize, depth);
+        for (int i = 0; i < kept; i++) {
+            resized[kept - 1 - i] = history[(historyEnd - 1 - i + history.length) % history.length];
+        }
+        history = resized;
+        historySize = kept;
+        historyEnd = depth == 0 ? 0 : kept % depth;
+    }
+    
+    /**
+     * Return how many rooms the character can go back through.
+     * @return The number of rooms in the history.
+     */
+    public int getHistorySize() {
+        return historySize;
+    }
+    
+    /**
+     * Keep the rooms' occupants up to date when the
+     * character moves from one room to another.
+     * @param from The room left, null if none.
+     * @param to The room entered, null if none.
+     */
+    private void move(Room from, Room to) {
+        if (from == to) {
+            return;
+        }
+        if (from != null) {
+            from.removeOccupant(this);
+        }
+        if (to != null) {
+            to.addOccupant(this);
+        }
     }
     
     /**
@@ -126,7 +279,7 @@ public class Character
      * @param item Item to be added.
      */
     public void addItem(Item item) {
-        inventory.put(item.getName(), item);
+        inventory.put(item);
     }
     
     /**
@@ -148,12 +301,38 @@ public class Character
         return inventory.get(name);
     }
     
+    /**
+     * Return the names of the items in the character's
+     * inventory.
+     * @return The names, in alphabetical order.
+     */
+    public List<String> getItemNames() {
+        return inventory.getNames();
+    }
+    
+    /**
+     * Return the character's inventory, for moving items
+     * in and out of it (see ItemContainer.moveTo).
+     * @return The inventory.
+     */
+    public ItemContainer getInventory() {
+        return inventory;
+    }
+    
+    /**
+     * Return the inventory's capacity in whole grams.
+     * @return The capacity in grams.
+     */
+    public long getCapacityGrams() {
+        return capacityGrams;
+    }
+    
     /**
      * Return the current room.
      * @return The current room.
      */
     public Room getLocation() {
-        return locationHistory.peek();
+        return location;
     }
     
     /**
@@ -251,22 +430,93 @@ public class Character
      * @return The total weight of the inventory.
      */
     public double getWeight() {
-        double weight = 0;
-        for (Item item : inventory.values()) {
-            weight += item.getWeight();
+        return inventory.getGrams() / 1000.0;
+    }
+    
+    /**
+     * Return how much more the character can carry, in
+     * whole grams.
+     * @return The free capacity in grams, negative if the
+     * character carries more than the capacity.
+     */
+    public long getFreeCapacityGrams() {
+        return capacityGrams - inventory.getGrams();
+    }
+    
+    /**
+     * Return whether the character has room for "item".
+     * @param item The item.
+     * @return True if the item fits in the inventory.
+     */
+    public boolean canCarry(Item item) {
+        return item.getGrams() <= getFreeCapacityGrams();
+    }
+    
+    /**
+     * Write the character to a snapshot (see Snapshot): its
+     * parameters, location, history, inventory and dialogue.
+     * @param out The snapshot being written.
+     * @param template The template of the character's world.
+     */
+    public void writeSnapshot(Snapshot.Writer out, WorldTemplate template) {
+        out.writeString(name);
+        out.writeDouble(capacity);
+        out.writeNumber(damage);
+        out.writeNumber(health);
+        out.writeBoolean(moveable);
+        out.writeBoolean(hostile);
+        out.writeNumber(location == null ? WorldTemplate.NONE : location.getIndex());
+        // the history, oldest room first.
+        out.writeNumber(history.length);
+        out.writeNumber(historySize);
+        for (int i = historySize; i > 0; i--) {
+            out.writeNumber(history[(historyEnd - i + history.length) % history.length]);
+        }
+        List<Item> items = inventory.getItems();
+        out.writeNumber(items.size());
+        for (Item item : items) {
+            out.writeNumber(template.getItemIndex(item.getName()));
+        }
+        out.writeNumber(dialogue.size());
+        for (Map.Entry<String, String> line : dialogue.entrySet()) {
+            out.writeString(line.getKey());
+            out.writeString(line.getValue());
         }
-        return weight;
     }
     
     /**
-     * Print the character's inventory.
+     * Read a character written by writeSnapshot and put it into
+     * its room.
+     * @param in The snapshot being read.
+     * @param world The world the character is in.
+     * @return The character.
+     * @throws IOException If the character's history is deeper than
+     * a character's can be set to be, or the snapshot is damaged.
      */
-    public void printInventory() {
-        System.out.println("Your inventory consists of: ");
-        for (String name : inventory.keySet()) {
-            System.out.println("- " + name);
+    public static Character readSnapshot(Snapshot.Reader in, World world) throws IOException {
+        WorldTemplate template = world.getTemplate();
+        Character character = new Character(in.readName(), in.readDouble(), in.readNumber(), in.readNumber(), in.readBoolean(), in.readBoolean());
+        int location = in.readIndexOrNone(template.getRoomCount());
+        int depth = in.readNumber();
+        int size = in.readNumber();
+        if (depth < 0 || depth > MAX_HISTORY_DEPTH || size < 0 || size > depth) {
+            throw new IOException("The snapshot holds a history of " + size + " of " + depth + " rooms, at most " + MAX_HISTORY_DEPTH + " are allowed.");
+        }
+        character.history = new int[depth];
+        character.historySize = size;
+        for (int i = 0; i < character.historySize; i++) {
+            character.history[i] = in.readIndex(template.getRoomCount());
+        }
+        character.historyEnd = character.history.length == 0 ? 0 : character.historySize % character.history.length;
+        character.world = world;
+        character.location = world.getRoom(location);
+        character.move(null, character.location);
+        for (int count = in.readCount(1); count > 0; count--) {
+            character.addItem(template.getItem(in.readIndex(template.getItemCount())));
+        }
+        for (int count = in.readCount(2); count > 0; count--) {
+            character.addDialogue(in.readName(), in.readName());
         }
-        double freeCapacity = getCapacity() - getWeight();
-        System.out.println("It currently weighs " + getWeight() + " kg. You can carry " + freeCapacity + " more kilograms.\n");
+        return character;
     }
 }
\ No newline at end of file
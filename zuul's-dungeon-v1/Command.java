@@ -3,13 +3,13 @@
  * "World of Zuul" is a very simple, text based adventure game.  
  *
  * This class holds information about a command that was issued by the user.
- * A command currently consists of two strings: a command word and a second
- * word (for example, if the command was "take map", then the two strings
- * obviously are "take" and "map").
+ * A command currently consists of two parts: a CommandWord and a string
+ * (for example, if the command was "take map", then the two parts
+ * are TAKE and "map").
  * 
  * The way this is used is: Commands are already checked for being valid
  * command words. If the user entered an invalid command (a word that is not
- * known) then the command word is <null>.
+ * known) then the CommandWord is UNKNOWN.
  *
  * If the command had only one word, then the second word is <null>.
  * 
@@ -19,19 +19,19 @@
 
 public class Command
 {
-    // the command word e.g. "go", "look" etc.
-    private String commandWord;
+    // the command word e.g. GO, LOOK etc.
+    private CommandWord commandWord;
     // the rest (argument).
     private String secondWord;
 
     /**
      * Create a command object. First and second word must be supplied, but
-     * either one (or both) can be null.
-     * @param firstWord The first word of the command. Null if the command
+     * the second one can be null.
+     * @param firstWord The CommandWord. UNKNOWN if the command word
      *                  was not recognised.
      * @param secondWord The second word of the command.
      */
-    public Command(String firstWord, String secondWord)
+    public Command(CommandWord firstWord, String secondWord)
     {
         commandWord = firstWord;
         this.secondWord = secondWord;
@@ -39,10 +39,10 @@ public class Command
 
     /**
      * Return the command word (the first word) of this command. If the
-     * command was not understood, the result is null.
+     * command was not understood, the result is UNKNOWN.
      * @return The command word.
      */
-    public String getCommandWord()
+    public CommandWord getCommandWord()
     {
         return commandWord;
     }
@@ -61,7 +61,7 @@ public class Command
      */
     public boolean isUnknown()
     {
-        return (commandWord == null);
+        return (commandWord == CommandWord.UNKNOWN);
     }
 
     /**
@@ -71,5 +71,18 @@ public class Command
     {
         return (secondWord != null);
     }
+
+    /**
+     * Return the command as it would be typed, e.g. "take map". The
+     * parser turns the result back into an equal command.
+     * @return The command as text.
+     */
+    public String toString()
+    {
+        if (secondWord == null) {
+            return commandWord.toString();
+        }
+        return commandWord + " " + secondWord;
+    }
 }
 
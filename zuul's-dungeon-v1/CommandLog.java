@@ -0,0 +1,178 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class CommandLog - records everything a game needs to be played
+ * again exactly the same way: its seed, the player's name, the
+ * commands in the order they were processed and, for simulated
+ * games, the ticks between them (see Replay).
+ *
+ * A log is a text file with one entry per line:
+ *   seed N         the game was seeded with N
+ *   simulated B    the game's characters act on ticks (true) or
+ *                  after every command (false)
+ *   start NAME     the game was started by a player named NAME
+ *   command TEXT   the command TEXT was processed
+ *   tick           the game was ticked
+ *   snapshot FILE  a snapshot of the game was written to FILE
+ *
+ * Subclasses may send the entries somewhere else by overriding
+ * write, as Journal does.
+ */
+public class CommandLog implements Closeable
+{
+    // where the entries are written.
+    private Writer writer;
+
+    /**
+     * Create a log writing to "file", replacing it if it exists.
+     * @param file The file.
+     * @throws IOException If the file can't be created.
+     */
+    public CommandLog(Path file) throws IOException {
+        this(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Create a log for a subclass that overrides write and close.
+     */
+    protected CommandLog() {
+    }
+
+    /**
+     * Create a log writing to "writer".
+     * @param writer Where the entries are written.
+     */
+    public CommandLog(Writer writer) {
+        this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer);
+    }
+
+    /**
+     * Record that the game was seeded.
+     * @param seed The seed.
+     */
+    public void seed(long seed) {
+        write("seed " + seed);
+    }
+
+    /**
+     * Record whether the game's characters act on ticks.
+     * @param simulated True if they act on ticks.
+     */
+    public void simulated(boolean simulated) {
+        write("simulated " + simulated);
+    }
+
+    /**
+     * Record that the game was started.
+     * @param playerName The player's name.
+     */
+    public void start(String playerName) {
+        write("start " + playerName);
+    }
+
+    /**
+     * Record that a command was processed.
+     * @param command The command.
+     */
+    public void command(Command command) {
+        write("command " + command);
+    }
+
+    /**
+     * Record that the game was ticked.
+     */
+    public void tick() {
+        write("tick");
+    }
+
+    /**
+     * Record that a snapshot of the game was written. A game can
+     * be recovered from the snapshot and the entries after this
+     * one (see Journal).
+     * @param file The snapshot's file.
+     */
+    public void snapshot(Path file) {
+        write("snapshot " + file);
+    }
+
+    /**
+     * Write an entry on a line of its own.
+     * @param entry The entry.
+     */
+    protected synchronized void write(String entry) {
+        try {
+            writer.write(entry);
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write out any buffered entries and close the log.
+     */
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Read the entries of the log in "file", one per line.
+     * @param file The file.
+     * @return The entries.
+     * @throws IOException If the file can't be read or holds
+     * something that isn't an entry.
+     */
+    public static List<String[]> read(Path file) throws IOException {
+        List<String[]> entries = new ArrayList<>();
+        int number = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            number++;
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] entry = parse(line);
+            if (entry == null) {
+                throw new IOException(file + ":" + number + ": not a log entry: " + line);
+            }
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Split an entry into its type and argument.
+     * @param line The entry, without the line break.
+     * @return The type and the argument (null if the type has none),
+     * or null if the line isn't an entry.
+     */
+    public static String[] parse(String line) {
+        int split = line.indexOf(' ');
+        String type = split < 0 ? line : line.substring(0, split);
+        String argument = split < 0 ? null : line.substring(split + 1);
+        boolean valid;
+        switch (type) {
+            case "tick":
+                valid = argument == null;
+                break;
+            case "seed":
+            case "simulated":
+            case "start":
+            case "command":
+            case "snapshot":
+                valid = argument != null;
+                break;
+            default:
+                valid = false;
+        }
+        return valid ? new String[] {type, argument} : null;
+    }
+}
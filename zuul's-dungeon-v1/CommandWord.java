@@ -0,0 +1,51 @@
+/**
+ * Representations for all the valid command words for the game, along
+ * with a brief description of their arguments, printed when the player
+ * uses the help command. Resolving the typed word to one of these once,
+ * in the parser, lets the game dispatch on it without comparing strings.
+ */
+public enum CommandWord
+{
+    // a value for each command word along with its corresponding
+    // user interface string and argument description.
+    GO("go", "[direction]; back"),
+    LOOK("look", "(None); [item name]; inventory"),
+    USE("use", "[item name] - to fight, enter: 'use [weapon name]"),
+    TAKE("take", "[item name]"),
+    DROP("drop", "[item name]"),
+    SAY("say", "[phrase] - e.g.: 'hi'; 'how's it going'. (Only salutations have been implemented.)"),
+    GIVE("give", "[character name] [item name]"),
+    HELP("help", "(None)"),
+    QUIT("quit", "(None)"),
+    UNKNOWN("?", "");
+    
+    // the command string.
+    private String commandString;
+    // a brief description of the arguments.
+    private String arguments;
+    
+    /**
+     * Initialise with the corresponding command string.
+     * @param commandString The command string.
+     * @param arguments A brief description of the arguments.
+     */
+    CommandWord(String commandString, String arguments) {
+        this.commandString = commandString;
+        this.arguments = arguments;
+    }
+    
+    /**
+     * Return the description of the arguments.
+     * @return The description of the arguments.
+     */
+    public String getArguments() {
+        return arguments;
+    }
+    
+    /**
+     * @return The command word as a string.
+     */
+    public String toString() {
+        return commandString;
+    }
+}
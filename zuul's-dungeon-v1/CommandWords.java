@@ -3,6 +3,11 @@ import java.util.TreeMap;
 /**
  * This class holds an enumeration of all command words known to the game.
  * It is used to recognise commands as they are typed in.
+ * 
+ * The words are looked up in a perfect hash table built from the valid
+ * commands when the class is loaded, so recognising a word takes one
+ * hash and one comparison and never allocates, whether the word is in a
+ * String or still in a network receive buffer.
  *
  * @author  Michael Kolling and David J. Barnes, edited by Joel Hagrot.
  * @version 2008.03.30, edited 2013.12.15.
@@ -10,21 +15,39 @@ import java.util.TreeMap;
 
 public class CommandWords
 {
-    // a TreeMap holding all valid command words. The values holds brief descriptions of the
-    // possible arguments and they're printed when the player uses the help command.
-    private static final TreeMap<String, String> validCommands = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    // a TreeMap holding all valid command words, mapped to their CommandWord.
+    // The CommandWord holds a brief description of the possible arguments,
+    // printed when the player uses the help command.
+    private static final TreeMap<String, CommandWord> validCommands = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
     static
     {
-        validCommands.put("go", "[direction]; back");
-        validCommands.put("look", "(None); [item name]; inventory");
-        validCommands.put("use", "[item name] - to fight, enter: 'use [weapon name]");
-        validCommands.put("take", "[item name]");
-        validCommands.put("drop", "[item name]");
-        validCommands.put("say", "[phrase] - e.g.: 'hi'; 'how's it going'. (Only salutations have been implemented.)");
-        validCommands.put("give", "[character name] [item name]");
-        validCommands.put("help", "(None)");
-        validCommands.put("quit", "(None)");
+        for (CommandWord command : CommandWord.values()) {
+            if (command != CommandWord.UNKNOWN) {
+                validCommands.put(command.toString(), command);
+            }
+        }
+    }
+    // the perfect hash table: every valid command word sits in the slot
+    // its hash points at, and no two words share a slot.
+    private static final CommandWord[] table;
+    // the multiplier used by the hash function, chosen so that the
+    // hash is perfect for the valid command words.
+    private static final int multiplier;
+    static
+    {
+        CommandWord[] candidate = null;
+        int found = 0;
+        for (int size = 16; candidate == null; size *= 2) {
+            for (int m = 1; m < 256 && candidate == null; m++) {
+                candidate = buildTable(size, m);
+                found = m;
+            }
+        }
+        table = candidate;
+        multiplier = found;
     }
+    // the help text, built once.
+    private static final String commandList = buildCommandList();
 
     /**
      * Constructor - initialise the command words.
@@ -32,6 +55,42 @@ public class CommandWords
     public CommandWords() {
         // nothing to do at the moment...
     }
+    
+    /**
+     * Try to place every valid command word in a table of "size"
+     * slots, hashed with multiplier "m".
+     * @return The table, or null if two words share a slot.
+     */
+    private static CommandWord[] buildTable(int size, int m) {
+        CommandWord[] slots = new CommandWord[size];
+        for (CommandWord command : validCommands.values()) {
+            String word = command.toString();
+            int slot = hash(word.charAt(0), word.charAt(word.length() - 1), word.length(), m, size);
+            if (slots[slot] != null) {
+                return null;
+            }
+            slots[slot] = command;
+        }
+        return slots;
+    }
+    
+    /**
+     * The hash function: mixes the first and last letter (lower case)
+     * and the length of a word.
+     */
+    private static int hash(int first, int last, int length, int m, int size) {
+        return ((first * m) ^ (last * 31) ^ length) & (size - 1);
+    }
+    
+    /**
+     * Fold an ASCII upper case letter to lower case.
+     */
+    private static int fold(int c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c + ('a' - 'A');
+        }
+        return c;
+    }
 
     /**
      * Check whether a given String is a valid command word. 
@@ -39,22 +98,53 @@ public class CommandWords
      * false if it isn't.
      */
     public boolean isCommand(String aString) {
-        if (validCommands.containsKey(aString)) {
-            return true;
+        return getCommandWord(aString, 0, aString.length()) != CommandWord.UNKNOWN;
+    }
+    
+    /**
+     * Return the command word spelled by the characters of "text"
+     * from "start" to "end", ignoring case.
+     * @param text The text holding the word.
+     * @param start The index of the word's first character.
+     * @param end The index after the word's last character.
+     * @return The command word, or UNKNOWN if it isn't a valid command.
+     */
+    public CommandWord getCommandWord(CharSequence text, int start, int end) {
+        int length = end - start;
+        if (length == 0) {
+            return CommandWord.UNKNOWN;
+        }
+        CommandWord command = table[hash(fold(text.charAt(start)), fold(text.charAt(end - 1)), length, multiplier, table.length)];
+        if (command == null) {
+            return CommandWord.UNKNOWN;
+        }
+        String word = command.toString();
+        if (word.length() != length) {
+            return CommandWord.UNKNOWN;
+        }
+        for (int i = 0; i < length; i++) {
+            if (fold(text.charAt(start + i)) != word.charAt(i)) {
+                return CommandWord.UNKNOWN;
+            }
         }
-        // if we get here, the string was not found in the commands
-        return false;
+        return command;
     }
     
     /**
-     * Print all valid commands.
+     * Build the list of all valid commands.
      */
-    public String getCommandList() {
-        String commandList = "";
+    private static String buildCommandList() {
+        StringBuilder commandList = new StringBuilder();
         for (String key : validCommands.keySet()) {
-            commandList += key;
-            commandList += " +: " + validCommands.get(key) + "\n";
+            commandList.append(key).append(" +: ").append(validCommands.get(key).getArguments()).append("\n");
         }
+        return commandList.toString();
+    }
+    
+    /**
+     * Print all valid commands.
+     */
+    public String getCommandList() {
         return commandList;
     }
-}
\ No newline at end of file
+}
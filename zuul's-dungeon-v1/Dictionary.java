@@ -27,6 +27,26 @@ public class Dictionary
         salutations.add("what's up");
         salutations.add("whats up");
     }
+    // every word, mapped to the word group it belongs to,
+    // for looking phrases up without regard to case.
+    private static final NameIndex<String> wordGroups = new NameIndex<>();
+    static
+    {
+        for (String word : salutations) {
+            wordGroups.put(word, "salutations");
+        }
+    }
+    
+    /**
+     * Return the word group "phrase" belongs to
+     * (case insensitive).
+     * @param phrase The phrase.
+     * @return The word group, e.g. "salutations",
+     * or null if the phrase isn't a valid word.
+     */
+    public String getWordGroup(String phrase) {
+        return wordGroups.get(phrase);
+    }
     
     /**
      * Return all words in the salutations 
@@ -0,0 +1,24 @@
+import java.util.List;
+
+/**
+ * Receives the events of a game (see GameEvent), a command's worth
+ * at a time.
+ */
+public interface EventSink
+{
+    /**
+     * Receive the events of one command, tick or start, in the
+     * order they happened. The list is reused by the game, so it
+     * must be copied if the events are kept.
+     * @param events The events.
+     */
+    void accept(List<GameEvent> events);
+
+    /**
+     * Push anything the sink has buffered on to its destination,
+     * e.g. before the game waits for the player. Does nothing
+     * unless the sink buffers.
+     */
+    default void flush() {
+    }
+}
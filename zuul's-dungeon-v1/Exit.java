@@ -11,8 +11,12 @@ public class Exit
 {
     // only for display purposes and thus works as a name.
     private String direction;
-    // stores the room the exit leads to.
+    // stores the room the exit leads to, once it's been looked up.
     private Room neighbour;
+    // the world and index of the room the exit leads to, used to
+    // look the room up when it's first needed.
+    private World world;
+    private int target;
     // determines whether the exit is locked or not.
     private boolean unlocked;
     // stores what item is needed to unlock the exit.
@@ -33,6 +37,27 @@ public class Exit
         this.neighbour = neighbour;
         this.unlocked = unlocked;
         this.key = key;
+        target = WorldTemplate.NONE;
+    }
+    
+    /**
+     * Create an exit leading to room number "target" of "world". The
+     * room is looked up when it's first needed, so that creating an
+     * exit doesn't create the room behind it.
+     * @param direction The direction (name).
+     * @param world The world the rooms belong to.
+     * @param target The index of the room the exit leads to, or
+     * WorldTemplate.NONE.
+     * @param unlocked The exit's status.
+     * @param key The key that fits the lock (null if there's
+     * no lock).
+     */
+    public Exit(String direction, World world, int target, boolean unlocked, Item key) {
+        this.direction = direction;
+        this.world = world;
+        this.target = target;
+        this.unlocked = unlocked;
+        this.key = key;
     }
     
     /**
@@ -43,11 +68,24 @@ public class Exit
         return direction;
     }
     
+    /**
+     * Return the index of the room the exit leads to, without
+     * creating the room.
+     * @return The room's index, or WorldTemplate.NONE if the exit
+     * leads nowhere.
+     */
+    public int getTargetIndex() {
+        return neighbour != null ? neighbour.getIndex() : target;
+    }
+
     /**
      * Return the neighbour - the room the exit leads to.
      * @return The neighbour - the room the exit leads to.
      */
     public Room getNeighbour() {
+        if (neighbour == null && target != WorldTemplate.NONE) {
+            neighbour = world.getRoom(target);
+        }
         return neighbour;
     }
     
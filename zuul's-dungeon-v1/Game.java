@@ -1,15 +1,23 @@
-import java.util.Stack;
-import java.util.TreeMap;
-import java.util.TreeSet;
-import java.util.Random;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.TreeMap;
+import java.util.EnumMap;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+import java.util.function.BiConsumer;
 
 /**
  *  This class is the main class of the "Zuul's Dungeon" application. 
  *  "Zuul's Dungeon" is a very simple, text based adventure game.
  * 
  *  To play this game, create an instance of this class and call the "play"
- *  method.
+ *  method. Every instance is an independent session with its own world, so
+ *  several games may run side by side in one JVM (see GameServer).
  * 
  *  This main class creates and initialises all the others. It also evaluates and
  *  executes the commands that the parser returns.
@@ -27,157 +35,247 @@ public class Game
     private Dictionary dictionary;
     // a map for keeping track of all characters except the player.
     private TreeMap<String, Character> characters;
-    // a map for keeping track of all rooms.
-    private TreeMap<String, Room> rooms;
-    // a map for keeping track of all items.
-    private TreeMap<String, Item> items;
     // a map for keeping track of all quests.
     private TreeMap<String, Quest> quests;
     // the player's Character instance.
     private Character player;
-    // the random instance.
-    private Random random;
+    // the seed the random streams below were created from.
+    private long seed;
+    // the random stream deciding the fights.
+    private SplittableRandom combat;
+    // splits off the random streams used to move the characters,
+    // one stream per region with characters in it and move.
+    private SplittableRandom movement;
+    // records the game so it can be replayed, null if it isn't
+    // recorded.
+    private CommandLog log;
+    // the number of room regions the characters are split into
+    // when they move.
+    private static final int REGIONS = 64;
+    // the fewest characters worth moving in parallel.
+    private static final int PARALLEL_THRESHOLD = 2048;
+    // where each region's characters start in "moving", and where
+    // the next one goes while they're sorted into it. Kept between
+    // moves, as are the arrays below.
+    private int[] regionStart;
+    private int[] regionNext;
+    // the characters sorted by region, and the moves chosen for
+    // them. Only grown when there are more characters than fit.
+    private Character[] moving;
+    private Room[] moves;
+    // the random stream of each region, null for regions without
+    // characters.
+    private SplittableRandom[] streams;
     // a variable for the countdown timer.
     private int time;
+    // receives everything the player is told.
+    private EventSink sink;
+    // the events of the command being processed, handed to the
+    // sink when it's done.
+    private ArrayList<GameEvent> events;
+    // set when the player has quit, won or died.
+    private volatile boolean finished;
+    // how the game has ended, PLAYING until it has.
+    private Outcome outcome;
+    // the name of the character who killed the player, null
+    // unless the player was killed.
+    private String killer;
+    // the number of commands processed since the game started.
+    private int commandCount;
+    // set when the characters act on the ticks of a Simulation
+    // instead of after every command.
+    private boolean simulated;
+    // the dispatch table: maps every command word to the action
+    // carrying it out. Shared by all games, so building a game
+    // doesn't hand "this" to the table before it's initialized.
+    private static final EnumMap<CommandWord, BiConsumer<Game, Command>> actions = new EnumMap<>(CommandWord.class);
+    static
+    {
+        actions.put(CommandWord.HELP, (game, command) -> game.printHelp());
+        actions.put(CommandWord.GO, Game::goRoom);
+        actions.put(CommandWord.LOOK, Game::look);
+        actions.put(CommandWord.USE, Game::attemptUse);
+        actions.put(CommandWord.TAKE, Game::take);
+        actions.put(CommandWord.GIVE, Game::give);
+        actions.put(CommandWord.SAY, Game::say);
+        actions.put(CommandWord.DROP, Game::drop);
+        actions.put(CommandWord.QUIT, Game::quit);
+    }
+    // the template of the world the game is played in, shared with
+    // other games.
+    private WorldTemplate template;
+    // this game's copy of the world.
+    private World world;
+    // the standard world, built when first needed and shared by
+    // every game played in it.
+    private static WorldTemplate standardWorld;
     
     /**
-     * Main method for running the game as a jar file.
+     * Main method for running the game as a jar file. The game is
+     * played in the world file given as the first argument, if any
+     * (see WorldLoader), and in the standard world otherwise.
      */
-    public static void main(String[] args) {
-        Game game = new Game();
+    public static void main(String[] args) throws IOException {
+        Game game;
+        if (args.length > 0) {
+            game = new Game(new Parser(), System.out, WorldLoader.load(Paths.get(args[0])));
+        } else {
+            game = new Game();
+        }
         game.play();
     }
     
     /**
-     * Create the game and initialise its internal map.
+     * Create the game and initialise its internal map. The game
+     * reads from and prints to the terminal window.
      */
     public Game() {
-        parser = new Parser();
+        this(new Parser(), System.out);
+    }
+    
+    /**
+     * Create a game reading commands from "parser" and printing to
+     * "out". Nothing is shared with other Game instances.
+     * @param parser The source of the player's commands.
+     * @param out Where all game output is printed.
+     */
+    public Game(Parser parser, PrintStream out) {
+        this(parser, out, getStandardWorld());
+    }
+    
+    /**
+     * Create a game played in a world copied from "template", reading
+     * commands from "parser" and printing to "out". The template is
+     * never changed, so it may be shared with other games.
+     * @param parser The source of the player's commands.
+     * @param out Where all game output is printed.
+     * @param template The world to play in.
+     */
+    public Game(Parser parser, PrintStream out, WorldTemplate template) {
+        this(parser, new TextSink(out), template);
+    }
+    
+    /**
+     * Create a game played in a world copied from "template", reading
+     * commands from "parser" and telling the player what happens
+     * through events handed to "sink".
+     * @param parser The source of the player's commands.
+     * @param sink Receives everything the player is told.
+     * @param template The world to play in.
+     */
+    public Game(Parser parser, EventSink sink, WorldTemplate template) {
+        this.parser = parser;
+        this.sink = sink;
+        this.template = template;
+        events = new ArrayList<>();
         dictionary = new Dictionary();
         characters = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-        rooms = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-        items = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
         quests = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-        random = new Random();
-        play();
+        regionStart = new int[REGIONS + 1];
+        regionNext = new int[REGIONS];
+        moving = new Character[0];
+        moves = new Room[0];
+        streams = new SplittableRandom[REGIONS];
+        seedStreams(new SplittableRandom().nextLong());
+        outcome = Outcome.PLAYING;
     }
 
     /**
-     * Initialize the game.
+     * Return the standard world, building it the first time.
+     * @return The standard world.
      */
-    private void initializeGame() {
-        // initialize timer
-        time = 15;
+    public static synchronized WorldTemplate getStandardWorld() {
+        if (standardWorld == null) {
+            standardWorld = buildStandardWorld();
+        }
+        return standardWorld;
+    }
+    
+    /**
+     * Build the standard world of Zuul's Dungeon. The same world can
+     * also be loaded from a world file (see WorldLoader).
+     * @return The standard world.
+     */
+    public static WorldTemplate buildStandardWorld() {
+        WorldTemplate.Builder world = new WorldTemplate.Builder();
+        world.setIntro("You wake up from a nightmare in the noble rented house in the diplomat " +
+                       "district of Skingrad, Cyrodiil. Something chased you, but it was " +
+                       "but a shadow of unknown shape. Leaving you with an unusual feeling " +
+                       "of unease, you can't close your eyes and go to sleep again.\n");
         
         // initialize quests
-        initializeQuest("quest1", 2);
+        world.addQuest("quest1", 2);
         
         // create the rooms
         // intro
-        Room bedroom = new Room("bedroom", "in your bedroom on the second floor of the house. The night is gloomy and the faint brightness from the street lanterns outside cast eerie shadows on the walls, while the wind produces startling sounds. The pitter-patter of the rain puts you in a mood of desolation.");
-        Room hallwayHouse = new Room("hallwayHouse", "in the hallway at the top of the stairs. The railing, littered with ornaments, leads down into complete darkness, contrasting the light from the candle on the wall.");
-        Room study = new Room("study", "in the study upstairs. The bookcases are crammed with carefully sorted literature.");
-        Room stairway = new Room("stairway", "in the stairs. You try to sneak but the age of the stairs is evident.");
-        Room antechamber = new Room("antechamber", "in the antechamber. Your eyes start to adjust to the darkness slowly. There is a small bit of light from the keyhole in the door and from the windows in the kitchen and living room.");
-        Room kitchen = new Room("kitchen", "in the kitchen. The rain lies heavy on the windows.");
+        world.addRoom("bedroom", "in your bedroom on the second floor of the house. The night is gloomy and the faint brightness from the street lanterns outside cast eerie shadows on the walls, while the wind produces startling sounds. The pitter-patter of the rain puts you in a mood of desolation.");
+        world.addRoom("hallwayHouse", "in the hallway at the top of the stairs. The railing, littered with ornaments, leads down into complete darkness, contrasting the light from the candle on the wall.");
+        world.addRoom("study", "in the study upstairs. The bookcases are crammed with carefully sorted literature.");
+        world.addRoom("stairway", "in the stairs. You try to sneak but the age of the stairs is evident.");
+        world.addRoom("antechamber", "in the antechamber. Your eyes start to adjust to the darkness slowly. There is a small bit of light from the keyhole in the door and from the windows in the kitchen and living room.");
+        world.addRoom("kitchen", "in the kitchen. The rain lies heavy on the windows.");
         // dungeon
-        Room cell1 = new Room("cell1", "in the prison cell your kidnappers dumped you in. The warm light from the torches in the hallway shines through the cold iron bars and everything's silent except for the dripping sound of the occasional drop of water from the moist ceiling.");
-        Room hallwayA1 = new Room("hallwayA1", "in the hallway outside the prison cell you woke up in. There's another cell to the left, open and devoid of any traces of life.");
-        Room hallwayA2 = new Room("hallwayA2", "in the hallway south of the prison cell you woke up in. There's another cell on your left side along the hallway to the east.");
-        Room cell2 = new Room("cell2", "in the cell north of the prison cell you woke up in. Whoever might have resided in here must have left ages ago.");
-        Room hallwayA3 = new Room("hallwayA3", "in the hallway around the corner from your old cell. There's another cell to the north.");
-        Room cell3 = new Room("cell3", "in the cell the old man resided in. You feel pretty confounded at the fact the scrawny man didn't seem to have anything, not even food or water...");
-        Room hallwayA4 = new Room("hallwayA4", "at the bottom of a narrow spiral staircase made from stone, leading clockwise upwards. Torches are put at regular intervals, illuminating the moist rock.");
-        Room stairsAB = new Room("stairsAB", "in the middle of the spiral staircase, leading clockwise upwards.");
-        Room hallwayB1 = new Room("hallwayB1", "at the top of a narrow spiral staircase made from stone, leading clockwise upwards. Torches are put at regular intervals, illuminating the moist rock. There's a door with a small window with bars to the north.");
-        // rooms that the program needs to be able to access outside of this block are also put in the "rooms" TreeMap.
-        rooms.put(study.getName(), study);
-        rooms.put(cell1.getName(), cell1);
-        rooms.put(hallwayA1.getName(), hallwayA1);
-        rooms.put(cell2.getName(), cell2);
-        rooms.put(hallwayA2.getName(), hallwayA2);
-        rooms.put(hallwayA3.getName(), hallwayA3);
-        rooms.put(cell3.getName(), cell3);
-        rooms.put(hallwayA4.getName(), hallwayA4);
-        rooms.put(stairsAB.getName(), stairsAB);
-        rooms.put(hallwayB1.getName(), hallwayB1);
+        world.addRoom("cell1", "in the prison cell your kidnappers dumped you in. The warm light from the torches in the hallway shines through the cold iron bars and everything's silent except for the dripping sound of the occasional drop of water from the moist ceiling.");
+        world.addRoom("hallwayA1", "in the hallway outside the prison cell you woke up in. There's another cell to the left, open and devoid of any traces of life.");
+        world.addRoom("hallwayA2", "in the hallway south of the prison cell you woke up in. There's another cell on your left side along the hallway to the east.");
+        world.addRoom("cell2", "in the cell north of the prison cell you woke up in. Whoever might have resided in here must have left ages ago.");
+        world.addRoom("hallwayA3", "in the hallway around the corner from your old cell. There's another cell to the north.");
+        world.addRoom("cell3", "in the cell the old man resided in. You feel pretty confounded at the fact the scrawny man didn't seem to have anything, not even food or water...");
+        world.addRoom("hallwayA4", "at the bottom of a narrow spiral staircase made from stone, leading clockwise upwards. Torches are put at regular intervals, illuminating the moist rock.");
+        world.addRoom("stairsAB", "in the middle of the spiral staircase, leading clockwise upwards.");
+        world.addRoom("hallwayB1", "at the top of a narrow spiral staircase made from stone, leading clockwise upwards. Torches are put at regular intervals, illuminating the moist rock. There's a door with a small window with bars to the north.");
         
         // create characters.
-        initializeCharacter("Hrangst Jaltibrond", 50, 30, 100, false, false, cell3);
+        world.addCharacter("Hrangst Jaltibrond", 50, 30, 100, false, false, "cell3");
         
         // create dialogue for the characters.
-        characters.get("Hrangst Jaltibrond").addDialogue("pardon", "Pardon?");
-        characters.get("Hrangst Jaltibrond").addDialogue("greetingsNear", "A scrawny, bearded old figure inhabits the cell to the north.\nHrangst Jaltibrond: Lone wanderer... I beg of you, help me, please.");
-        characters.get("Hrangst Jaltibrond").addDialogue("greetingsSame", "Hrangst Jaltibrond: Please...");
-        characters.get("Hrangst Jaltibrond").addDialogue("salutations", "Thank the Gods you arrived. I am a mere mortal in this horrible place. Could you please help me get out of here? I heard you using the key over there...");
+        world.addDialogue("Hrangst Jaltibrond", "pardon", "Pardon?");
+        world.addDialogue("Hrangst Jaltibrond", "greetingsNear", "A scrawny, bearded old figure inhabits the cell to the north.\nHrangst Jaltibrond: Lone wanderer... I beg of you, help me, please.");
+        world.addDialogue("Hrangst Jaltibrond", "greetingsSame", "Hrangst Jaltibrond: Please...");
+        world.addDialogue("Hrangst Jaltibrond", "salutations", "Thank the Gods you arrived. I am a mere mortal in this horrible place. Could you please help me get out of here? I heard you using the key over there...");
         
         // initialize items
-        initializeItem("Bread loaf", "A bread loaf in surprisingly good condition.", 0.2, "none", 0, true, "miscellaneous", "You pull out the bread loaf and it does look tasty, but you don't feel that hungry yet.", true, "cell1");
-        initializeItem("Sheath knife", "A sharp sheath knife made of steel.", 0.2, "Damage", 20, true, "weapon", "You swing the knife.", false, "study");
-        initializeItem("Note from kidnappers", "A rather neatly put together note, apparently written by whoever kidnapped you.", 0.1, "none", 0, true, "miscellaneous", "It reads:\n\"" + player.getName() + ",\nYour plans are over. I know of your schemes, your plot to overthrow the order using Dagon's heart.\nYou will not succeed. I am a mage of great power, indeed I once trapped the emperor himself and have now returned\nmore powerful than ever. You are trapped in my dimension, my plane of Oblivion, just like my father, Jagar Tharn, trapped the emperor all those centuries ago.\nBut I am a person of sports, and will allow you a chance to redeem yourself. Of course your plot is forever lost, but\nyou may yet survive and leave this place. Prove your worthiness in my dungeon!\nZuul Tharn\"", false, "cell1");
-        initializeItem("Crude key", "A very crude looking key made from dark and rusty iron.", 0.05, "none", 0, true, "key", "You pull the key out of your bag, it feels rather fragile and light in your palm.", true, "cell2");
-        initializeItem("Sturdy key", "A sturdy key made from cast iron.", 0.1, "none", 0, true, "key", "You pull the key out of your bag, it feels rather cold and heavy.", true, "Hrangst Jaltibrond");
-        initializeItem("Rusty sword", "A rusty old sword, dull to the point any death caused by it must be extremely painful.", 5, "Damage", 50, true, "weapon", "You swing the sword.", false, "hallwayB1");
-        initializeItem("Fists", "Your fists. They may be used as a last route while fighting.", 0, "Damage", 5, true, "weapon", "You swing a powerful blow using your fists.", true, "");
-        
+        world.addItem("Bread loaf", "A bread loaf in surprisingly good condition.", 0.2, "none", 0, true, "miscellaneous", "You pull out the bread loaf and it does look tasty, but you don't feel that hungry yet.", true, "cell1");
+        world.addItem("Sheath knife", "A sharp sheath knife made of steel.", 0.2, "Damage", 20, true, "weapon", "You swing the knife.", false, "study");
+        world.addItem("Note from kidnappers", "A rather neatly put together note, apparently written by whoever kidnapped you.", 0.1, "none", 0, true, "miscellaneous", "It reads:\n\"{player},\nYour plans are over. I know of your schemes, your plot to overthrow the order using Dagon's heart.\nYou will not succeed. I am a mage of great power, indeed I once trapped the emperor himself and have now returned\nmore powerful than ever. You are trapped in my dimension, my plane of Oblivion, just like my father, Jagar Tharn, trapped the emperor all those centuries ago.\nBut I am a person of sports, and will allow you a chance to redeem yourself. Of course your plot is forever lost, but\nyou may yet survive and leave this place. Prove your worthiness in my dungeon!\nZuul Tharn\"", false, "cell1");
+        world.addItem("Crude key", "A very crude looking key made from dark and rusty iron.", 0.05, "none", 0, true, "key", "You pull the key out of your bag, it feels rather fragile and light in your palm.", true, "cell2");
+        world.addItem("Sturdy key", "A sturdy key made from cast iron.", 0.1, "none", 0, true, "key", "You pull the key out of your bag, it feels rather cold and heavy.", true, "Hrangst Jaltibrond");
+        world.addItem("Rusty sword", "A rusty old sword, dull to the point any death caused by it must be extremely painful.", 5, "Damage", 50, true, "weapon", "You swing the sword.", false, "hallwayB1");
+        world.addItem("Fists", "Your fists. They may be used as a last route while fighting.", 0, "Damage", 5, true, "weapon", "You swing a powerful blow using your fists.", true, "");
         
         // initialize room exits.
         // intro
-        bedroom.setExit("south", hallwayHouse, true, null);
-        hallwayHouse.setExit("north", bedroom, true, null);
-        hallwayHouse.setExit("east", study, true, null);
-        hallwayHouse.setExit("down", stairway, true, null);
-        study.setExit("west", hallwayHouse, true, null);
-        stairway.setExit("up", hallwayHouse, true, null);
-        stairway.setExit("down", antechamber, true, null);
-        antechamber.setExit("east", kitchen, true, null);
-        antechamber.setExit("up", stairway, true, null);
-        antechamber.setExit("west", null, true, null);
-        kitchen.setExit("west", antechamber, true, null);
+        world.addExit("bedroom", "south", "hallwayHouse", true, null);
+        world.addExit("hallwayHouse", "north", "bedroom", true, null);
+        world.addExit("hallwayHouse", "east", "study", true, null);
+        world.addExit("hallwayHouse", "down", "stairway", true, null);
+        world.addExit("study", "west", "hallwayHouse", true, null);
+        world.addExit("stairway", "up", "hallwayHouse", true, null);
+        world.addExit("stairway", "down", "antechamber", true, null);
+        world.addExit("antechamber", "east", "kitchen", true, null);
+        world.addExit("antechamber", "up", "stairway", true, null);
+        world.addExit("antechamber", "west", null, true, null);
+        world.addExit("kitchen", "west", "antechamber", true, null);
         // maze
-        cell1.setExit("east", hallwayA1, true, null);
-        hallwayA1.setExit("north", cell2, true, null);
-        hallwayA1.setExit("west", cell1, true, null);
-        hallwayA1.setExit("south", hallwayA2, false, items.get("Crude key"));
-        cell2.setExit("south", hallwayA1, true, null);
-        hallwayA2.setExit("north", hallwayA1, true, null);
-        hallwayA2.setExit("east", hallwayA3, true, null);
-        hallwayA3.setExit("west", hallwayA2, true, null);
-        hallwayA3.setExit("north", cell3, false, items.get("Crude key"));
-        cell3.setExit("south", hallwayA3, true, null);
-        hallwayA3.setExit("east", hallwayA4, false, items.get("Sturdy key"));
-        hallwayA4.setExit("west", hallwayA3, true, null);
-        hallwayA4.setExit("up", stairsAB, true, null);
-        stairsAB.setExit("down", hallwayA4, true, null);
-        stairsAB.setExit("up", hallwayB1, true, null);
-        hallwayB1.setExit("down", stairsAB, true, null);
+        world.addExit("cell1", "east", "hallwayA1", true, null);
+        world.addExit("hallwayA1", "north", "cell2", true, null);
+        world.addExit("hallwayA1", "west", "cell1", true, null);
+        world.addExit("hallwayA1", "south", "hallwayA2", false, "Crude key");
+        world.addExit("cell2", "south", "hallwayA1", true, null);
+        world.addExit("hallwayA2", "north", "hallwayA1", true, null);
+        world.addExit("hallwayA2", "east", "hallwayA3", true, null);
+        world.addExit("hallwayA3", "west", "hallwayA2", true, null);
+        world.addExit("hallwayA3", "north", "cell3", false, "Crude key");
+        world.addExit("cell3", "south", "hallwayA3", true, null);
+        world.addExit("hallwayA3", "east", "hallwayA4", false, "Sturdy key");
+        world.addExit("hallwayA4", "west", "hallwayA3", true, null);
+        world.addExit("hallwayA4", "up", "stairsAB", true, null);
+        world.addExit("stairsAB", "down", "hallwayA4", true, null);
+        world.addExit("stairsAB", "up", "hallwayB1", true, null);
+        world.addExit("hallwayB1", "down", "stairsAB", true, null);
         
-        player.addLocationHistory(bedroom);  // start game in bedroom
-        player.addItem(items.get("Fists"));
-    }
-    
-    /**
-     * Initialize item.
-     * @param description The item's description.
-     * @param weight The item's weight.
-     * @param parameterType The item's parameter's type.
-     * @param parameter The item's parameter.
-     * @param takeable The item's "takeable" status.
-     * @param type The item's type.
-     * @param use Description of what happens when item is used.
-     * @param questItem Determines whether item is flagged as "quest item".
-     * or not.
-     * @param place Where to place the item, null if not to be placed. The
-     * name of either a character or room.
-     */
-    public void initializeItem(String name, String description, double weight, String parameterType, int parameter, boolean takeable, String type, String use, boolean questItem, String place) {
-        Item item = new Item(name, description, weight, parameterType, parameter, takeable, type, use, questItem);
-        items.put(item.getName(), item);
-        if (rooms.containsKey(place)) {
-            rooms.get(place).addItem(item);
-        } else if (characters.containsKey(place)) {
-            characters.get(place).addItem(item);
-        }
+        world.setStart("bedroom", "Fists");  // start game in bedroom
+        return world.build();
     }
     
     /**
@@ -194,43 +292,89 @@ public class Game
     }
 
     /**
-     *  Main play routine.  Loops until end of play.
+     *  Main play routine.  Loops until end of play or until the
+     *  input ends.
      */
     public void play() {
-        // initialize player and game.
-        System.out.println("What is your name?");
-        String name = parser.getInput();
-        player = new Character(name, 50, 10, 100, true, false);
-        initializeGame();
-        
-        printWelcome();
-        
-        System.out.println("You wake up from a nightmare in the noble rented house in the diplomat " +
-                           "district of Skingrad, Cyrodiil. Something chased you, but it was " +
-                           "but a shadow of unknown shape. Leaving you with an unusual feeling " +
-                           "of unease, you can't close your eyes and go to sleep again.\n");
-                           
-        printLocationInfo();
+        if (!begin()) {
+            return;
+        }
 
         // Enter the main command loop.  Here we repeatedly read commands and
         // execute them until the game is over.
                 
-        while (true) {
+        while (!finished) {
             Command command = parser.getCommand();
+            if (command == null) {
+                return;
+            }
             processCommand(command);
         }
+        sink.flush();
+    }
+    
+    /**
+     * Ask for the player's name and start the game with it, for
+     * whoever runs the command loop (see play).
+     * @return False if the player left without giving a name.
+     */
+    public boolean begin() {
+        // initialize player and game.
+        print("What is your name?");
+        flushEvents();
+        sink.flush();
+        String name = parser.getInput();
+        if (name == null) {
+            return false;
+        }
+        start(name);
+        return true;
+    }
+    
+    /**
+     * Return whether the game is over.
+     * @return True if the player has quit, won or died.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+    
+    /**
+     * Return how the game has ended.
+     * @return The outcome, PLAYING if the game isn't over.
+     */
+    public synchronized Outcome getOutcome() {
+        return outcome;
+    }
+    
+    /**
+     * Return who killed the player.
+     * @return The killer's name, or null if the player wasn't
+     * killed.
+     */
+    public synchronized String getKiller() {
+        return killer;
+    }
+    
+    /**
+     * Return the number of commands processed since the game
+     * started, not counting those given after it was over.
+     * @return The number of commands.
+     */
+    public synchronized int getCommandCount() {
+        return commandCount;
     }
 
     /**
      * Print out the opening message for the player.
      */
     private void printWelcome() {
-        System.out.println();
-        System.out.println("Welcome to Zuul's Dungeon!");
-        System.out.println("Zuul's Dungeon is an adventure game set");
-        System.out.println("in the world of The Elder Scrolls.");
-        System.out.println("Type 'help' if you need help.");
-        System.out.println();
+        print();
+        print("Welcome to Zuul's Dungeon!");
+        print("Zuul's Dungeon is an adventure game set");
+        print("in the world of The Elder Scrolls.");
+        print("Type 'help' if you need help.");
+        print();
     }
     
     /**
@@ -241,86 +385,188 @@ public class Game
      * @param damage The character's initial damage.
      * @param health The character's initial health.
      * @param moveable The character's moveable status.
+     * @param hostile The character's hostile status.
      * @param room The character's initial room.
+     * @return The character.
      */
-    private void initializeCharacter(String name, double capacity, int damage, int health, boolean moveable, boolean hostile, Room room) {
+    public Character initializeCharacter(String name, double capacity, int damage, int health, boolean moveable, boolean hostile, Room room) {
         Character character = new Character(name, capacity, damage, health, moveable, hostile);
         characters.put(name, character);
         character.addLocationHistory(room);
+        return character;
+    }
+    
+    /**
+     * Create the player, start a fresh copy of the world and print
+     * the opening messages. Commands may then be passed to
+     * processCommand; play calls this after asking for the name.
+     * @param playerName The player's name.
+     */
+    public synchronized void start(String playerName) {
+        if (log != null) {
+            log.start(playerName);
+        }
+        // initialize timer
+        time = 15;
+        outcome = Outcome.PLAYING;
+        killer = null;
+        commandCount = 0;
+        player = new Character(playerName, 50, 10, 100, true, false);
+        world = new World(template);
+        template.populate(this);
+        
+        printWelcome();
+        print(template.getIntro());
+        printLocationInfo();
+        flushEvents();
+    }
+    
+    /**
+     * Return this game's copy of the world.
+     * @return The world.
+     */
+    public World getWorld() {
+        return world;
+    }
+    
+    /**
+     * Return the character named "name" (case insensitive).
+     * @param name The character's name.
+     * @return The character, or null if there's no such character.
+     */
+    public Character getCharacter(String name) {
+        return characters.get(name);
+    }
+    
+    /**
+     * Return the quest named "name" (case insensitive).
+     * @param name The quest's name.
+     * @return The quest, or null if there's no such quest.
+     */
+    public Quest getQuest(String name) {
+        return quests.get(name);
+    }
+    
+    /**
+     * Return the player's Character instance.
+     * @return The player.
+     */
+    public Character getPlayer() {
+        return player;
     }
     
     /**
      * Print the info relevant to the player's current location.
      */
     private void printLocationInfo() {
-        String presentCharacters = "Present characters: ";
-        boolean found = false;
-        for (Character character : characters.values()) {
-            if (character.getLocation() == player.getLocation()) {
-                presentCharacters += character.getName() + "; ";
-                found = true;
+        Room location = player.getLocation();
+        List<Character> occupants = location.getOccupants();
+        String[] names = new String[occupants.contains(player) ? occupants.size() - 1 : occupants.size()];
+        int i = 0;
+        for (Character character : occupants) {
+            if (character != player) {
+                names[i++] = character.getName();
             }
         }
-        if (!found) {
-            presentCharacters = "There doesn't seem to be anybody else here.";
-        } else {
-            presentCharacters = presentCharacters.substring(0, presentCharacters.length() - 2) + ".";
+        emit(new GameEvent(GameEvent.Type.LOCATION, location.getDescription(), location.getItemsString(), names, location.getExitString()));
+    }
+    
+    /**
+     * Add an event to the output of the command being processed.
+     * @param event The event.
+     */
+    private void emit(GameEvent event) {
+        events.add(event);
+    }
+    
+    /**
+     * Add a line of text to the output of the command being processed.
+     * @param text The text.
+     */
+    private void print(String text) {
+        events.add(GameEvent.text(text));
+    }
+    
+    /**
+     * Add an empty line to the output of the command being processed.
+     */
+    private void print() {
+        events.add(GameEvent.BLANK);
+    }
+    
+    /**
+     * Hand the events so far to the sink, once a command, tick or
+     * start is done.
+     */
+    private void flushEvents() {
+        if (!events.isEmpty()) {
+            sink.accept(events);
+            events.clear();
         }
-        System.out.println("You are " + player.getLocation().getDescription() + "\n" + player.getLocation().getItemsString() + "\n" + presentCharacters + "\n" + player.getLocation().getExitString());
     }
 
     /**
      * Given a command, process (that is: execute) the command.
+     * Commands given after the game is over are ignored.
      * @param command The command to be processed.
      */
-    private void processCommand(Command command) {
+    public synchronized void processCommand(Command command) {
+        if (finished) {
+            return;
+        }
+        try {
+            execute(command);
+        } finally {
+            flushEvents();
+        }
+    }
+    
+    /**
+     * Execute a command, see processCommand.
+     * @param command The command to be executed.
+     */
+    private void execute(Command command) {
+        if (log != null) {
+            log.command(command);
+        }
+        commandCount++;
         if(command.isUnknown()) {
-            System.out.println("This command is not valid. Type 'help' for a list of valid commands.");
+            print("This command is not valid. Type 'help' for a list of valid commands.");
             return;
         }
         
-        if (quests.get("quest1").getPart(0) && time != 0) {
+        Quest quest1 = quests.get("quest1");
+        if (quest1 != null && quest1.getPart(0) && time != 0) {
             time--;
-            if (time == 0) {
-                characters.get("Hrangst Jaltibrond").setHostile(true);
+            Character hrangst = characters.get("Hrangst Jaltibrond");
+            if (time == 0 && hrangst != null) {
+                hrangst.setHostile(true);
             }
         }
         
-        String commandWord = command.getCommandWord();
-        if (commandWord.equals("help")) {
-            printHelp();
-        } else if (commandWord.equals("go")) {
-            goRoom(command);
-        } else if (commandWord.equals("look")) {
-            look(command);
-        } else if (commandWord.equals("use")) {
-            attemptUse(command);
-        } else if (commandWord.equals("take")) {
-            take(command);
-        } else if (commandWord.equals("give")) {
-            give(command);
-        } else if (commandWord.equals("say")) {
-            say(command);
-        } else if (commandWord.equals("drop")) {
-            drop(command);
-        } else if (commandWord.equals("quit")) {
-            quit(command);
-        }
+        actions.get(command.getCommandWord()).accept(this, command);
         
-        lookForNPCAction();
+        if (!finished) {
+            lookForNPCAction();
+        }
         
-        System.out.println();
+        print();
     }
     
     /**
      * If an NPC is nearby, let it act. Fight
      * if hostile and in the same room; Move 
-     * if not in the same room.
+     * if not in the same room. In a simulated
+     * game the NPCs act on the ticks instead,
+     * but the output is the same.
      */
     private void lookForNPCAction() {
         Character nearbyCharacter = checkWhoIsNear();
         if (nearbyCharacter == null) {
-            System.out.println();
+            print();
+            return;
+        }
+        if (simulated) {
             return;
         }
         if (nearbyCharacter.getHostile() && nearbyCharacter.getLocation() == player.getLocation()) {
@@ -347,53 +593,316 @@ public class Game
         } else if (player == attacker) {
             attackerName = "You";
         }
-        System.out.println(attackerName + " unleashed an attack!");
-        if (random.nextInt(2) == 1) {
-            int damage = (int) Math.round(attacker.getDamage() / 2 + random.nextInt(attacker.getDamage() / 2));
+        emit(new GameEvent(GameEvent.Type.ATTACK, attackerName));
+        if (combat.nextInt(2) == 1) {
+            int damage = (int) Math.round(attacker.getDamage() / 2 + combat.nextInt(attacker.getDamage() / 2));
             defender.setHealth((int) defender.getHealth() - damage);
-            System.out.println(attackerName + " hit! The hit causes a loss of " + damage + " hit points!");
-            System.out.println(defenderName + ": " + defender.getHealth() + " hit points left!");
+            emit(new GameEvent(GameEvent.Type.HIT, attackerName, damage));
+            emit(new GameEvent(GameEvent.Type.HEALTH, defenderName, defender.getHealth()));
             if (defender.getHealth() <= 0) {
-                System.out.println(defenderName + " fell to the ground!");
+                emit(new GameEvent(GameEvent.Type.FELL, defenderName));
+                if (defender == player) {
+                    killer = attacker.getName();
+                }
                 isDead(defender);
             }
         } else {
-            System.out.println(attackerName + " missed!");
+            emit(new GameEvent(GameEvent.Type.MISS, attackerName));
+        }
+    }
+    
+    /**
+     * Let every character act once, for games whose characters act
+     * on the ticks of a Simulation instead of after every command.
+     * A hostile character in the player's room attacks the player,
+     * and then all characters move.
+     */
+    public synchronized void tick() {
+        if (player == null || finished) {
+            return;
+        }
+        if (log != null) {
+            log.tick();
+        }
+        Character nearbyCharacter = checkWhoIsNear();
+        if (nearbyCharacter != null && nearbyCharacter.getHostile() && nearbyCharacter.getLocation() == player.getLocation()) {
+            fight(player, nearbyCharacter);
+            print();
+            flushEvents();
+            sink.flush();
+        }
+        if (!finished) {
+            moveCharacters();
+        }
+    }
+    
+    /**
+     * Set whether the characters act on the ticks of a Simulation
+     * instead of after every command.
+     * @param simulated True if a simulation ticks the game.
+     */
+    public synchronized void setSimulated(boolean simulated) {
+        this.simulated = simulated;
+        if (log != null) {
+            log.simulated(simulated);
+        }
+    }
+    
+    /**
+     * Seed the game's randomness, so that the fights go and the
+     * characters move the same way every time the game is played
+     * with this seed and the same commands. Fighting and moving
+     * draw from separate streams split from the seed, so one never
+     * changes what the other gets. Games are seeded randomly unless
+     * this is called.
+     * @param seed The seed.
+     */
+    public synchronized void setSeed(long seed) {
+        seedStreams(seed);
+        if (log != null) {
+            log.seed(seed);
+        }
+    }
+    
+    /**
+     * Create the fighting and moving streams from "seed". Also
+     * called by the constructor, which mustn't call setSeed since
+     * it may be overridden.
+     * @param seed The seed.
+     */
+    private void seedStreams(long seed) {
+        this.seed = seed;
+        SplittableRandom root = new SplittableRandom(seed);
+        combat = root.split();
+        movement = root.split();
+    }
+    
+    /**
+     * Return the seed of the game's randomness.
+     * @return The seed.
+     */
+    public synchronized long getSeed() {
+        return seed;
+    }
+    
+    /**
+     * Record the game in "log" from now on: its seed and whether
+     * it's simulated right away, and then the start, every command
+     * and every tick (see Replay). Call this before the game starts
+     * to record all of it.
+     * @param log The log, null to stop recording.
+     */
+    public synchronized void setCommandLog(CommandLog log) {
+        this.log = log;
+        if (log != null) {
+            log.seed(seed);
+            log.simulated(simulated);
+        }
+    }
+    
+    /**
+     * Return the log the game is recorded in.
+     * @return The log, null if the game isn't recorded.
+     */
+    public synchronized CommandLog getCommandLog() {
+        return log;
+    }
+    
+    /**
+     * Stop the game for good without ending it, because a copy
+     * restored from its snapshot carries on in its place (see
+     * Hibernation). Commands and ticks are ignored from now on and
+     * nothing more is recorded in the log.
+     */
+    public synchronized void retire() {
+        finished = true;
+        log = null;
+    }
+    
+    /**
+     * Save a snapshot of the game to "file" and record it in the
+     * game's log, so that the game can be recovered from the
+     * snapshot and the entries after it (see Journal).
+     * @param file The file, replaced if it exists.
+     * @return The size of the snapshot in bytes.
+     * @throws IOException If the file can't be written.
+     * @throws IllegalStateException If the game hasn't started.
+     */
+    public synchronized int saveSnapshot(Path file) throws IOException {
+        int size = Snapshot.write(this, file);
+        if (log != null) {
+            log.snapshot(file);
         }
+        return size;
     }
     
     /**
-     * Loop through all characters and, based upon randomness, 
-     * move the character into an adjoining room if the character
-     * doesn't have to remain in its current room due to quests.
-     * If the character is hostile, follow the player by going
-     * to the player's location if the player is in an adjoining
-     * room and stay if the player's in the same room. If the 
-     * player isn't found, go randomly as usual.
+     * Write the game's state to a snapshot (see Snapshot). The
+     * state of the random streams can't be saved, so the game is
+     * first seeded afresh from them and the snapshot holds the new
+     * seed; the game and a game restored from the snapshot then go
+     * on the same way.
+     * @param out The snapshot being written.
+     * @throws IllegalStateException If the game hasn't started.
+     */
+    public synchronized void writeSnapshot(Snapshot.Writer out) {
+        if (player == null) {
+            throw new IllegalStateException("The game hasn't started.");
+        }
+        setSeed(combat.nextLong());
+        out.writeLong(seed);
+        out.writeNumber(time);
+        out.writeNumber(commandCount);
+        out.writeNumber(outcome.ordinal());
+        out.writeString(killer);
+        out.writeBoolean(finished);
+        player.writeSnapshot(out, template);
+        out.writeNumber(characters.size());
+        for (Character character : characters.values()) {
+            character.writeSnapshot(out, template);
+        }
+        out.writeNumber(quests.size());
+        for (Quest quest : quests.values()) {
+            quest.writeSnapshot(out);
+        }
+        ArrayList<Room> changed = new ArrayList<>();
+        for (Room room : world.getRooms()) {
+            if (room.hasChanged()) {
+                changed.add(room);
+            }
+        }
+        out.writeNumber(changed.size());
+        for (Room room : changed) {
+            room.writeSnapshot(out);
+        }
+    }
+    
+    /**
+     * Replace the game's state with the state in a snapshot written
+     * by writeSnapshot. The game can then go on without being started.
+     * @param in The snapshot being read.
+     * @throws IOException If the snapshot is damaged, or holds a
+     * character that can't be restored (see Character.readSnapshot).
+     */
+    public synchronized void readSnapshot(Snapshot.Reader in) throws IOException {
+        setSeed(in.readLong());
+        time = in.readNumber();
+        commandCount = in.readNumber();
+        outcome = Outcome.values()[in.readIndex(Outcome.values().length)];
+        killer = in.readString();
+        finished = in.readBoolean();
+        world = new World(template);
+        player = Character.readSnapshot(in, world);
+        characters.clear();
+        for (int count = in.readCount(1); count > 0; count--) {
+            Character character = Character.readSnapshot(in, world);
+            characters.put(character.getName(), character);
+        }
+        quests.clear();
+        for (int count = in.readCount(1); count > 0; count--) {
+            Quest quest = Quest.readSnapshot(in);
+            quests.put(quest.getName(), quest);
+        }
+        for (int count = in.readCount(1); count > 0; count--) {
+            world.getRoom(in.readIndex(template.getRoomCount())).readSnapshot(in);
+        }
+    }
+    
+    /**
+     * Move every character (see chooseMove). The characters are
+     * split into regions by the index of the room they're in, and
+     * each region with characters in it draws from a random stream
+     * of its own, split off in the order of the regions. All moves
+     * are chosen first, in parallel for large numbers of characters,
+     * and then made one by one, so the result only depends on the
+     * seed and not on the number of threads.
      */
     public void moveCharacters() {
+        // sort the characters by region, keeping their order within each region.
+        int regionSize = (world.getTemplate().getRoomCount() + REGIONS - 1) / REGIONS;
+        Arrays.fill(regionStart, 0);
         for (Character character : characters.values()) {
-            ArrayList<Room> neighboursList = character.getLocation().getNeighbours();
-            boolean found = false;
-            // if character's hostile, stay if player's in the same room. If not, sense if player's in a nearby room and go there if found. If not, go randomly as usual.
-            if (character.getHostile()) {
-                if (character.getLocation() == player.getLocation()) {
-                    return;
-                }
-                for (Room neighbour : neighboursList) {
-                    if (player.getLocation() == neighbour) {
-                        Room nextRoom = neighbour;
-                        character.addLocationHistory(nextRoom);
-                        found = true;
-                    }
-                }
+            regionStart[character.getLocation().getIndex() / regionSize + 1]++;
+        }
+        for (int r = 0; r < REGIONS; r++) {
+            regionStart[r + 1] += regionStart[r];
+        }
+        int count = regionStart[REGIONS];
+        if (moving.length < count) {
+            moving = new Character[count];
+            moves = new Room[count];
+        }
+        System.arraycopy(regionStart, 0, regionNext, 0, REGIONS);
+        for (Character character : characters.values()) {
+            moving[regionNext[character.getLocation().getIndex() / regionSize]++] = character;
+        }
+        for (int r = 0; r < REGIONS; r++) {
+            streams[r] = regionStart[r] < regionStart[r + 1] ? movement.split() : null;
+        }
+        
+        // choose the moves. A region's rooms are only touched by the
+        // thread moving its characters, so the regions can't conflict.
+        if (count >= PARALLEL_THRESHOLD) {
+            IntStream.range(0, REGIONS).parallel().forEach(this::chooseMoves);
+        } else {
+            for (int r = 0; r < REGIONS; r++) {
+                chooseMoves(r);
             }
-            // randomly go to a nearby room.
-            if (!found && character.getMoveable() && random.nextInt(2) == 1) {
-                Room nextRoom = neighboursList.get(random.nextInt(neighboursList.size()));
-                character.addLocationHistory(nextRoom);
+        }
+        
+        // make the moves, and let go of the characters so the arrays
+        // don't keep those who die alive.
+        for (int i = 0; i < count; i++) {
+            if (moves[i] != null) {
+                moving[i].addLocationHistory(moves[i]);
+            }
+            moving[i] = null;
+            moves[i] = null;
+        }
+    }
+    
+    /**
+     * Choose the moves of the characters of region "region" (see
+     * moveCharacters).
+     * @param region The region.
+     */
+    private void chooseMoves(int region) {
+        for (int i = regionStart[region]; i < regionStart[region + 1]; i++) {
+            moves[i] = chooseMove(moving[i], streams[region]);
+        }
+    }
+    
+    /**
+     * Based upon randomness, choose an adjoining room for the
+     * character to move to if the character doesn't have to remain
+     * in its current room due to quests. If the character is
+     * hostile, follow the player by going to the player's location
+     * if the player is in an adjoining room and stay if the player's
+     * in the same room. If the player isn't found, go randomly as
+     * usual. Nothing is changed, so characters of different regions
+     * may choose their moves at the same time.
+     * @param character The character to move.
+     * @param random The random stream of the character's region.
+     * @return The room to move to, or null to stay.
+     */
+    private Room chooseMove(Character character, SplittableRandom random) {
+        Room[] neighbours = character.getLocation().getNeighbours();
+        // if character's hostile, stay if player's in the same room. If not, sense if player's in a nearby room and go there if found. If not, go randomly as usual.
+        if (character.getHostile()) {
+            if (character.getLocation() == player.getLocation()) {
+                return null;
+            }
+            for (Room neighbour : neighbours) {
+                if (player.getLocation() == neighbour) {
+                    return neighbour;
+                }
             }
         }
+        // randomly go to a nearby room.
+        if (character.getMoveable() && neighbours.length > 0 && random.nextInt(2) == 1) {
+            return neighbours[random.nextInt(neighbours.length)];
+        }
+        return null;
     }
     
     /**
@@ -402,26 +911,28 @@ public class Game
      */
     private void isDead(Character character) {
         if (player == character) {
-            System.out.println("Zuul Tharn appears from nowhere and walks slowly towards you as Hrangst Jaltibrond cuts his own throat and falls to the ground on the other side of the room.");
-            System.out.println("Zuul Tharn: How disappointing. I had expected more of you, a Nord diplomat with the ambition to overthrow my power. You prove far too trusting in others... I shall drop your body outside of your family's house, I am a gentleman after all. Rest in peace.");
-            System.out.println("Zuul Tharn takes out his staff, aims it at you and you feel the world fading into nothingness.\n");
-            System.out.println("You didn't survive Zuul Tharn's dungeon, and never again will you see Nirn. But fret not, you may yet feast in Sovngarde!\n\n");
-            System.out.println("GAME OVER\n");
-            quit(new Command("quit", null));
+            print("Zuul Tharn appears from nowhere and walks slowly towards you as Hrangst Jaltibrond cuts his own throat and falls to the ground on the other side of the room.");
+            print("Zuul Tharn: How disappointing. I had expected more of you, a Nord diplomat with the ambition to overthrow my power. You prove far too trusting in others... I shall drop your body outside of your family's house, I am a gentleman after all. Rest in peace.");
+            print("Zuul Tharn takes out his staff, aims it at you and you feel the world fading into nothingness.\n");
+            print("You didn't survive Zuul Tharn's dungeon, and never again will you see Nirn. But fret not, you may yet feast in Sovngarde!\n\n");
+            print("GAME OVER\n");
+            outcome = Outcome.DIED;
+            quit(new Command(CommandWord.QUIT, null));
         }
         if (characters.get("Hrangst Jaltibrond") == character) {
-            System.out.println("He lies on his back, coughing blood. His eyes turn back to normal as he tries to speak.");
-            System.out.println(character.getName() + ": I was controlled by some force unknown... please, understand this was not my own will. I was kidnapped from nowhere by Zuul Tharn, probably like yourself. I have no family, but could you provide a burial for me in Winterhold, the city of my ancestors?");
-            System.out.println("As " + character.getName() + "'s life fades away, Zuul Tharn appears from nowhere.");
-            System.out.println("Zuul Tharn: Ach, you are cunning and brave, " +  player.getName() + "! As I said, I am a man of sports and I shall grant you a way back to Nirn, just head to the door on the second floor. I hope you enjoyed your stay in this plane of Oblivion. I will also grant the old man's wish and teleport his body to the forests outside Skingrad where you'll spawn. Your plans to overthrow my power are of course ripped to pieces now, but at least you may yet live. Stay out of my way from now on and may we never cross paths again. Your power is futile next to mine. Bye, " + player.getName() + ".");
+            print("He lies on his back, coughing blood. His eyes turn back to normal as he tries to speak.");
+            print(character.getName() + ": I was controlled by some force unknown... please, understand this was not my own will. I was kidnapped from nowhere by Zuul Tharn, probably like yourself. I have no family, but could you provide a burial for me in Winterhold, the city of my ancestors?");
+            print("As " + character.getName() + "'s life fades away, Zuul Tharn appears from nowhere.");
+            print("Zuul Tharn: Ach, you are cunning and brave, " +  player.getName() + "! As I said, I am a man of sports and I shall grant you a way back to Nirn, just head to the door on the second floor. I hope you enjoyed your stay in this plane of Oblivion. I will also grant the old man's wish and teleport his body to the forests outside Skingrad where you'll spawn. Your plans to overthrow my power are of course ripped to pieces now, but at least you may yet live. Stay out of my way from now on and may we never cross paths again. Your power is futile next to mine. Bye, " + player.getName() + ".");
             if (!quests.get("quest1").getPart(0)) {
-                System.out.println("Zuul Tharn vanished just as he had appeared, so did Hrangst's body. You are alone now in his dungeon and may leave according to Zuul. Hopefully he keeps his word.\nIt seems Hrangst's body left a key.");
-                player.getLocation().addItem(items.get("Sturdy key"));
+                print("Zuul Tharn vanished just as he had appeared, so did Hrangst's body. You are alone now in his dungeon and may leave according to Zuul. Hopefully he keeps his word.\nIt seems Hrangst's body left a key.");
+                player.getLocation().addItem(world.getItem("Sturdy key"));
             } else {
-                System.out.println("Zuul Tharn vanished just as he had appeared, so did Hrangst's body. You are alone now in his dungeon and may leave according to Zuul. Hopefully he keeps his word.");
+                print("Zuul Tharn vanished just as he had appeared, so did Hrangst's body. You are alone now in his dungeon and may leave according to Zuul. Hopefully he keeps his word.");
             }
             characters.remove("Hrangst Jaltibrond");
-            rooms.get("hallwayB1").setExit("north", null, true, null);
+            character.clearLocationHistory();
+            world.getRoom("hallwayB1").setExit("north", null, true, null);
         }
     }
 
@@ -431,11 +942,11 @@ public class Game
      * Print out some help information.
      */
     private void printHelp() {
-        System.out.println("Zuul's Dungeon features a few possible actions: You can go between rooms; Look around the room to get the description again, look at items to get their properties (they must be either in the room or in your inventory) or look at your inventory to see what you're carrying around; Use items to e.g. unlock doors, read the item's contents or engage in a fight; Take items to pick them up and put them in your inventory; Drop items to drop them on the floor; Say e.g. 'hi' to talk to characters; Give items to other characters." + 
+        print("Zuul's Dungeon features a few possible actions: You can go between rooms; Look around the room to get the description again, look at items to get their properties (they must be either in the room or in your inventory) or look at your inventory to see what you're carrying around; Use items to e.g. unlock doors, read the item's contents or engage in a fight; Take items to pick them up and put them in your inventory; Drop items to drop them on the floor; Say e.g. 'hi' to talk to characters; Give items to other characters." + 
                             "\nThe game features a short story line and a few items and rooms. Characters move around randomly from room to room when they aren't obliged to stay still due to e.g. quests. Characters recognize when you are nearby and will greet you. If a character is hostile, they can sense if you're in a nearby room and will follow you and hit you if you are in the same room." +
                             "\nFighting is based on luck and what weapon is being used. There's a 50/50 chance to hit successfully, and the magnitude of the hit is determined by luck and the used weapon's damage ([1/2 damage] + [random number from 0 to 1/2 damage])");
-        System.out.println("Your command words, with their arguments, are:");
-        System.out.println(parser.showCommands());
+        print("Your command words, with their arguments, are:");
+        print(parser.showCommands());
     }
 
     /** 
@@ -445,13 +956,16 @@ public class Game
     private void goRoom(Command command) {
         if (!command.hasSecondWord()) {
             // if there is no second word, we don't know where to go...
-            System.out.println("Go where?");
+            print("Go where?");
             return;
         }
         
         String direction = command.getSecondWord();
         if (direction.equals("back")) {
-            player.subtractLocationHistory();
+            if (player.subtractLocationHistory() == null) {
+                print("You can't remember the way back any further.\n");
+                return;
+            }
             printLocationInfo();
             lookForNPCMessage();
             return;
@@ -460,19 +974,21 @@ public class Game
         // Special cases.
         
         if (player.getLocation().getName().equals("antechamber") && direction.equals("west")) {
-            System.out.println("Carefully sneaking into the living room, you hear something running violently towards you from behind. You don't have enough time to turn your head around before you feel a heavy blow to the back of your head and everything goes black!");
+            print("Carefully sneaking into the living room, you hear something running violently towards you from behind. You don't have enough time to turn your head around before you feel a heavy blow to the back of your head and everything goes black!");
             player.clearLocationHistory();
             player.clearInventory();
-            System.out.println("You wake up freezing on the wet stone floor of an ancient prison cell, your head resting in a small pool of blood. For some reason whoever guards this place left the door open. Perhaps the note lying next to you might reveal something.\n");
-            player.addLocationHistory(rooms.get("cell1"));
+            print("You wake up freezing on the wet stone floor of an ancient prison cell, your head resting in a small pool of blood. For some reason whoever guards this place left the door open. Perhaps the note lying next to you might reveal something.\n");
+            player.addLocationHistory(world.getRoom("cell1"));
             printLocationInfo();
             return;
         }
         if (player.getLocation().getName().equals("hallwayB1") && direction.equals("north")) {
-            System.out.println("\n\nThere's nothing but a black void on the other side of the door. You doubt the idea but since you have no other choice, you walk right out. It seems there is no gravity, neither any oxygen and you start to choke. But at the same time everything fades and soon you can't even feel your body.");
-            System.out.println("\nYou wake up sleeping on the grass of a green meadow in a forest. The sky is clear and the sun shines strongly into your eyes. Looking to your left, Hrangst lies dead, pale as snow. It seems Zuul kept his word.");
-            System.out.println("\n\nCongratulations upon beating 'Zuul's Dungeon'!\n");
-            quit(new Command("quit", null));
+            print("\n\nThere's nothing but a black void on the other side of the door. You doubt the idea but since you have no other choice, you walk right out. It seems there is no gravity, neither any oxygen and you start to choke. But at the same time everything fades and soon you can't even feel your body.");
+            print("\nYou wake up sleeping on the grass of a green meadow in a forest. The sky is clear and the sun shines strongly into your eyes. Looking to your left, Hrangst lies dead, pale as snow. It seems Zuul kept his word.");
+            print("\n\nCongratulations upon beating 'Zuul's Dungeon'!\n");
+            outcome = Outcome.WON;
+            quit(new Command(CommandWord.QUIT, null));
+            return;
         }
         
         // Regular operation.
@@ -480,12 +996,12 @@ public class Game
         // Try to leave current room through chosen exit.
         Exit chosenExit = player.getLocation().getExit(direction);
         if (chosenExit == null) {
-            System.out.println("There's no room in that direction.\n");
+            print("There's no room in that direction.\n");
             return;
         }
         Room nextRoom = chosenExit.getNeighbour();
         if (!chosenExit.getUnlocked()) {
-            System.out.println("The door is locked.\n");
+            print("The door is locked.\n");
             return;
         }
         player.addLocationHistory(nextRoom);
@@ -499,13 +1015,13 @@ public class Game
     private void lookForNPCMessage() {
         Character nearbyCharacter = checkWhoIsNear();
         if (nearbyCharacter == null) {
-            System.out.println();
+            print();
             return;
         }
         if (nearbyCharacter.getLocation() == player.getLocation()) {
-            System.out.println(nearbyCharacter.getResponse("greetingsSame") + "\n");
+            print(nearbyCharacter.getResponse("greetingsSame") + "\n");
         } else {
-            System.out.println(nearbyCharacter.getResponse("greetingsNear") + "\n");
+            print(nearbyCharacter.getResponse("greetingsNear") + "\n");
         }
     }
     
@@ -517,23 +1033,22 @@ public class Game
      */
     private void take(Command command) {
         if (!command.hasSecondWord()) {
-            System.out.println("Take what?\n");
+            print("Take what?\n");
             return;
         }
         String name = command.getSecondWord();
         Item item = player.getLocation().getItem(name);
-        double freeCapacity = player.getCapacity() - player.getWeight();
         if (item == null) {
-            System.out.println("There is no such item in this room.");
-        } else if (freeCapacity >= item.getWeight()) {
-            System.out.println("You picked up the " + name + ".");
+            print("There is no such item in this room.");
+        } else if (player.canCarry(item)) {
+            emit(new GameEvent(GameEvent.Type.TAKEN, name));
             player.addItem(item);
             player.getLocation().removeItem(name);
         } else {
-            double neededCapacity = item.getWeight() - freeCapacity;
-            System.out.println("The " + name + " is too heavy! You would need to get rid of " + neededCapacity + " kilograms.");
+            double neededCapacity = (item.getGrams() - player.getFreeCapacityGrams()) / 1000.0;
+            emit(new GameEvent(GameEvent.Type.TOO_HEAVY, name, neededCapacity));
         }
-        System.out.println();
+        print();
     }
     
     /** 
@@ -546,56 +1061,56 @@ public class Game
     private void give(Command command) {
         // check whether command has argument.
         if (!command.hasSecondWord()) {
-            System.out.println("Give whom?\n");
+            print("Give whom?\n");
             return;
         }
         // identify the name part in the rest and find receiver.
         String rest = command.getSecondWord();
         if (checkWhoIsNear() == null) {
-            System.out.println("There doesn't seem to be any such person in here.\n");
+            print("There doesn't seem to be any such person in here.\n");
             return;
         }
         if (!rest.toLowerCase().contains(checkWhoIsNear().getName().toLowerCase())) {
-            System.out.println("There doesn't seem to be any such person in here.\n");
+            print("There doesn't seem to be any such person in here.\n");
             return;
         }
         Character receiver = checkWhoIsNear();
         String receiverName = receiver.getName();
         // identify the item part of the command and find the item.
         String itemName = rest.substring(receiverName.length() + 1);
-        if (items.get(itemName) == null) {
-            System.out.println("Give what?\n");
+        if (world.getItem(itemName) == null) {
+            print("Give what?\n");
             return;
         }
         Item item = player.getItem(itemName);
         // check that item is in inventory and then that it's not flagged as quest item.
         if (item == null) {
-            System.out.println("There is no such item in your inventory.\n");
+            print("There is no such item in your inventory.\n");
             return;
         }
 
         // checks whether any quest has progressed (and that it hasn't already done so previously).
-        if (receiverName.equals("Hrangst Jaltibrond") && item.getName() == "Bread loaf" && !quests.get("quest1").getPart(1)) {
+        if (receiverName.equals("Hrangst Jaltibrond") && item.getName().equals("Bread loaf") && !quests.get("quest1").getPart(1)) {
             quests.get("quest1").completedPart(1);
             if (!quests.get("quest1").getPart(2)) {
-                System.out.println(receiverName + ": Thank you, I am absolutely starving. Could you please get me out of here?\n");
+                print(receiverName + ": Thank you, I am absolutely starving. Could you please get me out of here?\n");
                 receiver.addDialogue("salutations", "Hello, friend. Could you please get me out of here?");
             } else {
                 quests.get("quest1").completedPart(0);
-                System.out.println(receiverName + ": Thank you so much for all your help, kind soul. I won't bother you anymore. Here, take this key so you may continue your journey. I wish you the best of fortune. Now, I must go.\nThe old man didn't smile, but as he walked away, you could see the gratefulness in his eyes. You wonder how such a scrawny figure might fare in such a place, but before you had a time to reply he was gone.\n");
-                receiver.removeItem(items.get("sturdy key"));
-                player.addItem(items.get("sturdy key"));
+                print(receiverName + ": Thank you so much for all your help, kind soul. I won't bother you anymore. Here, take this key so you may continue your journey. I wish you the best of fortune. Now, I must go.\nThe old man didn't smile, but as he walked away, you could see the gratefulness in his eyes. You wonder how such a scrawny figure might fare in such a place, but before you had a time to reply he was gone.\n");
+                receiver.removeItem(world.getItem("sturdy key"));
+                player.addItem(world.getItem("sturdy key"));
                 receiver.removeDialogue("salutations");
                 receiver.addDialogue("salutations", "Hello, friend. I appreciate all your help.");
                 receiver.removeDialogue("greetingsNear");
                 receiver.addDialogue("greetingsNear", "You hear the old man moving around in the adjoining room.");
                 receiver.removeDialogue("greetingsSame");
                 receiver.addDialogue("greetingsSame", "The scrawny old figure you rescued earlier seems to wander around aimlessly. His ambitions seem a great mystery. Why is he not trying to escape this place?");
-                receiver.addLocationHistory(rooms.get("hallwayB1"));
+                receiver.addLocationHistory(world.getRoom("hallwayB1"));
                 receiver.setMoveable(true);
             }
         } else if (item.getQuestItem()) {
-            System.out.println("You figure you might want to hold on to this.\n");
+            print("You figure you might want to hold on to this.\n");
             return;
         }
         // gives the item to the character and removes it from the player.
@@ -611,7 +1126,7 @@ public class Game
      */
     private void say(Command command) {
         if (!command.hasSecondWord()) {
-            System.out.println("Say what?\n");
+            print("Say what?\n");
             return;
         }
 
@@ -620,41 +1135,42 @@ public class Game
         // check who's in a nearby room.
         Character nearbyCharacter = checkWhoIsNear();
         if (nearbyCharacter == null) {
-            System.out.println("This place seems devoid of the slightest spirit. Though it is of a mind haunting nature, one must remain sane and not attempt conversation with the void.\n");
+            print("This place seems devoid of the slightest spirit. Though it is of a mind haunting nature, one must remain sane and not attempt conversation with the void.\n");
             return;
         }
         
         // check if the phrase is understood by the character.
-        TreeSet<String> all = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-        all = dictionary.getAll();
-        if (!all.contains(phrase)) {
-            System.out.println(nearbyCharacter.getName() + ": " + nearbyCharacter.getResponse("pardon") + "\n");
+        String wordGroup = dictionary.getWordGroup(phrase);
+        if (wordGroup == null) {
+            emit(new GameEvent(GameEvent.Type.SPEECH, nearbyCharacter.getName(), nearbyCharacter.getResponse("pardon")));
+            print();
             return;
         }
         
         // let the character respond.
-        TreeSet<String> salutations = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-        salutations = dictionary.getSalutations();
-        if (salutations.contains(phrase)) {
-            System.out.println(nearbyCharacter.getName() + ": " + nearbyCharacter.getResponse("salutations") + "\n");
+        if (wordGroup.equals("salutations")) {
+            emit(new GameEvent(GameEvent.Type.SPEECH, nearbyCharacter.getName(), nearbyCharacter.getResponse("salutations")));
+            print();
         }
     }
     
     /**
-     * Check every nearby room for characters.
+     * Check the player's room and every nearby room for characters.
+     * If there are several, return the first one by name.
+     * @return The character, or null if nobody's near.
      */
     public Character checkWhoIsNear() {
-        for (Character character : characters.values()) {
-            if (character.getLocation() == player.getLocation()) {
-                return character;
-            }
-            for (Room neighbour : player.getLocation().getNeighbours()) {
-                if (character.getLocation() == neighbour) {
-                    return character;
+        Room location = player.getLocation();
+        Character nearest = location.getFirstOccupant(player);
+        for (Room neighbour : location.getNeighbours()) {
+            if (neighbour != null) {
+                Character character = neighbour.getFirstOccupant(player);
+                if (character != null && (nearest == null || String.CASE_INSENSITIVE_ORDER.compare(character.getName(), nearest.getName()) < 0)) {
+                    nearest = character;
                 }
             }
         }
-        return null;
+        return nearest;
     }
     
     /** 
@@ -665,19 +1181,19 @@ public class Game
      */
     private void drop(Command command) {
         if (!command.hasSecondWord()) {
-            System.out.println("Drop what?\n");
+            print("Drop what?\n");
             return;
         }
 
         String name = command.getSecondWord();
         Item item = player.getItem(name);
         if (item == null) {
-            System.out.println("There is no such item in your inventory.\n");
+            print("There is no such item in your inventory.\n");
             return;
         }
         player.removeItem(item);
         player.getLocation().addItem(item);
-        System.out.println("You have dropped the " + item.getName() + ".\n");
+        emit(new GameEvent(GameEvent.Type.DROPPED, item.getName()));
     }
     
     /**
@@ -691,20 +1207,20 @@ public class Game
      */
     private void attemptUse(Command command) {
         if (!command.hasSecondWord()) {
-            System.out.println("Use what?\n");
+            print("Use what?\n");
             return;
         }
 
         String name = command.getSecondWord();
         // look for item in player's inventory and use it if found (only takeable items)
         Item item = player.getItem(name);
-        if (items.get(name) == null) {
-            System.out.println("Use what?\n");
+        if (world.getItem(name) == null) {
+            print("Use what?\n");
             return;
         }
-        if (items.get(name).getTakeable()){
+        if (world.getItem(name).getTakeable()){
             if (item == null) {
-                System.out.println("There is no such item in your inventory.\n");
+                print("There is no such item in your inventory.\n");
                 return;
             }
             use(item);
@@ -713,7 +1229,7 @@ public class Game
         // look for item in the room and use it if found (only non-takeable items)
         item = player.getLocation().getItem(name);
         if (item == null) {
-            System.out.println("There is no such item here.\n");
+            print("There is no such item here.\n");
             return;
         }
         use(item);
@@ -728,27 +1244,27 @@ public class Game
      * @param item The item to use.
      */
     private void use(Item item) {
-        System.out.println(item.printUse());
+        print(item.printUse().replace("{player}", player.getName()));
         if (item.getType().equals("miscellaneous")) {
-            System.out.println();
+            print();
             return;
         }
         if (item.getType().equals("weapon")) {
             Character nearbyCharacter = checkWhoIsNear();
             if (nearbyCharacter == null || nearbyCharacter.getLocation() != player.getLocation()) {
-                System.out.println("It's a shame there's nobody here to taste your fury!");
+                print("It's a shame there's nobody here to taste your fury!");
                 return;
             }
             nearbyCharacter.setHostile(true);
             player.setDamage(player.getDamage() + item.getParameter());
             fight(nearbyCharacter, player);
             player.setDamage(player.getDamage() - item.getParameter());
-            System.out.println();
+            print();
             return;
         }
         if (item.getType().equals("advantage")) {
             if (item.getType().equals("quest")) {
-                System.out.println("You figure you might want to hold on to this.\n");
+                print("You figure you might want to hold on to this.\n");
             }
             return;
         }
@@ -756,33 +1272,33 @@ public class Game
             // Check if key is connected to any exit in current room.
             Exit exit = player.getLocation().lookForExit(item);
             if (exit == null) {
-                System.out.println("After checking every door in this room, you realize, with disappointment, that " + item.getName() + " won't fit in any of them.\n");
+                print("After checking every door in this room, you realize, with disappointment, that " + item.getName() + " won't fit in any of them.\n");
                 return;
             }
             if (exit.getUnlocked()) {
-                System.out.println(item.getName() + " seems to work in the door leading " + exit.getDirection() + " from here, but it's already open.\n");
+                emit(new GameEvent(GameEvent.Type.UNLOCKED, item.getName(), exit.getDirection(), true));
                 return;
             }
-            System.out.println(item.getName() + " seems to work in the door leading " + exit.getDirection() + " from here! You unlocked the door.\n");
+            emit(new GameEvent(GameEvent.Type.UNLOCKED, item.getName(), exit.getDirection(), false));
             exit.unlock();
             // Check whether the action is relevant to any quest.
             if (player.getLocation().getName().equals("hallwayA3") && exit.getDirection().equals("north") && !quests.get("quest1").getPart(2)) {
                 quests.get("quest1").completedPart(2);
                 if (!quests.get("quest1").getPart(1)) {
-                    System.out.println("Hrangst Jaltibrond: Thank you so much. I am absolutely starving, could you please pass me some of that bread?\n");
+                    print("Hrangst Jaltibrond: Thank you so much. I am absolutely starving, could you please pass me some of that bread?\n");
                     characters.get("Hrangst Jaltibrond").addDialogue("salutations", "Hello, friend. I am starving, is there any chance you could pass me some of that bread?");
                 } else {
                     quests.get("quest1").completedPart(0);
-                    System.out.println("Hrangst Jaltibrond: Thank you so much for all your help, kind soul. I won't bother you anymore. Here, take this key so you may continue your journey. I wish you the best of fortune. Now, I must go.\nThe old man didn't smile, but as he walked away, you could see the gratefulness in his eyes. You wonder how such a scrawny figure might fare in such a place, but before you had a time to reply he was gone.\n");
-                    characters.get("Hrangst Jaltibrond").removeItem(items.get("sturdy key"));
-                    player.addItem(items.get("sturdy key"));
+                    print("Hrangst Jaltibrond: Thank you so much for all your help, kind soul. I won't bother you anymore. Here, take this key so you may continue your journey. I wish you the best of fortune. Now, I must go.\nThe old man didn't smile, but as he walked away, you could see the gratefulness in his eyes. You wonder how such a scrawny figure might fare in such a place, but before you had a time to reply he was gone.\n");
+                    characters.get("Hrangst Jaltibrond").removeItem(world.getItem("sturdy key"));
+                    player.addItem(world.getItem("sturdy key"));
                     characters.get("Hrangst Jaltibrond").removeDialogue("salutations");
                     characters.get("Hrangst Jaltibrond").addDialogue("salutations", "Hello, friend. I appreciate all your help.");
                     characters.get("Hrangst Jaltibrond").removeDialogue("greetingsNear");
                     characters.get("Hrangst Jaltibrond").addDialogue("greetingsNear", "You hear the old man moving around in the adjoining room.");
                     characters.get("Hrangst Jaltibrond").removeDialogue("greetingsSame");
                     characters.get("Hrangst Jaltibrond").addDialogue("greetingsSame", "The scrawny old figure you rescued earlier seems to wander around aimlessly. His ambitions seem a great mystery. Why is he not trying to escape this place?");
-                    characters.get("Hrangst Jaltibrond").addLocationHistory(rooms.get("hallwayB1"));
+                    characters.get("Hrangst Jaltibrond").addLocationHistory(world.getRoom("hallwayB1"));
                     characters.get("Hrangst Jaltibrond").setMoveable(true);
                 }
             }
@@ -803,7 +1319,8 @@ public class Game
 
         String secondWord = command.getSecondWord();
         if (secondWord.equals("inventory")) {
-            player.printInventory();
+            double freeCapacity = player.getFreeCapacityGrams() / 1000.0;
+            emit(new GameEvent(GameEvent.Type.INVENTORY, player.getItemNames().toArray(), player.getWeight(), freeCapacity));
             return;
         }
         
@@ -813,7 +1330,7 @@ public class Game
             item = player.getItem(secondWord);
         }
         if (item == null) {
-            System.out.println("There is no such item here.\n");
+            print("There is no such item here.\n");
             return;
         }
         lookAtItem(item);
@@ -823,28 +1340,24 @@ public class Game
      * Print the item's details.
      */
     private void lookAtItem(Item item) {
-        System.out.println("Taking a look at " + item.getName() + ":");
-        System.out.println(item.getDescription());
-        System.out.println("Weight: " + item.getWeight() + " kg.");
-        if (item.getType().equals("miscellaneous") || item.getType().equals("quest") || item.getType().equals("key")) {
-            System.out.println();
-            return;
-        }
-        System.out.println(item.getParameterType() + ": " + item.getParameter() + ".\n");
+        emit(new GameEvent(GameEvent.Type.ITEM, item));
     }
 
     /** 
      * "Quit" was entered. Check the rest of the command to see
-     * whether we really quit the game.
-     * @return true, if this command quits the game, false otherwise.
+     * whether we really quit the game. Quitting only ends this
+     * session; the JVM keeps running for any other sessions.
      */
     private void quit(Command command) {
         if(command.hasSecondWord()) {
-            System.out.println("Quit what?");
+            print("Quit what?");
         }
         else {
-            System.out.println("Thank you for playing 'Zuul's Dungeon'!");
-            System.exit(0);
+            print("Thank you for playing 'Zuul's Dungeon'!");
+            if (outcome == Outcome.PLAYING) {
+                outcome = Outcome.QUIT;
+            }
+            finished = true;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,220 @@
+/**
+ * Class GameEvent - something the player is told, such as where they
+ * are, a hit in a fight or what a character says. Games emit events
+ * instead of printing text, and hand them to their EventSink once per
+ * command (see Game.processCommand). The text of an event is only put
+ * together when a sink renders it, so sinks that don't need text,
+ * e.g. those of headless games, never pay for it.
+ *
+ * An event holds the values its text is made from, taken when the
+ * event happened, so rendering it later still gives what the player
+ * would have seen then.
+ */
+public class GameEvent
+{
+    /**
+     * The kinds of events, with the arguments each one holds.
+     */
+    public enum Type
+    {
+        // a line of text (text).
+        TEXT,
+        // the player's location (description, items, the names of the
+        // other characters there, exits).
+        LOCATION,
+        // a character attacks (attacker).
+        ATTACK,
+        // an attack hits (attacker, damage).
+        HIT,
+        // the health a character has left after a hit (defender, health).
+        HEALTH,
+        // a character falls in a fight (defender).
+        FELL,
+        // an attack misses (attacker).
+        MISS,
+        // a character speaks (speaker, words).
+        SPEECH,
+        // the player picked up an item (name).
+        TAKEN,
+        // an item is too heavy to take (name, kilograms needed).
+        TOO_HEAVY,
+        // the player dropped an item (name).
+        DROPPED,
+        // the player gave an item to another player (name, receiver).
+        GIVEN,
+        // the player's inventory (item names, weight, free capacity).
+        INVENTORY,
+        // the details of an item (item).
+        ITEM,
+        // a key fits a door (key name, direction, whether the door
+        // was already open).
+        UNLOCKED,
+        // another player comes into the room (name).
+        ENTERED,
+        // another player leaves the room (name, where to, e.g. a
+        // direction).
+        LEFT,
+        // another player picks up an item (name, item name).
+        PICKED_UP,
+        // another player drops an item (name, item name).
+        PUT_DOWN,
+        // another player gives an item away (giver, item name, receiver).
+        HANDED,
+        // things happen in a room next door (the room's description,
+        // how many).
+        NOISE;
+    }
+
+    // an empty line, shared since it's so common.
+    public static final GameEvent BLANK = new GameEvent(Type.TEXT, "");
+
+    // the kind of event.
+    private Type type;
+    // the values the event's text is made from, as listed in Type.
+    private Object[] arguments;
+
+    /**
+     * Create an event.
+     * @param type The kind of event.
+     * @param arguments The values its text is made from, as listed
+     * in Type.
+     */
+    public GameEvent(Type type, Object... arguments) {
+        this.type = type;
+        this.arguments = arguments;
+    }
+
+    /**
+     * Return an event holding a line of text.
+     * @param text The text.
+     * @return The event.
+     */
+    public static GameEvent text(String text) {
+        return new GameEvent(Type.TEXT, text);
+    }
+
+    /**
+     * @return The kind of event.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Return one of the values the event's text is made from.
+     * @param index The value's position, as listed in Type.
+     * @return The value.
+     */
+    public Object getArgument(int index) {
+        return arguments[index];
+    }
+
+    /**
+     * Append the text of the event to "text", ending with a line break.
+     * @param text Where the text is appended.
+     */
+    public void render(StringBuilder text) {
+        switch (type) {
+            case TEXT:
+                text.append(arguments[0]);
+                break;
+            case LOCATION:
+                text.append("You are ").append(arguments[0]).append('\n').append(arguments[1]).append('\n');
+                String[] names = (String[]) arguments[2];
+                if (names.length == 0) {
+                    text.append("There doesn't seem to be anybody else here.");
+                } else {
+                    text.append("Present characters: ");
+                    for (int i = 0; i < names.length; i++) {
+                        text.append(i == 0 ? "" : "; ").append(names[i]);
+                    }
+                    text.append('.');
+                }
+                text.append('\n').append(arguments[3]);
+                break;
+            case ATTACK:
+                text.append(arguments[0]).append(" unleashed an attack!");
+                break;
+            case HIT:
+                text.append(arguments[0]).append(" hit! The hit causes a loss of ").append(arguments[1]).append(" hit points!");
+                break;
+            case HEALTH:
+                text.append(arguments[0]).append(": ").append(arguments[1]).append(" hit points left!");
+                break;
+            case FELL:
+                text.append(arguments[0]).append(" fell to the ground!");
+                break;
+            case MISS:
+                text.append(arguments[0]).append(" missed!");
+                break;
+            case SPEECH:
+                text.append(arguments[0]).append(": ").append(arguments[1]);
+                break;
+            case TAKEN:
+                text.append("You picked up the ").append(arguments[0]).append('.');
+                break;
+            case TOO_HEAVY:
+                text.append("The ").append(arguments[0]).append(" is too heavy! You would need to get rid of ").append(arguments[1]).append(" kilograms.");
+                break;
+            case DROPPED:
+                text.append("You have dropped the ").append(arguments[0]).append(".\n");
+                break;
+            case GIVEN:
+                text.append("You gave the ").append(arguments[0]).append(" to ").append(arguments[1]).append('.');
+                break;
+            case INVENTORY:
+                text.append("Your inventory consists of: \n");
+                for (Object name : (Object[]) arguments[0]) {
+                    text.append("- ").append(name).append('\n');
+                }
+                text.append("It currently weighs ").append(arguments[1]).append(" kg. You can carry ").append(arguments[2]).append(" more kilograms.\n");
+                break;
+            case ITEM:
+                Item item = (Item) arguments[0];
+                text.append("Taking a look at ").append(item.getName()).append(":\n");
+                text.append(item.getDescription()).append('\n');
+                text.append("Weight: ").append(item.getWeight()).append(" kg.\n");
+                if (!item.getType().equals("miscellaneous") && !item.getType().equals("quest") && !item.getType().equals("key")) {
+                    text.append(item.getParameterType()).append(": ").append(item.getParameter()).append(".\n");
+                }
+                break;
+            case UNLOCKED:
+                text.append(arguments[0]).append(" seems to work in the door leading ").append(arguments[1]);
+                text.append((Boolean) arguments[2] ? " from here, but it's already open.\n" : " from here! You unlocked the door.\n");
+                break;
+            case ENTERED:
+                text.append(arguments[0]).append(" comes in.");
+                break;
+            case LEFT:
+                text.append(arguments[0]).append(" leaves ").append(arguments[1]).append('.');
+                break;
+            case PICKED_UP:
+                text.append(arguments[0]).append(" picks up the ").append(arguments[1]).append('.');
+                break;
+            case PUT_DOWN:
+                text.append(arguments[0]).append(" drops the ").append(arguments[1]).append('.');
+                break;
+            case HANDED:
+                text.append(arguments[0]).append(" gives the ").append(arguments[1]).append(" to ").append(arguments[2]).append('.');
+                break;
+            case NOISE:
+                text.append("You hear someone nearby, ").append(arguments[0]);
+                if ((Integer) arguments[1] > 1) {
+                    text.append(" (").append(arguments[1]).append(" times)");
+                }
+                break;
+        }
+        text.append('\n');
+    }
+
+    /**
+     * Return the text of the event, without the final line break.
+     * @return The text.
+     */
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        render(text);
+        text.setLength(text.length() - 1);
+        return text.toString();
+    }
+}
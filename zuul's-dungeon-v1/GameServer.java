@@ -0,0 +1,276 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class GameServer - hosts many independent sessions of
+ * "Zuul's Dungeon" in one JVM. Every connection gets its own
+ * Session and thus its own Game, with its own rooms, items,
+ * characters and quests.
+ * 
+ * Each session runs on a virtual thread, so a player idling at
+ * the prompt only parks a small heap-allocated stack instead of
+ * blocking an OS thread (see SessionLoadTest). If the server has a
+ * Simulation, the characters of every game act on its ticks.
+ * 
+ * If the server has a log directory, every game is recorded there
+ * in a log file of its own, which Replay can play again. If it has
+ * a journal instead, every game is recorded in the journal, from
+ * which the games can be recovered after a crash (see Journal).
+ * 
+ * If the server has a Hibernation, the games of idle players are
+ * taken off the heap until they type again.
+ * 
+ * Run the main method with an optional port number, log directory,
+ * journal file and the seconds after which idle sessions are
+ * hibernated ("-" for no log directory or journal), and connect with
+ * e.g. telnet.
+ */
+public class GameServer
+{
+    // the port listened on when none is given.
+    private static final int DEFAULT_PORT = 4242;
+    // the number of sessions started so far, used for ids.
+    private AtomicInteger sessionCount;
+    // the number of sessions currently being played.
+    private AtomicInteger activeSessions;
+    // ticks the games' characters, null if they act after every
+    // command instead.
+    private Simulation simulation;
+    // where the games are recorded, null if they aren't.
+    private Path logDirectory;
+    // where the games are journaled, null if they aren't.
+    private Journal journal;
+    // takes idle sessions off the heap, null if none are.
+    private Hibernation hibernation;
+    // tells apart the log files of different runs of the server.
+    private long startTime;
+
+    /**
+     * Main method for running the server.
+     * @param args Optionally the port to listen on, the directory
+     * to record the games in, the new file to journal them in and
+     * the seconds after which idle sessions are hibernated.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        if (args.length > 0) {
+            port = Integer.parseInt(args[0]);
+        }
+        Simulation simulation = new Simulation();
+        simulation.reportTo(System.out, 60);
+        GameServer server = new GameServer(simulation);
+        if (args.length > 1 && !args[1].equals("-")) {
+            server.setLogDirectory(Paths.get(args[1]));
+        }
+        if (args.length > 2 && !args[2].equals("-")) {
+            server.setJournal(new Journal(Paths.get(args[2]), true));
+        }
+        if (args.length > 3) {
+            long timeout = Long.parseLong(args[3]) * 1000;
+            Hibernation hibernation = new Hibernation(Files.createTempFile("sessions", ".store"), simulation, timeout,
+                                                      Hibernation.Policy.LRU, Long.MAX_VALUE);
+            hibernation.start(Math.max(timeout / 10, 100));
+            hibernation.reportTo(System.out, 60);
+            server.setHibernation(hibernation);
+        }
+        server.listen(port);
+    }
+    
+    /**
+     * Create a server without any sessions, whose characters act
+     * after every command.
+     */
+    public GameServer() {
+        this(null);
+    }
+    
+    /**
+     * Create a server without any sessions, whose characters act
+     * on the ticks of "simulation".
+     * @param simulation The simulation, null if the characters
+     * should act after every command instead.
+     */
+    public GameServer(Simulation simulation) {
+        this.simulation = simulation;
+        sessionCount = new AtomicInteger();
+        activeSessions = new AtomicInteger();
+        startTime = System.currentTimeMillis();
+    }
+    
+    /**
+     * Record every game started from now on in a log file of its
+     * own in "directory" (see CommandLog).
+     * @param directory The directory, null to stop recording.
+     * @throws IOException If the directory can't be created.
+     */
+    public void setLogDirectory(Path directory) throws IOException {
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        logDirectory = directory;
+    }
+    
+    /**
+     * Record every game started from now on in "journal" instead of
+     * a log file of its own.
+     * @param journal The journal, null to stop journaling.
+     */
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+    
+    /**
+     * Let "hibernation" hibernate every session started from now on
+     * while its player is idle.
+     * @param hibernation The hibernation, null to keep the sessions
+     * on the heap.
+     */
+    public void setHibernation(Hibernation hibernation) {
+        this.hibernation = hibernation;
+    }
+    
+    /**
+     * Accept connections on "port" until the JVM is stopped,
+     * starting one session per connection.
+     * @param port The port to listen on.
+     */
+    public void listen(int port) throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            System.out.println("Zuul's Dungeon is listening on port " + port + ".");
+            while (true) {
+                Socket socket = serverSocket.accept();
+                PrintStream out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()));
+                startSession(socket.getInputStream(), out, socket);
+            }
+        }
+    }
+    
+    /**
+     * Start a new session on its own virtual thread. Any pair of
+     * streams may be used as the session's channel.
+     * @param in The source of the player's commands.
+     * @param out Where the game's output is printed.
+     * @param connection The connection to close when the game
+     * ends, null if none.
+     * @return The started session.
+     */
+    public Session startSession(InputStream in, PrintStream out, Closeable connection) {
+        return start(new Session(sessionCount.incrementAndGet(), in, out, connection));
+    }
+    
+    /**
+     * Start a new session on its own virtual thread, reading its
+     * commands from "parser".
+     * @param parser The source of the player's commands.
+     * @param out Where the game's output is printed.
+     * @param connection The connection to close when the game
+     * ends, null if none.
+     * @return The started session.
+     */
+    public Session startSession(Parser parser, PrintStream out, Closeable connection) {
+        return start(new Session(sessionCount.incrementAndGet(), parser, out, connection));
+    }
+    
+    /**
+     * Run "session" on a virtual thread of its own.
+     * @param session The session to run.
+     * @return The session.
+     */
+    private Session start(final Session session) {
+        activeSessions.incrementAndGet();
+        final CommandLog log = openLog(session);
+        if (simulation != null) {
+            simulation.add(session.getGame());
+        }
+        if (hibernation != null) {
+            hibernation.add(session);
+        }
+        Thread.ofVirtual().name("session-" + session.getId()).start(() -> {
+            try {
+                session.run();
+            } finally {
+                // a session that ended hibernated has no game left.
+                Game game = session.getGame();
+                if (simulation != null && game != null) {
+                    simulation.remove(game);
+                }
+                closeLog(session, log);
+                activeSessions.decrementAndGet();
+            }
+        });
+        return session;
+    }
+    
+    /**
+     * Start recording the game of "session" if the server has a
+     * journal or a log directory. A game that can't be recorded is
+     * played anyway.
+     * @param session The session.
+     * @return The log, or null if the game isn't recorded.
+     */
+    private CommandLog openLog(Session session) {
+        Journal journal = this.journal;
+        if (journal != null) {
+            CommandLog log = journal.open(session.getId());
+            session.getGame().setCommandLog(log);
+            return log;
+        }
+        Path directory = logDirectory;
+        if (directory == null) {
+            return null;
+        }
+        try {
+            CommandLog log = new CommandLog(directory.resolve("session-" + startTime + "-" + session.getId() + ".log"));
+            session.getGame().setCommandLog(log);
+            return log;
+        } catch (IOException e) {
+            System.err.println("Session " + session.getId() + " isn't recorded: " + e);
+            return null;
+        }
+    }
+    
+    /**
+     * Stop recording the game of "session".
+     * @param session The session.
+     * @param log The log, null if the game isn't recorded.
+     */
+    private void closeLog(Session session, CommandLog log) {
+        if (log == null) {
+            return;
+        }
+        Game game = session.getGame();
+        if (game != null) {
+            game.setCommandLog(null);
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            System.err.println("Session " + session.getId() + "'s log couldn't be written: " + e);
+        }
+    }
+    
+    /**
+     * Return the simulation ticking the games' characters.
+     * @return The simulation, null if there's none.
+     */
+    public Simulation getSimulation() {
+        return simulation;
+    }
+    
+    /**
+     * Return the number of sessions currently being played.
+     * @return The number of active sessions.
+     */
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+}
@@ -0,0 +1,327 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class Hibernation - takes the games of idle sessions off the heap.
+ * A session whose player hasn't typed anything for a while is
+ * hibernated: its game is written to a SessionStore as a snapshot
+ * and dropped. The player's next command rehydrates it, restoring
+ * the game from the snapshot before the command is processed, so the
+ * player doesn't notice. A hibernated game is frozen: if the
+ * server has a Simulation, its characters don't act until the game
+ * is rehydrated.
+ *
+ * Sessions are hibernated by sweeps, run every so often once the
+ * hibernation is started. A sweep hibernates every session idle for
+ * longer than the timeout, and then, if more is left on the heap
+ * than the policy's limit allows, the sessions the policy picks
+ * first until it isn't:
+ *   LRU    the limit is a number of sessions, and the sessions
+ *          that have been idle longest go first
+ *   SIZE   the limit is a number of rooms, and the sessions whose
+ *          games have created the most rooms go first
+ *
+ * Every command counts as a hit if its game was on the heap and as
+ * a miss if it had to be rehydrated, and the time rehydration takes
+ * is recorded.
+ */
+public class Hibernation implements Closeable
+{
+    /**
+     * Decides which sessions are hibernated first once there's more
+     * on the heap than the limit allows.
+     */
+    public enum Policy
+    {
+        LRU, SIZE;
+
+        /**
+         * Return how much of the limit a session's game takes.
+         * @param session The session, whose game is on the heap.
+         * @return The weight.
+         */
+        private long weight(Session session) {
+            return this == LRU ? 1 : session.getRoomsCreated();
+        }
+
+        /**
+         * Return a session's rank; the lowest ranks are hibernated
+         * first.
+         * @param session The session, whose game is on the heap.
+         * @return The rank.
+         */
+        private long rank(Session session) {
+            return this == LRU ? session.getLastActive() : -session.getRoomsCreated();
+        }
+    }
+
+    // the snapshots of the hibernated sessions.
+    private SessionStore store;
+    // ticks the games' characters, null if there's no simulation.
+    private Simulation simulation;
+    // how long a session may be idle before it's hibernated, in
+    // nanoseconds.
+    private long timeout;
+    // picks the sessions to hibernate beyond the timeout.
+    private Policy policy;
+    // the most the games on the heap may weigh (see Policy).
+    private long limit;
+    // the sessions that may be hibernated.
+    private Set<Session> sessions;
+    // runs the sweeps, null until started.
+    private ScheduledExecutorService sweeper;
+    // the metrics: commands whose game was on the heap, commands
+    // whose game was rehydrated, the total and longest time
+    // rehydration took in nanoseconds, and the number of sessions
+    // hibernated.
+    private long hits;
+    private long misses;
+    private long totalNanos;
+    private long maxNanos;
+    private long hibernations;
+
+    /**
+     * Create a hibernation keeping its snapshots in "file".
+     * @param file The store's file, deleted when the hibernation is
+     * closed.
+     * @param simulation The simulation ticking the games, null if
+     * there's none.
+     * @param timeout How long a session may be idle before it's
+     * hibernated, in milliseconds.
+     * @param policy Picks the sessions to hibernate beyond the
+     * timeout.
+     * @param limit The most the games on the heap may weigh, in
+     * sessions (LRU) or rooms (SIZE).
+     * @throws IOException If the store's file can't be created.
+     */
+    public Hibernation(Path file, Simulation simulation, long timeout, Policy policy, long limit) throws IOException {
+        store = new SessionStore(file);
+        this.simulation = simulation;
+        this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+        this.policy = policy;
+        this.limit = limit;
+        sessions = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Let "session" be hibernated from now on.
+     * @param session The session.
+     */
+    public void add(Session session) {
+        session.setHibernation(this);
+        sessions.add(session);
+    }
+
+    /**
+     * Forget "session", which has ended, and throw away its snapshot.
+     * @param session The session.
+     */
+    public void remove(Session session) {
+        sessions.remove(session);
+        session.end();
+        store.remove(session.getId());
+    }
+
+    /**
+     * Start sweeping every "period" milliseconds.
+     * @param period The time between sweeps, in milliseconds.
+     */
+    public synchronized void start(long period) {
+        if (sweeper != null) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hibernation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Print the metrics to "out" every "seconds" seconds, for as
+     * long as the hibernation sweeps. Does nothing unless started.
+     * @param out Where to print the metrics.
+     * @param seconds The time between reports.
+     */
+    public synchronized void reportTo(PrintStream out, long seconds) {
+        if (sweeper != null) {
+            sweeper.scheduleAtFixedRate(() -> out.println(getMetrics()), seconds, seconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Hibernate the sessions idle for longer than the timeout, and
+     * then those the policy picks until the games on the heap are
+     * within the limit. Called by the sweeper, but may also be called
+     * directly on a hibernation that hasn't been started.
+     */
+    public void sweep() {
+        long now = System.nanoTime();
+        // the sessions left on the heap, ranked as they were when
+        // the sweep saw them, since players keep playing meanwhile.
+        List<Candidate> awake = new ArrayList<>();
+        long weight = 0;
+        for (Session session : sessions) {
+            if (session.isHibernated() || now - session.getLastActive() >= timeout && hibernate(session)) {
+                continue;
+            }
+            Candidate candidate = new Candidate(session, policy.rank(session), policy.weight(session));
+            awake.add(candidate);
+            weight += candidate.weight;
+        }
+        awake.sort(Comparator.comparingLong(candidate -> candidate.rank));
+        for (int i = 0; i < awake.size() && weight > limit; i++) {
+            if (hibernate(awake.get(i).session)) {
+                weight -= awake.get(i).weight;
+            }
+        }
+    }
+
+    /**
+     * Hibernate one session, unless it's busy, hasn't started or has
+     * ended.
+     * @param session The session.
+     * @return True if the session was hibernated.
+     */
+    private boolean hibernate(Session session) {
+        try {
+            if (!session.hibernate(store, simulation)) {
+                return false;
+            }
+        } catch (IOException e) {
+            // the store has no room for it; the session stays on the heap.
+            return false;
+        }
+        synchronized (this) {
+            hibernations++;
+        }
+        return true;
+    }
+
+    /**
+     * Return the game of "session", rehydrating it first if it's
+     * hibernated, and count the command it's needed for.
+     * @param session The session.
+     * @return The game.
+     * @throws IOException If the game can't be restored.
+     */
+    public Game wake(Session session) throws IOException {
+        long start = System.nanoTime();
+        if (!session.wake(store, simulation)) {
+            synchronized (this) {
+                hits++;
+            }
+            return session.getGame();
+        }
+        long nanos = System.nanoTime() - start;
+        synchronized (this) {
+            misses++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+        return session.getGame();
+    }
+
+    /**
+     * Return the share of commands whose game was on the heap.
+     * @return The hit rate, between 0 and 1.
+     */
+    public synchronized double getHitRate() {
+        return hits + misses == 0 ? 0 : hits / (double) (hits + misses);
+    }
+
+    /**
+     * Return the number of rehydrations so far.
+     * @return The number of rehydrations.
+     */
+    public synchronized long getRehydrations() {
+        return misses;
+    }
+
+    /**
+     * Return the average time a rehydration took.
+     * @return The average time, in nanoseconds.
+     */
+    public synchronized long getAverageRehydrationNanos() {
+        return misses == 0 ? 0 : totalNanos / misses;
+    }
+
+    /**
+     * Return the longest time a rehydration took.
+     * @return The longest time, in nanoseconds.
+     */
+    public synchronized long getMaxRehydrationNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Return the number of times a session was hibernated.
+     * @return The number of hibernations.
+     */
+    public synchronized long getHibernations() {
+        return hibernations;
+    }
+
+    /**
+     * Return the number of sessions hibernated right now.
+     * @return The number of sessions.
+     */
+    public int getHibernatedCount() {
+        return store.getCount();
+    }
+
+    /**
+     * Return the metrics as one line of text.
+     * @return The metrics.
+     */
+    public synchronized String getMetrics() {
+        return String.format("%d sessions, %d hibernated in %d KB, %d hibernations; hit rate %.1f%%, %d rehydrations: average %.1f us, max %.1f us",
+                             sessions.size(), store.getCount(), store.getBytes() / 1024, hibernations, getHitRate() * 100,
+                             misses, getAverageRehydrationNanos() / 1e3, maxNanos / 1e3);
+    }
+
+    /**
+     * A session a sweep may hibernate.
+     */
+    private static class Candidate
+    {
+        // the session, its rank and its weight (see Policy).
+        private Session session;
+        private long rank;
+        private long weight;
+
+        /**
+         * @param session The session.
+         * @param rank The session's rank.
+         * @param weight The session's weight.
+         */
+        public Candidate(Session session, long rank, long weight) {
+            this.session = session;
+            this.rank = rank;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Stop sweeping and throw away the store. Hibernated sessions
+     * can't be rehydrated any more.
+     */
+    public synchronized void close() throws IOException {
+        if (sweeper != null) {
+            sweeper.shutdown();
+            sweeper = null;
+        }
+        store.close();
+    }
+}
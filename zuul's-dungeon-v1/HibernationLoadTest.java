@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Class HibernationLoadTest - starts many concurrent sessions on a
+ * GameServer with a Hibernation and reports how much heap the idle
+ * sessions take before and after they're hibernated, and how often
+ * and how fast the sessions are rehydrated when the players come
+ * back.
+ *
+ * After every player has entered a name and looked around, the
+ * players play in rounds: in every round some of them type a
+ * command each, most of them from a small group of busy players,
+ * and then the sessions are swept. Finally every session is left
+ * idle past the timeout and swept once more.
+ *
+ * Run the main method with any of these options (defaults in brackets):
+ *   sessions=N    number of sessions (5000)
+ *   rounds=N      number of rounds (50)
+ *   commands=N    number of commands per round (500)
+ *   busy=N        percentage of the players who are busy (10)
+ *   policy=P      LRU or SIZE (LRU)
+ *   limit=N       the most sessions (LRU) or rooms (SIZE) kept on the
+ *                 heap (a fifth of the sessions, or the rooms of a
+ *                 fifth of the sessions' worlds)
+ *   timeout=MS    how long a session may be idle before it's
+ *                 hibernated (2000)
+ *   seed=N        seed of the players' choices (1)
+ * Give the JVM enough heap (-Xmx) for the sessions.
+ */
+public class HibernationLoadTest
+{
+    // the options, by name.
+    private static TreeMap<String, String> options = new TreeMap<>();
+    // what the players type.
+    private static final String[] COMMANDS = {"look", "go south", "go north", "inventory", "say hi"};
+
+    /**
+     * Main method for running the load test.
+     * @param args Options of the form name=value.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        int count = Integer.parseInt(options.getOrDefault("sessions", "5000"));
+        int rounds = Integer.parseInt(options.getOrDefault("rounds", "50"));
+        int commands = Integer.parseInt(options.getOrDefault("commands", "500"));
+        int busy = Math.max(1, count * Integer.parseInt(options.getOrDefault("busy", "10")) / 100);
+        Hibernation.Policy policy = Hibernation.Policy.valueOf(options.getOrDefault("policy", "LRU"));
+        long timeout = Long.parseLong(options.getOrDefault("timeout", "2000"));
+        SplittableRandom random = new SplittableRandom(Long.parseLong(options.getOrDefault("seed", "1")));
+
+        long rooms = Game.getStandardWorld().getRoomCount();
+        long limit = Long.parseLong(options.getOrDefault("limit", String.valueOf(policy == Hibernation.Policy.LRU ? count / 5 : count / 5 * rooms)));
+        Hibernation hibernation = new Hibernation(Files.createTempFile("sessions", ".store"), null, timeout, policy, limit);
+        GameServer server = new GameServer();
+        server.setHibernation(hibernation);
+        long heapBefore = SessionLoadTest.usedHeap();
+        ArrayList<SessionLoadTest.ScriptedInput> inputs = new ArrayList<>(count);
+        ArrayList<PromptWaiter> outputs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            SessionLoadTest.ScriptedInput in = new SessionLoadTest.ScriptedInput();
+            PromptWaiter prompts = new PromptWaiter();
+            server.startSession(in, new PrintStream(prompts), null);
+            in.send("Player" + i + "\nlook\n");
+            inputs.add(in);
+            outputs.add(prompts);
+        }
+        for (PromptWaiter prompts : outputs) {
+            prompts.await(2);
+        }
+        long awakeHeap = SessionLoadTest.usedHeap() - heapBefore;
+
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < commands; i++) {
+                int player = random.nextInt(100) < 80 ? random.nextInt(busy) : random.nextInt(count);
+                inputs.get(player).send(COMMANDS[random.nextInt(COMMANDS.length)] + "\n");
+                outputs.get(player).await(1);
+            }
+            hibernation.sweep();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long playingHeap = SessionLoadTest.usedHeap() - heapBefore;
+
+        Thread.sleep(timeout);
+        hibernation.sweep();
+        long idleHeap = SessionLoadTest.usedHeap() - heapBefore;
+
+        System.out.printf("%d sessions, policy %s, limit %d, timeout %d ms%n", count, policy, limit, timeout);
+        System.out.printf("heap: %.1f MB awake (%.1f KB/session), %.1f MB while playing, %.1f MB once idle (%.1f KB/session)%n",
+                          awakeHeap / 1048576.0, awakeHeap / 1024.0 / count, playingHeap / 1048576.0,
+                          idleHeap / 1048576.0, idleHeap / 1024.0 / count);
+        System.out.printf("%d commands in %.2f s%n", rounds * commands, seconds);
+        System.out.println(hibernation.getMetrics());
+
+        for (SessionLoadTest.ScriptedInput in : inputs) {
+            in.send("quit\n");
+        }
+        while (server.getActiveSessions() > 0) {
+            Thread.sleep(10);
+        }
+        hibernation.close();
+    }
+
+    /**
+     * An output stream that discards the game's output but counts
+     * prompts, so the test can wait until a command has been
+     * processed.
+     */
+    private static class PromptWaiter extends OutputStream
+    {
+        // released once for every prompt.
+        private Semaphore prompts = new Semaphore(0);
+
+        /**
+         * Wait until the session has printed "count" more prompts.
+         * @param count The number of prompts.
+         */
+        public void await(int count) throws InterruptedException {
+            prompts.acquire(count);
+        }
+
+        public void write(int b) {
+            if (b == '>') {
+                prompts.release();
+            }
+        }
+
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Class HistorySoakTest - makes the characters of a synthetic world
+ * wander for millions of moves, while the player walks back and forth
+ * and goes back, and reports the heap after every round. Location
+ * histories are bounded, so the heap should stay flat however long
+ * the test runs.
+ * 
+ * Run the main method with any of these options (defaults in brackets):
+ *   rooms=N       number of rooms (1000)
+ *   characters=N  number of characters besides the player (1000)
+ *   rounds=N      number of rounds (10)
+ *   moves=N       character moves per round (1000000)
+ */
+public class HistorySoakTest
+{
+    /**
+     * Main method for running the soak test.
+     * @param args Options of the form name=value.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int rooms = 1000;
+        int characters = 1000;
+        int rounds = 10;
+        long moves = 1000000;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("rooms=")) {
+                rooms = Integer.parseInt(value);
+            } else if (arg.startsWith("characters=")) {
+                characters = Integer.parseInt(value);
+            } else if (arg.startsWith("rounds=")) {
+                rounds = Integer.parseInt(value);
+            } else if (arg.startsWith("moves=")) {
+                moves = Long.parseLong(value);
+            }
+        }
+        
+        PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+        Parser parser = new Parser(InputStream.nullInputStream(), out);
+        Game game = new Game(parser, out, SyntheticWorld.build(rooms, characters, 0, 0, 42));
+        game.start("Player");
+        Command[] commands = {parser.parse("go east"), parser.parse("go south"), parser.parse("go back"), parser.parse("go west")};
+        
+        System.out.println("round   total moves   heap KB   ms");
+        System.out.printf("%5d %13d %9d %4d%n", 0, 0, usedHeap() / 1024, 0);
+        long total = 0;
+        for (int round = 1; round <= rounds; round++) {
+            long start = System.nanoTime();
+            // every call to moveCharacters moves about half of the characters.
+            long calls = moves * 2 / Math.max(characters, 1);
+            for (long i = 0; i < calls; i++) {
+                game.moveCharacters();
+                game.processCommand(commands[(int) (i % commands.length)]);
+            }
+            total += calls * characters / 2;
+            long elapsed = (System.nanoTime() - start) / 1000000;
+            System.out.printf("%5d %13d %9d %4d%n", round, total, usedHeap() / 1024, elapsed);
+        }
+    }
+    
+    /**
+     * Return the used heap after collecting the garbage.
+     * @return The used heap, in bytes.
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
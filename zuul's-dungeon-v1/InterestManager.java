@@ -0,0 +1,262 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class InterestManager - tells the players of a SharedWorld what the
+ * others do around them. What happens in a room, such as a player
+ * coming in, leaving, taking, dropping or giving an item or saying
+ * something, is published once; the listeners in the room get the
+ * event itself, and those in the rooms next door only hear a NOISE,
+ * much like a Game's characters greet the player differently from the
+ * same room and from next door. Nobody further away is told anything,
+ * so publishing costs as much as there are listeners close by, not as
+ * much as there are players.
+ *
+ * Published events aren't handed to the listeners' sinks straight
+ * away but collected, and delivered once per tick, each listener's
+ * events in one batch. Within a batch the noises from the same room
+ * are coalesced into one that counts them.
+ */
+public class InterestManager
+{
+    // the time between ticks unless set otherwise, in milliseconds.
+    public static final long DEFAULT_PERIOD = 100;
+
+    // the listeners in each room, by room index.
+    private ConcurrentHashMap<Integer, Set<Listener>> rooms;
+    // the listeners with events waiting for the next tick.
+    private ConcurrentLinkedQueue<Listener> waiting;
+    // runs the ticks, null until started.
+    private ScheduledExecutorService clock;
+    // the metrics: events published, events added to listeners'
+    // batches, noises coalesced into others, and batches delivered.
+    // Adders, since every player publishes.
+    private LongAdder published;
+    private LongAdder fannedOut;
+    private LongAdder coalesced;
+    private LongAdder batches;
+
+    /**
+     * Create an interest manager with no listeners.
+     */
+    public InterestManager() {
+        rooms = new ConcurrentHashMap<>();
+        waiting = new ConcurrentLinkedQueue<>();
+        published = new LongAdder();
+        fannedOut = new LongAdder();
+        coalesced = new LongAdder();
+        batches = new LongAdder();
+    }
+
+    /**
+     * Start listening to "room", and to the rooms next to it.
+     * @param listener The listener.
+     * @param room The room.
+     */
+    public void enter(Listener listener, Room room) {
+        rooms.computeIfAbsent(room.getIndex(), index -> ConcurrentHashMap.newKeySet()).add(listener);
+    }
+
+    /**
+     * Stop listening to "room".
+     * @param listener The listener.
+     * @param room The room.
+     */
+    public void leave(Listener listener, Room room) {
+        Set<Listener> listeners = rooms.get(room.getIndex());
+        if (listeners != null) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * Tell the listeners in "room", other than "actor", about "event",
+     * and let those next door hear a noise. The room's exits must not
+     * change meanwhile, as they never do in a SharedWorld, but the
+     * room needn't be held.
+     * @param room The room the event happened in.
+     * @param actor The listener who caused it, null if none.
+     * @param event The event.
+     */
+    public void publish(Room room, Listener actor, GameEvent event) {
+        published.increment();
+        Set<Listener> here = rooms.get(room.getIndex());
+        if (here != null) {
+            for (Listener listener : here) {
+                if (listener != actor) {
+                    post(listener, event, WorldTemplate.NONE);
+                }
+            }
+        }
+        GameEvent noise = null;
+        for (Room neighbour : room.getNeighbours()) {
+            Set<Listener> nextDoor = neighbour == null || neighbour == room ? null : rooms.get(neighbour.getIndex());
+            if (nextDoor == null || nextDoor.isEmpty()) {
+                continue;
+            }
+            if (noise == null) {
+                noise = new GameEvent(GameEvent.Type.NOISE, room.getDescription(), 1);
+            }
+            for (Listener listener : nextDoor) {
+                post(listener, noise, room.getIndex());
+            }
+        }
+    }
+
+    /**
+     * Add an event to a listener's next batch.
+     * @param listener The listener.
+     * @param event The event.
+     * @param source The room a noise comes from, WorldTemplate.NONE
+     * for other events.
+     */
+    private void post(Listener listener, GameEvent event, int source) {
+        fannedOut.increment();
+        int added = listener.post(event, source);
+        if (added < 0) {
+            coalesced.increment();
+        } else if (added == 1) {
+            waiting.add(listener);
+        }
+    }
+
+    /**
+     * Deliver every listener's batch to its sink. Called on every
+     * tick once started, but may also be called directly.
+     */
+    public void tick() {
+        Listener listener;
+        while ((listener = waiting.poll()) != null) {
+            if (listener.deliver()) {
+                batches.increment();
+            }
+        }
+    }
+
+    /**
+     * Start ticking every "period" milliseconds.
+     * @param period The time between ticks, in milliseconds.
+     */
+    public synchronized void start(long period) {
+        if (clock != null) {
+            return;
+        }
+        clock = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "interest");
+            thread.setDaemon(true);
+            return thread;
+        });
+        clock.scheduleAtFixedRate(this::tick, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop ticking, delivering what's waiting first.
+     */
+    public synchronized void stop() {
+        if (clock != null) {
+            clock.shutdown();
+            clock = null;
+        }
+        tick();
+    }
+
+    /**
+     * Return the metrics as one line of text.
+     * @return The metrics.
+     */
+    public String getMetrics() {
+        long events = published.sum();
+        long posted = fannedOut.sum();
+        return String.format("%d events published, %d posted to listeners (%.1f each), %d noises coalesced, %d batches delivered",
+                             events, posted, events == 0 ? 0 : posted / (double) events, coalesced.sum(), batches.sum());
+    }
+
+    /**
+     * Someone hearing what happens around them: the sink their
+     * events go to, and the batch waiting for the next tick. A
+     * listener's sink is never called by two threads at once.
+     */
+    public static class Listener
+    {
+        // where the events go.
+        private EventSink sink;
+        // the batch waiting for the next tick, and the rooms its
+        // noises came from, WorldTemplate.NONE for other events.
+        private List<GameEvent> batch;
+        private List<Integer> sources;
+        // held while the sink is called.
+        private Object sinkLock;
+
+        /**
+         * @param sink Where the events go.
+         */
+        public Listener(EventSink sink) {
+            this.sink = sink;
+            batch = new ArrayList<>();
+            sources = new ArrayList<>();
+            sinkLock = new Object();
+        }
+
+        /**
+         * Add an event to the batch, coalescing a noise with one from
+         * the same room already in it.
+         * @param event The event.
+         * @param source The room a noise comes from, WorldTemplate.NONE
+         * for other events.
+         * @return -1 if the event was coalesced, otherwise the size of
+         * the batch.
+         */
+        private synchronized int post(GameEvent event, int source) {
+            if (source != WorldTemplate.NONE) {
+                int i = sources.indexOf(source);
+                if (i >= 0) {
+                    GameEvent noise = batch.get(i);
+                    batch.set(i, new GameEvent(GameEvent.Type.NOISE, noise.getArgument(0), (Integer) noise.getArgument(1) + 1));
+                    return -1;
+                }
+            }
+            batch.add(event);
+            sources.add(source);
+            return batch.size();
+        }
+
+        /**
+         * Hand the batch to the sink.
+         * @return False if there was nothing to hand over.
+         */
+        private boolean deliver() {
+            synchronized (sinkLock) {
+                List<GameEvent> events;
+                synchronized (this) {
+                    if (batch.isEmpty()) {
+                        return false;
+                    }
+                    events = batch;
+                    batch = new ArrayList<>();
+                    sources.clear();
+                }
+                sink.accept(events);
+                sink.flush();
+                return true;
+            }
+        }
+
+        /**
+         * Hand events to the sink straight away, e.g. the output of
+         * the listener's own command.
+         * @param events The events.
+         */
+        public void send(List<GameEvent> events) {
+            synchronized (sinkLock) {
+                sink.accept(events);
+            }
+        }
+    }
+}
@@ -9,6 +9,9 @@ public class Item
     private String description;
     // the weight.
     private double weight;
+    // the weight in whole grams, used when adding up weights
+    // so that they add up exactly.
+    private long grams;
     // the type of parameter. Displayed as a "prefix"
     // when displaying the parameter when looking at
     // the item, e.g. "Damage: 10".
@@ -55,6 +58,7 @@ public class Item
         this.name = name;
         this.description = description;
         this.weight = weight;
+        grams = Math.round(weight * 1000);
         this.parameterType = parameterType;
         this.parameter = parameter;
         this.takeable = takeable;
@@ -87,6 +91,14 @@ public class Item
         return weight;
     }
     
+    /**
+     * Return the weight of the item, in whole grams.
+     * @return The weight of the item, in grams.
+     */
+    public long getGrams() {
+        return grams;
+    }
+    
     /**
      * Return the parameter of the item.
      * @return The parameter of the item.
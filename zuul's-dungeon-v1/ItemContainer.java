@@ -0,0 +1,187 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class ItemContainer - the items in a room or in a character's
+ * inventory, looked up by name without regard to case, as a TreeMap
+ * ordered by String.CASE_INSENSITIVE_ORDER would. Containers may be
+ * used by several threads at once without locks: the items are kept in
+ * a ConcurrentHashMap under their names folded by NameIndex.fold, and the total weight
+ * and a version counting the changes are kept in atomics.
+ *
+ * An item is handed from one container to another by moveTo, which is
+ * atomic: when several threads try to move the same item at once,
+ * e.g. two players taking it from the same room, exactly one of them
+ * wins, and the item ends up in exactly one container. The weight it
+ * adds to the target is reserved first, so a capacity is never
+ * exceeded either.
+ */
+public class ItemContainer
+{
+    /**
+     * What became of an attempt to move an item.
+     */
+    public enum Transfer
+    {
+        // the item was moved.
+        MOVED,
+        // the item wasn't there, e.g. because another thread moved
+        // it first.
+        MISSING,
+        // the target has no room for the item.
+        TOO_HEAVY;
+    }
+
+    // the items, by folded name.
+    private ConcurrentHashMap<String, Item> items;
+    // the total weight of the items, in whole grams.
+    private AtomicLong grams;
+    // counts the changes, so what's rendered from the items can be
+    // kept until they change.
+    private AtomicInteger version;
+
+    /**
+     * Create an empty container.
+     */
+    public ItemContainer() {
+        items = new ConcurrentHashMap<>(4);
+        grams = new AtomicLong();
+        version = new AtomicInteger();
+    }
+
+    /**
+     * Return the item named "name" (case insensitive).
+     * @param name The name.
+     * @return The item, or null if there's no such item.
+     */
+    public Item get(String name) {
+        return items.get(NameIndex.fold(name));
+    }
+
+    /**
+     * Put an item in the container, replacing any item with the
+     * same name.
+     * @param item The item.
+     * @return The item replaced, null if none.
+     */
+    public Item put(Item item) {
+        Item replaced = items.put(NameIndex.fold(item.getName()), item);
+        grams.addAndGet(item.getGrams() - (replaced == null ? 0 : replaced.getGrams()));
+        version.incrementAndGet();
+        return replaced;
+    }
+
+    /**
+     * Take the item named "name" (case insensitive) out of the
+     * container.
+     * @param name The name.
+     * @return The item, or null if there was no such item.
+     */
+    public Item remove(String name) {
+        Item removed = items.remove(NameIndex.fold(name));
+        if (removed != null) {
+            grams.addAndGet(-removed.getGrams());
+            version.incrementAndGet();
+        }
+        return removed;
+    }
+
+    /**
+     * Take every item out of the container.
+     */
+    public void clear() {
+        for (String key : items.keySet()) {
+            Item removed = items.remove(key);
+            if (removed != null) {
+                grams.addAndGet(-removed.getGrams());
+                version.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Move "item" from this container to "target", unless another
+     * thread moves it first or "target" would then weigh more than
+     * "capacityGrams". Until the move is done, the item is in
+     * neither container.
+     * @param item The item.
+     * @param target The container it's moved to.
+     * @param capacityGrams The most the target may weigh, in whole
+     * grams.
+     * @return What became of the attempt.
+     */
+    public Transfer moveTo(Item item, ItemContainer target, long capacityGrams) {
+        long weight = item.getGrams();
+        // reserve the item's weight in the target first, so that two
+        // items moved into it at once can't both fit only on their own.
+        long reserved;
+        do {
+            reserved = target.grams.get();
+            if (reserved + weight > capacityGrams) {
+                return Transfer.TOO_HEAVY;
+            }
+        } while (!target.grams.compareAndSet(reserved, reserved + weight));
+        String key = NameIndex.fold(item.getName());
+        if (!items.remove(key, item)) {
+            target.grams.addAndGet(-weight);
+            return Transfer.MISSING;
+        }
+        grams.addAndGet(-weight);
+        version.incrementAndGet();
+        Item replaced = target.items.put(key, item);
+        if (replaced != null) {
+            target.grams.addAndGet(-replaced.getGrams());
+        }
+        target.version.incrementAndGet();
+        return Transfer.MOVED;
+    }
+
+    /**
+     * Return the names of the items.
+     * @return The names, in alphabetical order (case insensitive).
+     */
+    public List<String> getNames() {
+        List<String> names = new ArrayList<>(items.size());
+        for (Item item : items.values()) {
+            names.add(item.getName());
+        }
+        names.sort(String.CASE_INSENSITIVE_ORDER);
+        return names;
+    }
+
+    /**
+     * Return the items.
+     * @return The items, in alphabetical order of their names (case
+     * insensitive).
+     */
+    public List<Item> getItems() {
+        List<Item> sorted = new ArrayList<>(items.values());
+        sorted.sort((a, b) -> String.CASE_INSENSITIVE_ORDER.compare(a.getName(), b.getName()));
+        return sorted;
+    }
+
+    /**
+     * @return The number of items.
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * @return The total weight of the items, in whole grams.
+     */
+    public long getGrams() {
+        return grams.get();
+    }
+
+    /**
+     * Return a number that changes whenever the items do.
+     * @return The version.
+     */
+    public int getVersion() {
+        return version.get();
+    }
+}
@@ -0,0 +1,313 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class ItemContainerBenchmark - lets threads take items from one room
+ * and drop them again as fast as they can, and reports how many items
+ * per second they move, once with ItemContainers and ItemContainer.moveTo
+ * and once with the synchronized TreeMaps the rooms and inventories
+ * used to have, locking the room and then the inventory. Items are
+ * looked up by lower case name, as players type them. After every run
+ * it checks that no item was lost or duplicated.
+ *
+ * It then races threads for one item, over and over, and checks that
+ * every time exactly one of them got it and the item is in exactly one
+ * container.
+ *
+ * Run the main method with any of these options (defaults in brackets):
+ *   threads=LIST  comma separated numbers of threads (1,2,4,8)
+ *   items=N       number of items in the room (64)
+ *   moves=N       number of takes and drops tried per thread (1000000)
+ *   races=N       number of races for one item (20000)
+ *   seed=N        seed of the threads' choices (1)
+ */
+public class ItemContainerBenchmark
+{
+    // the options, by name.
+    private static TreeMap<String, String> options = new TreeMap<>();
+
+    /**
+     * Main method for running the benchmark.
+     * @param args Options of the form name=value.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        int count = Integer.parseInt(options.getOrDefault("items", "64"));
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            items.add(new Item("Item " + i, "Item number " + i + ".", 0.1 + i % 10, "none", 0, true, "miscellaneous", "", false));
+        }
+        System.out.printf("%d items, %d cores%n", count, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%8s %-13s %12s %12s %12s  %s%n", "threads", "containers", "moves/s", "taken", "missed", "items");
+        // warm up.
+        run(items, 2, "itemcontainer", false);
+        run(items, 2, "treemap", false);
+        for (String threads : options.getOrDefault("threads", "1,2,4,8").split(",")) {
+            run(items, Integer.parseInt(threads.trim()), "itemcontainer", true);
+            run(items, Integer.parseInt(threads.trim()), "treemap", true);
+        }
+        for (String threads : options.getOrDefault("threads", "1,2,4,8").split(",")) {
+            if (Integer.parseInt(threads.trim()) > 1) {
+                race(items.get(0), Integer.parseInt(threads.trim()));
+            }
+        }
+    }
+
+    /**
+     * Let "threads" threads take and drop items in one room, and
+     * print the results.
+     * @param items The items, all in the room to begin with.
+     * @param threads The number of threads.
+     * @param kind "itemcontainer" or "treemap".
+     * @param print Whether to print the results.
+     */
+    private static void run(List<Item> items, int threads, String kind, boolean print) throws InterruptedException {
+        int moves = Integer.parseInt(options.getOrDefault("moves", "1000000"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        Containers containers = kind.equals("itemcontainer") ? new Concurrent(items, threads) : new Synchronized(items, threads);
+        String[] names = new String[items.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = items.get(i).getName().toLowerCase();
+        }
+        AtomicInteger taken = new AtomicInteger();
+        AtomicInteger missed = new AtomicInteger();
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] running = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int number = t;
+            running[t] = Thread.ofPlatform().start(() -> {
+                SplittableRandom random = new SplittableRandom(seed + number);
+                int took = 0;
+                int missing = 0;
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int m = 0; m < moves; m++) {
+                    String name = names[random.nextInt(names.length)];
+                    if (containers.drop(number, name)) {
+                        continue;
+                    }
+                    if (containers.take(number, name)) {
+                        took++;
+                    } else {
+                        missing++;
+                    }
+                }
+                taken.addAndGet(took);
+                missed.addAndGet(missing);
+            });
+        }
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread thread : running) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (print) {
+            int left = containers.count();
+            System.out.printf("%8d %-13s %12.0f %12d %12d  %s%n", threads, kind, (double) moves * threads * 1e9 / elapsed, taken.get(), missed.get(),
+                              left == items.size() ? "all " + left + " kept" : left + " of " + items.size() + " LOST OR DUPLICATED");
+        }
+    }
+
+    /**
+     * Let "threads" threads race to take "item" from a room, over and
+     * over, and print whether exactly one of them won every time.
+     * @param item The item.
+     * @param threads The number of threads.
+     */
+    private static void race(Item item, int threads) throws InterruptedException {
+        int races = Integer.parseInt(options.getOrDefault("races", "20000"));
+        ItemContainer room = new ItemContainer();
+        ItemContainer[] inventories = new ItemContainer[threads];
+        for (int t = 0; t < threads; t++) {
+            inventories[t] = new ItemContainer();
+        }
+        AtomicInteger winners = new AtomicInteger();
+        int[] wrong = new int[1];
+        int[] raced = new int[1];
+        // checks the race just run, and sets up the next one.
+        CyclicBarrier barrier = new CyclicBarrier(threads, () -> {
+            int places = room.size();
+            for (ItemContainer inventory : inventories) {
+                places += inventory.size();
+                inventory.clear();
+            }
+            if (raced[0] > 0 && (winners.get() != 1 || places != 1)) {
+                wrong[0]++;
+            }
+            raced[0]++;
+            room.put(item);
+            winners.set(0);
+        });
+        Thread[] running = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int number = t;
+            running[t] = Thread.ofPlatform().start(() -> {
+                try {
+                    for (int r = 0; r < races; r++) {
+                        barrier.await();
+                        if (room.moveTo(item, inventories[number], Long.MAX_VALUE) == ItemContainer.Transfer.MOVED) {
+                            winners.incrementAndGet();
+                        }
+                    }
+                    barrier.await();
+                } catch (InterruptedException | BrokenBarrierException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+        for (Thread thread : running) {
+            thread.join();
+        }
+        System.out.printf("%d threads raced for one item %d times: %s%n", threads, races,
+                          wrong[0] == 0 ? "exactly one won every time" : wrong[0] + " times NOT exactly one");
+    }
+
+    /**
+     * A room and the threads' inventories, in one of the two kinds
+     * of containers.
+     */
+    private interface Containers
+    {
+        /**
+         * Move the item named "name" from thread "thread"'s inventory
+         * to the room.
+         * @param thread The thread's number.
+         * @param name The name, in lower case.
+         * @return False if the thread doesn't have it.
+         */
+        boolean drop(int thread, String name);
+
+        /**
+         * Move the item named "name" from the room to thread
+         * "thread"'s inventory.
+         * @param thread The thread's number.
+         * @param name The name, in lower case.
+         * @return False if the room doesn't have it.
+         */
+        boolean take(int thread, String name);
+
+        /**
+         * @return The number of items in the room and the inventories.
+         */
+        int count();
+    }
+
+    /**
+     * ItemContainers, moving items with moveTo.
+     */
+    private static class Concurrent implements Containers
+    {
+        // the room, and the threads' inventories.
+        private ItemContainer room;
+        private ItemContainer[] inventories;
+
+        /**
+         * @param items The items in the room.
+         * @param threads The number of threads.
+         */
+        public Concurrent(List<Item> items, int threads) {
+            room = new ItemContainer();
+            for (Item item : items) {
+                room.put(item);
+            }
+            inventories = new ItemContainer[threads];
+            for (int t = 0; t < threads; t++) {
+                inventories[t] = new ItemContainer();
+            }
+        }
+
+        public boolean drop(int thread, String name) {
+            Item item = inventories[thread].get(name);
+            return item != null && inventories[thread].moveTo(item, room, Long.MAX_VALUE) == ItemContainer.Transfer.MOVED;
+        }
+
+        public boolean take(int thread, String name) {
+            Item item = room.get(name);
+            return item != null && room.moveTo(item, inventories[thread], Long.MAX_VALUE) == ItemContainer.Transfer.MOVED;
+        }
+
+        public int count() {
+            int count = room.size();
+            for (ItemContainer inventory : inventories) {
+                count += inventory.size();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * TreeMaps ordered by String.CASE_INSENSITIVE_ORDER, each guarded
+     * by its own monitor, the room's always taken before an
+     * inventory's.
+     */
+    private static class Synchronized implements Containers
+    {
+        // the room, and the threads' inventories.
+        private TreeMap<String, Item> room;
+        private List<TreeMap<String, Item>> inventories;
+
+        /**
+         * @param items The items in the room.
+         * @param threads The number of threads.
+         */
+        public Synchronized(List<Item> items, int threads) {
+            room = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (Item item : items) {
+                room.put(item.getName(), item);
+            }
+            inventories = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                inventories.add(new TreeMap<>(String.CASE_INSENSITIVE_ORDER));
+            }
+        }
+
+        public boolean drop(int thread, String name) {
+            TreeMap<String, Item> inventory = inventories.get(thread);
+            synchronized (room) {
+                synchronized (inventory) {
+                    Item item = inventory.remove(name);
+                    if (item == null) {
+                        return false;
+                    }
+                    room.put(item.getName(), item);
+                    return true;
+                }
+            }
+        }
+
+        public boolean take(int thread, String name) {
+            TreeMap<String, Item> inventory = inventories.get(thread);
+            synchronized (room) {
+                synchronized (inventory) {
+                    Item item = room.remove(name);
+                    if (item == null) {
+                        return false;
+                    }
+                    inventory.put(item.getName(), item);
+                    return true;
+                }
+            }
+        }
+
+        public int count() {
+            int count = room.size();
+            for (TreeMap<String, Item> inventory : inventories) {
+                count += inventory.size();
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Class Journal - an append-only file recording the games of many
+ * sessions at once, so that the games can be recovered after a
+ * crash.
+ *
+ * Every session records its game through a log of its own (see
+ * open). The journal has one entry per line:
+ *   ID ENTRY       an entry (see CommandLog) of session ID's game
+ *   ID end         session ID has ended
+ *
+ * A command is only processed once its entry is on the disk. With
+ * group commit, the sessions share the forces of the file: while one
+ * session forces it, the entries of the others gather, and the next
+ * force covers all of them, so a busy server forces the file once per
+ * batch of commands instead of once per command. Without group
+ * commit, every command forces the file itself. Other entries, such
+ * as ticks, go to the disk with the next command's, or are committed
+ * on their own once MAX_PENDING characters of entries are waiting or
+ * the oldest has waited MAX_PENDING_NANOS, so a session that only
+ * ticks neither grows the pending entries without bound nor loses
+ * more than that in a crash.
+ *
+ * A journal belongs to one run of a server, as the sessions' ids are
+ * only unique within it.
+ */
+public class Journal implements Closeable
+{
+    // the file, only ever appended to.
+    private FileChannel channel;
+    // whether the sessions share forces (group commit), or every
+    // command forces the file itself.
+    private boolean groupCommit;
+    // the entries appended but not yet written.
+    private StringBuilder pending;
+    // when the oldest pending entry was appended, by System.nanoTime.
+    private long pendingSince;
+    // the most characters of entries left pending, and the longest
+    // an entry is left pending, before they're committed without
+    // waiting for a command.
+    public static final int MAX_PENDING = 64 * 1024;
+    public static final long MAX_PENDING_NANOS = 1_000_000_000L;
+    // the number of entries appended so far, and how many of them
+    // are on the disk.
+    private long appended;
+    private long durable;
+    // true while a session writes and forces the pending entries.
+    private boolean committing;
+    // the number of times the file has been forced.
+    private long forces;
+    // the error that stopped the journal, null if none.
+    private IOException failure;
+
+    /**
+     * Create a journal in the new file "file".
+     * @param file The file, which mustn't exist yet.
+     * @param groupCommit True if the sessions share forces of the
+     * file, false if every command forces it.
+     * @throws IOException If the file exists or can't be created.
+     */
+    public Journal(Path file, boolean groupCommit) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.groupCommit = groupCommit;
+        pending = new StringBuilder();
+    }
+
+    /**
+     * Return a log recording the game of session "session" in the
+     * journal (see Game.setCommandLog). Closing the log records that
+     * the session has ended.
+     * @param session The session's id.
+     * @return The log.
+     */
+    public CommandLog open(int session) {
+        return new SessionLog(session);
+    }
+
+    /**
+     * Append an entry, to be written with the next commit.
+     * @param session The id of the session the entry belongs to.
+     * @param entry The entry.
+     * @return The number of the entry.
+     */
+    private synchronized long append(int session, String entry) {
+        if (pending.length() == 0) {
+            pendingSince = System.nanoTime();
+        }
+        pending.append(session).append(' ').append(entry).append('\n');
+        return ++appended;
+    }
+
+    /**
+     * Return whether the pending entries should be committed without
+     * waiting for a command: there are MAX_PENDING characters of them,
+     * or the oldest has waited MAX_PENDING_NANOS.
+     * @return True if they should.
+     */
+    private synchronized boolean isOverdue() {
+        return pending.length() >= MAX_PENDING || (pending.length() > 0 && System.nanoTime() - pendingSince >= MAX_PENDING_NANOS);
+    }
+
+    /**
+     * Return once entry number "entry" and all before it are on the
+     * disk. With group commit, a session waits while another forces
+     * the file and only forces it itself if that didn't cover its
+     * entry.
+     * @param entry The number of the entry.
+     * @throws IOException If the journal can't be written.
+     */
+    private void commit(long entry) throws IOException {
+        if (!groupCommit) {
+            synchronized (this) {
+                checkFailure();
+                if (durable < entry) {
+                    flush(appended);
+                }
+            }
+            return;
+        }
+        String batch;
+        long last;
+        synchronized (this) {
+            while (committing && durable < entry) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the journal.");
+                }
+            }
+            checkFailure();
+            if (durable >= entry) {
+                return;
+            }
+            committing = true;
+            batch = pending.toString();
+            pending.setLength(0);
+            last = appended;
+        }
+        // the lock is let go while the file is forced, so that the
+        // other sessions can append the entries of the next batch.
+        IOException error = null;
+        try {
+            writeAndForce(batch);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            committing = false;
+            forces++;
+            if (error == null) {
+                durable = last;
+            } else {
+                failure = error;
+            }
+            notifyAll();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Write the pending entries and force the file, holding the lock.
+     * @param last The number of the last pending entry.
+     * @throws IOException If the file can't be written.
+     */
+    private void flush(long last) throws IOException {
+        String batch = pending.toString();
+        pending.setLength(0);
+        try {
+            writeAndForce(batch);
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+        forces++;
+        durable = last;
+    }
+
+    /**
+     * Write entries to the end of the file and force them to the disk.
+     * @param batch The entries.
+     * @throws IOException If the file can't be written.
+     */
+    private void writeAndForce(String batch) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(batch.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Throw if an earlier commit failed, as the entries after it
+     * can't be recovered without the ones it lost.
+     * @throws IOException If the journal has failed.
+     */
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("The journal couldn't be written.", failure);
+        }
+    }
+
+    /**
+     * Return how many times the file has been forced.
+     * @return The number of forces.
+     */
+    public synchronized long getForces() {
+        return forces;
+    }
+
+    /**
+     * Return how many entries have been appended.
+     * @return The number of entries.
+     */
+    public synchronized long getEntries() {
+        return appended;
+    }
+
+    /**
+     * Write and force the pending entries and close the file. The
+     * sessions' logs can't be used any more.
+     * @throws IOException If the file can't be written.
+     */
+    public synchronized void close() throws IOException {
+        while (committing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the journal.");
+            }
+        }
+        try {
+            if (failure == null && pending.length() > 0) {
+                flush(appended);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Rebuild the games of the sessions in the journal "file" that
+     * hadn't ended, each from its latest snapshot and the entries
+     * after it, or from its first entry if there's no snapshot. The
+     * games are headless; their events are dropped.
+     * @param file The journal.
+     * @param world The world the games were played in.
+     * @return The games, by session id.
+     * @throws IOException If the file can't be read or holds
+     * something that isn't an entry.
+     */
+    public static Map<Integer, Game> recover(Path file, WorldTemplate world) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        // a crash may have cut the last line short, in which case
+        // it was never committed.
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] != '\n') {
+            end--;
+        }
+        Map<Integer, List<String[]>> sessions = new LinkedHashMap<>();
+        int number = 0;
+        for (String line : new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n")) {
+            number++;
+            if (line.isEmpty()) {
+                continue;
+            }
+            int split = line.indexOf(' ');
+            int session;
+            try {
+                session = Integer.parseInt(split < 0 ? line : line.substring(0, split));
+            } catch (NumberFormatException e) {
+                throw new IOException(file + ":" + number + ": not a journal entry: " + line);
+            }
+            String rest = split < 0 ? "" : line.substring(split + 1);
+            if (rest.equals("end")) {
+                sessions.remove(session);
+                continue;
+            }
+            String[] entry = CommandLog.parse(rest);
+            if (entry == null) {
+                throw new IOException(file + ":" + number + ": not a journal entry: " + line);
+            }
+            sessions.computeIfAbsent(session, id -> new ArrayList<>()).add(entry);
+        }
+        Map<Integer, Game> games = new LinkedHashMap<>();
+        for (Map.Entry<Integer, List<String[]>> session : sessions.entrySet()) {
+            games.put(session.getKey(), recover(session.getValue(), world));
+        }
+        return games;
+    }
+
+    /**
+     * Rebuild a game from its entries. A snapshot is only used if
+     * its seed is the one recorded just before it, as a later
+     * snapshot whose entry was lost in the crash may have replaced
+     * the file. Snapshots that can't be used are passed over for
+     * earlier ones.
+     * @param entries The game's entries.
+     * @param world The world the game was played in.
+     * @return The game.
+     */
+    private static Game recover(List<String[]> entries, WorldTemplate world) {
+        String seed = null;
+        int from = 0;
+        Game game = null;
+        for (int i = entries.size() - 1; i >= 0 && game == null; i--) {
+            if (!entries.get(i)[0].equals("snapshot")) {
+                continue;
+            }
+            for (int j = i - 1; j >= 0 && seed == null; j--) {
+                if (entries.get(j)[0].equals("seed")) {
+                    seed = entries.get(j)[1];
+                }
+            }
+            try {
+                Game restored = Snapshot.read(ByteBuffer.wrap(Files.readAllBytes(Paths.get(entries.get(i)[1]))), world);
+                if (seed != null && Long.parseLong(seed) == restored.getSeed()) {
+                    game = restored;
+                    from = i + 1;
+                }
+            } catch (IOException e) {
+                // the snapshot is gone or damaged.
+            }
+            seed = null;
+        }
+        if (game == null) {
+            PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+            game = new Game(new Parser(InputStream.nullInputStream(), out), events -> { }, world);
+        } else {
+            // whether the game is simulated isn't part of the snapshot.
+            for (String[] entry : entries.subList(0, from)) {
+                if (entry[0].equals("simulated")) {
+                    game.setSimulated(Boolean.parseBoolean(entry[1]));
+                }
+            }
+        }
+        for (Consumer<Game> call : Replay.recording(entries.subList(from, entries.size()))) {
+            call.accept(game);
+        }
+        return game;
+    }
+
+    /**
+     * The log of one session, appending its entries to the journal
+     * and committing every command before it's processed.
+     */
+    private class SessionLog extends CommandLog
+    {
+        // the id of the session.
+        private int session;
+        // the number of the session's latest entry.
+        private long last;
+
+        /**
+         * Create the log of session "session".
+         * @param session The session's id.
+         */
+        public SessionLog(int session) {
+            this.session = session;
+        }
+
+        /**
+         * Append an entry to the journal, committing the pending
+         * entries if they have waited too long (see isOverdue).
+         * @param entry The entry.
+         */
+        protected void write(String entry) {
+            last = append(session, entry);
+            if (isOverdue()) {
+                try {
+                    commit(last);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        /**
+         * Append the command's entry and wait until it's on the disk.
+         * @param command The command.
+         */
+        public void command(Command command) {
+            super.command(command);
+            try {
+                commit(last);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Record that the session has ended.
+         */
+        public void close() throws IOException {
+            last = append(session, "end");
+            commit(last);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class JournalBenchmark - plays many sessions at once, each on a
+ * virtual thread of its own the way GameServer runs them, and
+ * compares how many commands per second they get through without a
+ * journal, with a journal forced for every command and with a
+ * journal using group commit (see Journal).
+ *
+ * Every session is played by BatchSimulation's random player. When
+ * a game ends, the session starts a new one under a new id. After
+ * each journaled run, the games still being played are recovered
+ * from the journal as if the server had crashed, and checked
+ * against the games themselves.
+ *
+ * Run the main method with any of these options (defaults in brackets):
+ *   sessions=N    number of sessions played at once (64)
+ *   commands=N    number of commands per session (200)
+ *   snapshot=N    save a snapshot of every game after every N
+ *                 commands, 0 for never (0)
+ *   modes=LIST    the runs, any of off, each and group (off,each,group)
+ *   seed=N        seed of the first session, the others count up (1)
+ *   dir=DIR       where the journals and snapshots are written (a new
+ *                 temporary directory)
+ */
+public class JournalBenchmark
+{
+    // the options, by name.
+    private static TreeMap<String, String> options = new TreeMap<>();
+
+    /**
+     * Main method for running the benchmark.
+     * @param args Options of the form name=value.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        Path dir = options.containsKey("dir") ? Paths.get(options.get("dir")) : Files.createTempDirectory("journal");
+        Files.createDirectories(dir);
+        System.out.println("writing to " + dir);
+        System.out.printf("%-6s %10s %12s %10s %14s  %s%n", "mode", "commands", "commands/s", "forces", "commands/force", "recovery");
+        for (String mode : options.getOrDefault("modes", "off,each,group").split(",")) {
+            measure(mode, dir);
+        }
+    }
+
+    /**
+     * Play all sessions once with the journal in "mode" and print
+     * the results.
+     * @param mode "off", "each" or "group".
+     * @param dir Where the journal and snapshots are written.
+     */
+    private static void measure(String mode, Path dir) throws IOException, InterruptedException {
+        int sessions = Integer.parseInt(options.getOrDefault("sessions", "64"));
+        int commands = Integer.parseInt(options.getOrDefault("commands", "200"));
+        int snapshot = Integer.parseInt(options.getOrDefault("snapshot", "0"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        WorldTemplate world = Game.getStandardWorld();
+        Path file = dir.resolve("journal-" + mode + "-" + System.nanoTime() + ".log");
+        Journal journal = mode.equals("off") ? null : new Journal(file, mode.equals("group"));
+
+        AtomicInteger ids = new AtomicInteger(sessions);
+        AtomicLong processed = new AtomicLong();
+        Map<Integer, Game> playing = new TreeMap<>();
+        Thread[] threads = new Thread[sessions];
+        long start = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            final int first = i + 1;
+            threads[i] = Thread.ofVirtual().start(() -> {
+                SplittableRandom random = new SplittableRandom(seed + first);
+                int id = first;
+                CommandLog log = journal == null ? null : journal.open(id);
+                Game game = newGame(world, log, id, random.nextLong());
+                for (int count = 0; count < commands; count++) {
+                    if (game.getOutcome() != Outcome.PLAYING) {
+                        closeLog(log);
+                        id = ids.incrementAndGet();
+                        log = journal == null ? null : journal.open(id);
+                        game = newGame(world, log, id, random.nextLong());
+                    }
+                    game.processCommand(BatchSimulation.randomCommand(game, random));
+                    processed.incrementAndGet();
+                    if (journal != null && snapshot > 0 && (count + 1) % snapshot == 0) {
+                        try {
+                            game.saveSnapshot(dir.resolve(file.getFileName() + "-" + id + ".zds"));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                }
+                synchronized (playing) {
+                    playing.put(id, game);
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        if (journal == null) {
+            System.out.printf("%-6s %10d %12.0f %10s %14s  %s%n", mode, processed.get(), processed.get() / seconds, "-", "-", "-");
+            return;
+        }
+        // the games still being played are left as a crash would
+        // leave them, without their sessions' end.
+        for (Game game : playing.values()) {
+            game.setCommandLog(null);
+        }
+        journal.close();
+        long forces = journal.getForces();
+        System.out.printf("%-6s %10d %12.0f %10d %14.1f  %s%n", mode, processed.get(), processed.get() / seconds, forces, processed.get() / (double) forces, checkRecovery(file, world, playing));
+    }
+
+    /**
+     * Start a new headless game.
+     * @param world The world to play in.
+     * @param log The game's log in the journal, null if there's none.
+     * @param id The session's id.
+     * @param seed The game's seed.
+     * @return The game.
+     */
+    private static Game newGame(WorldTemplate world, CommandLog log, int id, long seed) {
+        PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+        Game game = new Game(new Parser(InputStream.nullInputStream(), out), events -> { }, world);
+        game.setSeed(seed);
+        game.setCommandLog(log);
+        game.start("Player" + id);
+        return game;
+    }
+
+    /**
+     * Record that a game's session has ended.
+     * @param log The game's log in the journal, null if there's none.
+     */
+    private static void closeLog(CommandLog log) {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Recover the games from the journal and compare them with the
+     * games themselves, by their snapshots.
+     * @param file The journal.
+     * @param world The world the games were played in.
+     * @param playing The games still being played, by session id.
+     * @return What was found.
+     */
+    private static String checkRecovery(Path file, WorldTemplate world, Map<Integer, Game> playing) throws IOException {
+        Map<Integer, Game> recovered = Journal.recover(file, world);
+        if (!recovered.keySet().equals(playing.keySet())) {
+            return "recovered sessions " + recovered.keySet() + " instead of " + playing.keySet();
+        }
+        int different = 0;
+        for (Map.Entry<Integer, Game> session : playing.entrySet()) {
+            ByteBuffer expected = Snapshot.write(session.getValue());
+            ByteBuffer actual = Snapshot.write(recovered.get(session.getKey()));
+            if (!expected.equals(actual)) {
+                different++;
+            }
+        }
+        return different == 0 ? "all " + recovered.size() + " games recovered" : different + " of " + recovered.size() + " games recovered differently";
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Class LatencyHistogram - counts latencies so their percentiles can be
+ * reported. The latencies are counted in buckets that double in width
+ * every eight buckets, so a percentile is never off by more than an
+ * eighth, from nanoseconds to hours, and a histogram always takes the
+ * same 2 KB however many latencies it has counted.
+ */
+public class LatencyHistogram
+{
+    // the number of buckets to every doubling, and its logarithm.
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BITS = 3;
+
+    // the number of latencies in each bucket.
+    private int[] counts;
+    // the number of latencies, and the longest one, in nanoseconds.
+    private long count;
+    private long max;
+
+    /**
+     * Create an empty histogram.
+     */
+    public LatencyHistogram() {
+        counts = new int[(64 - SUB_BITS) * SUB_BUCKETS];
+    }
+
+    /**
+     * Count a latency.
+     * @param nanos The latency, in nanoseconds.
+     */
+    public synchronized void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        counts[bucket(nanos)]++;
+        count++;
+        max = Math.max(max, nanos);
+    }
+
+    /**
+     * Count the latencies of "other" too.
+     * @param other The other histogram.
+     */
+    public void add(LatencyHistogram other) {
+        int[] otherCounts;
+        long otherCount;
+        long otherMax;
+        synchronized (other) {
+            otherCounts = other.counts.clone();
+            otherCount = other.count;
+            otherMax = other.max;
+        }
+        synchronized (this) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += otherCounts[i];
+            }
+            count += otherCount;
+            max = Math.max(max, otherMax);
+        }
+    }
+
+    /**
+     * Return the latency that "percentile" percent of the latencies
+     * don't exceed, rounded up to the end of its bucket.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The latency in nanoseconds, 0 if none has been counted.
+     */
+    public synchronized long getPercentile(double percentile) {
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(max, last(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return The number of latencies counted.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The longest latency counted, in nanoseconds.
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * Return the bucket "nanos" is counted in. Below SUB_BUCKETS each
+     * value has a bucket of its own.
+     * @param nanos The latency.
+     * @return The bucket's index.
+     */
+    private static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Return the largest latency counted in bucket "i".
+     * @param i The bucket's index.
+     * @return The latency, in nanoseconds.
+     */
+    private static long last(int i) {
+        if (i < SUB_BUCKETS) {
+            return i;
+        }
+        int exponent = i / SUB_BUCKETS + SUB_BITS - 1;
+        long first = (long) (SUB_BUCKETS + i % SUB_BUCKETS) << (exponent - SUB_BITS);
+        return first + (1L << (exponent - SUB_BITS)) - 1;
+    }
+}
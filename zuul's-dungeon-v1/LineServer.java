@@ -0,0 +1,464 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Class LineServer - a non-blocking front end for GameServer. One
+ * thread serves every connection through a selector: it splits the
+ * received bytes into lines and hands each line, straight from the
+ * receive buffer, to the connection's ChannelParser, which feeds
+ * the session's game. Whatever a game prints is queued in buffers
+ * and sent back with one gathering write per flush. A connection
+ * whose game has ChannelParser.MAX_QUEUED lines waiting isn't read
+ * until the game has caught up, and its unhandled lines wait in its
+ * receive buffer.
+ * 
+ * Run the main method with an optional port number and connect with
+ * e.g. telnet, or use ScriptedClient.
+ */
+public class LineServer implements Runnable
+{
+    // the port listened on when none is given.
+    private static final int DEFAULT_PORT = 4243;
+    // the longest line accepted; longer lines are cut into pieces.
+    private static final int MAX_LINE = 1024;
+    // the size of the buffers output is collected in.
+    private static final int CHUNK_SIZE = 4096;
+    // the most buffers handed to one gathering write.
+    private static final int MAX_GATHER = 16;
+    
+    // runs the sessions.
+    private GameServer sessions;
+    // the selector serving all connections.
+    private Selector selector;
+    // the channel accepting new connections.
+    private ServerSocketChannel serverChannel;
+    // connections with new output or waiting to be closed, filled
+    // by the session threads and emptied by the selector thread.
+    private ConcurrentLinkedQueue<Connection> ready;
+    // paused connections whose games have caught up, to be read
+    // again; filled by the session threads and emptied by the
+    // selector thread.
+    private ConcurrentLinkedQueue<Connection> resumed;
+    // the most lines any connection has had waiting for its game.
+    private volatile int mostQueued;
+    // the buffers handed to a gathering write, reused.
+    private ByteBuffer[] gather;
+
+    /**
+     * Main method for running the server.
+     * @param args Optionally the port to listen on.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        if (args.length > 0) {
+            port = Integer.parseInt(args[0]);
+        }
+        Simulation simulation = new Simulation();
+        simulation.reportTo(System.out, 60);
+        LineServer server = new LineServer(port, new GameServer(simulation));
+        System.out.println("Zuul's Dungeon is listening on port " + server.getPort() + ".");
+        server.run();
+    }
+    
+    /**
+     * Create a server listening on "port". Use port 0 to pick any
+     * free port.
+     * @param port The port to listen on.
+     */
+    public LineServer(int port) throws IOException {
+        this(port, new GameServer());
+    }
+    
+    /**
+     * Create a server listening on "port" whose sessions are run
+     * by "sessions". Use port 0 to pick any free port.
+     * @param port The port to listen on.
+     * @param sessions The server running the sessions.
+     */
+    public LineServer(int port, GameServer sessions) throws IOException {
+        this.sessions = sessions;
+        ready = new ConcurrentLinkedQueue<>();
+        resumed = new ConcurrentLinkedQueue<>();
+        gather = new ByteBuffer[MAX_GATHER];
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+    
+    /**
+     * Return the port the server listens on.
+     * @return The port.
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+    
+    /**
+     * Return the server running the sessions.
+     * @return The server running the sessions.
+     */
+    public GameServer getSessions() {
+        return sessions;
+    }
+    
+    /**
+     * Return the most lines any connection has had waiting for its
+     * game, at most ChannelParser.MAX_QUEUED.
+     * @return The number of lines.
+     */
+    public int getMostQueued() {
+        return mostQueued;
+    }
+    
+    /**
+     * Serve connections until the server is stopped.
+     */
+    public void run() {
+        try {
+            while (serverChannel.isOpen()) {
+                selector.select();
+                Connection connection;
+                while ((connection = ready.poll()) != null) {
+                    write(connection);
+                }
+                while ((connection = resumed.poll()) != null) {
+                    resume(connection);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    connection = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        read(connection);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write(connection);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // stop closes the selector while it may still be in use.
+            if (serverChannel.isOpen()) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+    
+    /**
+     * Stop accepting connections and stop serving. Sessions still
+     * being played see the end of their input.
+     */
+    public void stop() throws IOException {
+        serverChannel.close();
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() != null) {
+                close((Connection) key.attachment());
+            }
+        }
+        selector.close();
+    }
+    
+    /**
+     * Accept a new connection and start its session.
+     */
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        sessions.startSession(connection.parser, connection.out, connection);
+    }
+    
+    /**
+     * Read what the player has sent and pass every complete line on
+     * to the connection's parser (see deliver). An incomplete line
+     * stays in the buffer until the rest arrives.
+     */
+    private void read(Connection connection) {
+        ByteBuffer input = connection.input;
+        int count;
+        try {
+            count = connection.channel.read(input);
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+        if (count == -1) {
+            // the player won't send more, but may still be reading. A
+            // last line without a line break still counts.
+            int lineEnd = input.position();
+            if (lineEnd > 0) {
+                if (input.array()[lineEnd - 1] == '\r') {
+                    lineEnd--;
+                }
+                connection.parser.receive(input.array(), 0, lineEnd);
+                input.clear();
+            }
+            connection.parser.endOfInput();
+            connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+            return;
+        }
+        deliver(connection);
+    }
+    
+    /**
+     * Pass the complete lines in the connection's buffer on to its
+     * parser until the parser's queue is full. The connection then
+     * stops being read, and the lines left wait in the buffer until
+     * the game has caught up (see resume).
+     */
+    private void deliver(Connection connection) {
+        ByteBuffer input = connection.input;
+        ChannelParser parser = connection.parser;
+        byte[] bytes = input.array();
+        while (true) {
+            int lineStart = 0;
+            for (int i = 0; i < input.position() && !parser.isFull(); i++) {
+                if (bytes[i] == '\n') {
+                    int lineEnd = i;
+                    if (lineEnd > lineStart && bytes[lineEnd - 1] == '\r') {
+                        lineEnd--;
+                    }
+                    parser.receive(bytes, lineStart, lineEnd - lineStart);
+                    lineStart = i + 1;
+                }
+            }
+            if (lineStart == 0 && !input.hasRemaining() && !parser.isFull()) {
+                parser.receive(bytes, 0, input.position());
+                lineStart = input.position();
+            }
+            input.flip();
+            input.position(lineStart);
+            input.compact();
+            mostQueued = Math.max(mostQueued, parser.getQueued());
+            if (!parser.isFull()) {
+                return;
+            }
+            if (parser.pause()) {
+                connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+                return;
+            }
+            // the game caught up meanwhile: pass on the lines left.
+        }
+    }
+    
+    /**
+     * Read a paused connection again, now that its game has caught
+     * up, starting with the lines left in its buffer.
+     */
+    private void resume(Connection connection) {
+        if (!connection.key.isValid()) {
+            return;
+        }
+        connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_READ);
+        deliver(connection);
+    }
+    
+    /**
+     * Send as much queued output as the connection takes, using one
+     * gathering write for all queued buffers. Close the connection
+     * once everything is sent if the session has ended.
+     */
+    private void write(Connection connection) {
+        if (!connection.key.isValid()) {
+            return;
+        }
+        ByteBuffer buffer;
+        while ((buffer = connection.pending.poll()) != null) {
+            connection.writing.add(buffer);
+        }
+        try {
+            while (!connection.writing.isEmpty()) {
+                int count = 0;
+                for (ByteBuffer queued : connection.writing) {
+                    if (count == MAX_GATHER) {
+                        break;
+                    }
+                    gather[count++] = queued;
+                }
+                connection.channel.write(gather, 0, count);
+                while (!connection.writing.isEmpty() && !connection.writing.peek().hasRemaining()) {
+                    connection.recycle(connection.writing.poll());
+                }
+                if (gather[count - 1].hasRemaining()) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+        if (!connection.writing.isEmpty()) {
+            connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+        } else if (connection.closing) {
+            close(connection);
+        } else {
+            connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+    
+    /**
+     * Close the connection and tell its session the input has ended.
+     */
+    private void close(Connection connection) {
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // nothing more to do.
+        }
+        connection.parser.endOfInput();
+    }
+    
+    /**
+     * One player's connection: the channel, the buffer lines are
+     * received in and the buffers output is sent from.
+     */
+    private class Connection implements Closeable
+    {
+        // the player's channel.
+        private SocketChannel channel;
+        // the channel's registration with the selector.
+        private SelectionKey key;
+        // received bytes not yet passed on as lines.
+        private ByteBuffer input;
+        // the parser feeding the session's game.
+        private ChannelParser parser;
+        // the stream the session's game prints to.
+        private PrintStream out;
+        // flushed output, handed over by the session thread.
+        private ConcurrentLinkedQueue<ByteBuffer> pending;
+        // output being sent, only used by the selector thread.
+        private ArrayDeque<ByteBuffer> writing;
+        // buffers that have been sent, for the session thread to fill
+        // again, so output doesn't allocate a buffer every prompt.
+        private ConcurrentLinkedQueue<ByteBuffer> free;
+        // set when the session has ended.
+        private volatile boolean closing;
+        
+        /**
+         * Create the connection for "channel".
+         */
+        public Connection(SocketChannel channel) {
+            this.channel = channel;
+            input = ByteBuffer.allocate(MAX_LINE);
+            pending = new ConcurrentLinkedQueue<>();
+            writing = new ArrayDeque<>();
+            free = new ConcurrentLinkedQueue<>();
+            out = new PrintStream(new Output());
+            parser = new ChannelParser(out, this::requestRead);
+        }
+        
+        /**
+         * Queue the connection for the selector thread.
+         */
+        private void requestWrite() {
+            ready.add(this);
+            selector.wakeup();
+        }
+        
+        /**
+         * Queue the paused connection for the selector thread to
+         * read again.
+         */
+        private void requestRead() {
+            resumed.add(this);
+            selector.wakeup();
+        }
+        
+        /**
+         * Hand a buffer that has been sent back to the session
+         * thread, keeping at most MAX_GATHER of them.
+         * @param buffer The buffer.
+         */
+        private void recycle(ByteBuffer buffer) {
+            if (buffer.capacity() == CHUNK_SIZE && free.size() < MAX_GATHER) {
+                buffer.clear();
+                free.add(buffer);
+            }
+        }
+        
+        /**
+         * Called by the session when the game has ended: close the
+         * connection once all output has been sent.
+         */
+        public void close() {
+            closing = true;
+            requestWrite();
+        }
+        
+        /**
+         * Collects what the game prints into buffers and hands them
+         * to the selector thread when flushed, i.e. at every prompt.
+         */
+        private class Output extends OutputStream
+        {
+            // the buffer currently being filled.
+            private ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+            
+            public void write(int b) {
+                if (!chunk.hasRemaining()) {
+                    push();
+                }
+                chunk.put((byte) b);
+            }
+            
+            public void write(byte[] b, int off, int len) {
+                while (len > 0) {
+                    if (!chunk.hasRemaining()) {
+                        push();
+                    }
+                    int count = Math.min(len, chunk.remaining());
+                    chunk.put(b, off, count);
+                    off += count;
+                    len -= count;
+                }
+            }
+            
+            public void flush() {
+                if (chunk.position() > 0) {
+                    push();
+                }
+                requestWrite();
+            }
+            
+            /**
+             * Queue the current buffer and start filling one that has
+             * been sent, or a new one if none is free.
+             */
+            private void push() {
+                chunk.flip();
+                pending.add(chunk);
+                chunk = free.poll();
+                if (chunk == null) {
+                    chunk = ByteBuffer.allocate(CHUNK_SIZE);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.TreeMap;
+
+/**
+ * Class LineServerFloodTest - floods one connection to a LineServer
+ * with commands, sent as fast as the socket takes them, far faster
+ * than the game plays them, and checks that the lines waiting for the
+ * game never exceed ChannelParser.MAX_QUEUED and that every command
+ * is still played, none lost while the connection was paused.
+ *
+ * Run the main method with any of these options (defaults in brackets):
+ *   commands=N    number of commands sent (200000)
+ */
+public class LineServerFloodTest
+{
+    // the options, by name.
+    private static TreeMap<String, String> options = new TreeMap<>();
+
+    /**
+     * Main method for running the test.
+     * @param args Options of the form name=value.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        int commands = Integer.parseInt(options.getOrDefault("commands", "200000"));
+        StringBuilder script = new StringBuilder("Flooder\n");
+        for (int i = 0; i < commands; i++) {
+            script.append("look\n");
+        }
+        script.append("quit\n");
+
+        LineServer server = new LineServer(0);
+        Thread serving = Thread.ofPlatform().start(server);
+        long start = System.nanoTime();
+        int[] looks = new int[1];
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()))) {
+            // read everything the game prints while the commands are
+            // sent, counting the rooms it describes.
+            Thread reading = Thread.ofPlatform().start(() -> looks[0] = countExits(channel));
+            ByteBuffer out = ByteBuffer.wrap(script.toString().getBytes(StandardCharsets.UTF_8));
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            reading.join();
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        server.stop();
+        serving.join();
+
+        System.out.printf("%d commands played in %d ms, at most %d of %d lines waited for the game%n",
+                          looks[0] - 1, millis, server.getMostQueued(), ChannelParser.MAX_QUEUED);
+        if (server.getMostQueued() > ChannelParser.MAX_QUEUED) {
+            throw new IllegalStateException("More lines waited for the game than ChannelParser.MAX_QUEUED.");
+        }
+        // the game describes the first room once before any command.
+        if (looks[0] != commands + 1) {
+            throw new IllegalStateException((looks[0] - 1) + " of " + commands + " commands were played.");
+        }
+        System.out.println("The queue stayed bounded and every command was played.");
+    }
+
+    /**
+     * Read until the server closes the connection and count the
+     * room descriptions, i.e. the lines listing the exits.
+     * @param channel The connection.
+     * @return The number of room descriptions.
+     */
+    private static int countExits(SocketChannel channel) {
+        byte[] marker = "Exits:".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer in = ByteBuffer.allocate(65536);
+        int count = 0;
+        int matched = 0;
+        try {
+            while (channel.read(in) != -1) {
+                in.flip();
+                while (in.hasRemaining()) {
+                    byte b = in.get();
+                    matched = b == marker[matched] ? matched + 1 : (b == marker[0] ? 1 : 0);
+                    if (matched == marker.length) {
+                        count++;
+                        matched = 0;
+                    }
+                }
+                in.clear();
+            }
+        } catch (IOException e) {
+            // the connection was closed.
+        }
+        return count;
+    }
+}
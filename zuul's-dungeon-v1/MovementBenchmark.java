@@ -0,0 +1,97 @@
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Class MovementBenchmark - measures Game.moveCharacters on a large
+ * synthetic world with increasing numbers of threads and reports the
+ * speedup over one thread. It also checks that games seeded alike end
+ * up with every character in the same room whatever the number of
+ * threads.
+ *
+ * Run the main method with any of these options (defaults in brackets):
+ *   rooms=N       number of rooms (100000)
+ *   characters=N  number of characters (100000)
+ *   threads=LIST  comma separated thread counts (1,2,4,8)
+ *   moves=N       calls to moveCharacters per measurement (50)
+ */
+public class MovementBenchmark
+{
+    // the options, by name.
+    private static TreeMap<String, String> options = new TreeMap<>();
+
+    /**
+     * Main method for running the benchmark.
+     * @param args Options of the form name=value.
+     */
+    public static void main(String[] args) {
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        int rooms = Integer.parseInt(options.getOrDefault("rooms", "100000"));
+        int characters = Integer.parseInt(options.getOrDefault("characters", "100000"));
+        int moves = Integer.parseInt(options.getOrDefault("moves", "50"));
+        WorldTemplate world = SyntheticWorld.build(rooms, characters, 0, 0, 42);
+        System.out.printf("%d rooms, %d characters, %d cores%n", rooms, characters, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%8s %12s %8s %6s%n", "threads", "ms/move", "speedup", "same");
+
+        String expected = null;
+        double single = 0;
+        for (String count : options.getOrDefault("threads", "1,2,4,8").split(",")) {
+            int threads = Integer.parseInt(count.trim());
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            // warm up on a game of its own, then measure a freshly seeded one.
+            Game warmup = newGame(world);
+            pool.submit(() -> move(warmup, moves)).join();
+            Game game = newGame(world);
+            long start = System.nanoTime();
+            pool.submit(() -> move(game, moves)).join();
+            double millis = (System.nanoTime() - start) / 1e6 / moves;
+            pool.shutdown();
+
+            String positions = positions(game, characters);
+            if (expected == null) {
+                expected = positions;
+                single = millis;
+            }
+            System.out.printf("%8d %12.2f %8.2f %6s%n", threads, millis, single / millis, positions.equals(expected) ? "yes" : "NO");
+        }
+    }
+
+    /**
+     * Create a started game in "world" with a fixed seed.
+     * @param world The world.
+     * @return The game.
+     */
+    private static Game newGame(WorldTemplate world) {
+        PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+        Game game = new Game(new Parser(InputStream.nullInputStream(), out), out, world);
+        game.setSeed(42);
+        game.start("Player");
+        return game;
+    }
+
+    /**
+     * Move the characters of "game" "moves" times.
+     */
+    private static void move(Game game, int moves) {
+        for (int i = 0; i < moves; i++) {
+            game.moveCharacters();
+        }
+    }
+
+    /**
+     * Return a fingerprint of where every character is.
+     */
+    private static String positions(Game game, int characters) {
+        long hash = 0;
+        for (int i = 0; i < characters; i++) {
+            Character character = game.getCharacter(SyntheticWorld.characterName(i));
+            hash = hash * 31 + character.getLocation().getIndex();
+        }
+        return Long.toHexString(hash);
+    }
+}
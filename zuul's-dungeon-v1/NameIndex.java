@@ -0,0 +1,327 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class NameIndex - maps names to values without regard to case, as a
+ * TreeMap ordered by String.CASE_INSENSITIVE_ORDER would, but in a hash
+ * table. Every name is folded once, when it's put in the index (see
+ * fold), and a lookup folds the characters of the name it's given one
+ * at a time as it hashes and compares them, so looking a name up takes
+ * one pass over it, however many names there are, and never allocates.
+ *
+ * The names and values can also be listed in alphabetical order of the
+ * names; the lists are sorted when first needed and kept until the
+ * index changes.
+ *
+ * An index must only be changed by one thread at a time, and not while
+ * others read it, but once it no longer changes any number of threads
+ * may read it.
+ *
+ * @param <V> The type of the values.
+ */
+public class NameIndex<V>
+{
+    // the folded names, the names as they were put in the index and
+    // the values, in a table of a power of two slots, probed linearly.
+    // Empty slots have a null key.
+    private String[] keys;
+    private String[] names;
+    private Object[] values;
+    // the number of names in the index.
+    private int size;
+    // the names and the values in alphabetical order of the names,
+    // null until first needed and whenever the index has changed
+    // since.
+    private volatile List<String> sortedNames;
+    private volatile List<V> sortedValues;
+
+    /**
+     * Create an empty index.
+     */
+    public NameIndex() {
+        this(4);
+    }
+
+    /**
+     * Create an empty index with room for "expected" names before it
+     * has to grow.
+     * @param expected The number of names expected.
+     */
+    public NameIndex(int expected) {
+        int capacity = 4;
+        while (capacity < expected * 2) {
+            capacity *= 2;
+        }
+        keys = new String[capacity];
+        names = new String[capacity];
+        values = new Object[capacity];
+    }
+
+    /**
+     * Return "name" folded, so that names equal but for case fold to
+     * the same string: every character is upper cased and then lower
+     * cased, as String.CASE_INSENSITIVE_ORDER compares them. Names
+     * that are folded already are returned as they are.
+     * @param name The name.
+     * @return The folded name.
+     */
+    public static String fold(String name) {
+        int i = 0;
+        while (i < name.length() && fold(name.charAt(i)) == name.charAt(i)) {
+            i++;
+        }
+        if (i == name.length()) {
+            return name;
+        }
+        char[] folded = name.toCharArray();
+        for (; i < folded.length; i++) {
+            folded[i] = fold(folded[i]);
+        }
+        return new String(folded);
+    }
+
+    /**
+     * Return a character folded as fold(String) folds it.
+     * @param c The character.
+     * @return The folded character.
+     */
+    public static char fold(char c) {
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return java.lang.Character.toLowerCase(java.lang.Character.toUpperCase(c));
+    }
+
+    /**
+     * Put "value" in the index under "name", replacing the value of
+     * any name equal to it but for case.
+     * @param name The name.
+     * @param value The value.
+     * @return The value replaced, null if none.
+     */
+    public V put(String name, V value) {
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+        }
+        String key = fold(name);
+        int slot = spread(key.hashCode()) & (keys.length - 1);
+        while (keys[slot] != null) {
+            if (keys[slot].equals(key)) {
+                V replaced = valueAt(slot);
+                names[slot] = name;
+                values[slot] = value;
+                changed();
+                return replaced;
+            }
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        keys[slot] = key;
+        names[slot] = name;
+        values[slot] = value;
+        size++;
+        changed();
+        return null;
+    }
+
+    /**
+     * Return the value of "name" (case insensitive).
+     * @param name The name.
+     * @return The value, or null if the name isn't in the index.
+     */
+    public V get(CharSequence name) {
+        int slot = find(name);
+        return slot < 0 ? null : valueAt(slot);
+    }
+
+    /**
+     * Return whether "name" (case insensitive) is in the index.
+     * @param name The name.
+     * @return True if it is.
+     */
+    public boolean containsKey(CharSequence name) {
+        return find(name) >= 0;
+    }
+
+    /**
+     * Take "name" (case insensitive) out of the index.
+     * @param name The name.
+     * @return Its value, or null if it wasn't in the index.
+     */
+    public V remove(CharSequence name) {
+        int slot = find(name);
+        if (slot < 0) {
+            return null;
+        }
+        V removed = valueAt(slot);
+        // move back the names after it that would no longer be found
+        // past the emptied slot.
+        int mask = keys.length - 1;
+        int empty = slot;
+        for (int next = (slot + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+            int home = spread(keys[next].hashCode()) & mask;
+            if (((next - home) & mask) >= ((next - empty) & mask)) {
+                keys[empty] = keys[next];
+                names[empty] = names[next];
+                values[empty] = values[next];
+                empty = next;
+            }
+        }
+        keys[empty] = null;
+        names[empty] = null;
+        values[empty] = null;
+        size--;
+        changed();
+        return removed;
+    }
+
+    /**
+     * Take every name out of the index.
+     */
+    public void clear() {
+        Arrays.fill(keys, null);
+        Arrays.fill(names, null);
+        Arrays.fill(values, null);
+        size = 0;
+        changed();
+    }
+
+    /**
+     * @return The number of names in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return the names, as they were put in the index. The list is
+     * shared until the index changes, and can't be modified.
+     * @return The names, in alphabetical order (case insensitive).
+     */
+    public List<String> getNames() {
+        List<String> sorted = sortedNames;
+        if (sorted == null) {
+            String[] found = new String[size];
+            int i = 0;
+            for (String name : names) {
+                if (name != null) {
+                    found[i++] = name;
+                }
+            }
+            Arrays.sort(found, String.CASE_INSENSITIVE_ORDER);
+            sorted = Collections.unmodifiableList(Arrays.asList(found));
+            sortedNames = sorted;
+        }
+        return sorted;
+    }
+
+    /**
+     * Return the values. The list is shared until the index changes,
+     * and can't be modified.
+     * @return The values, in alphabetical order of their names (case
+     * insensitive).
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> getValues() {
+        List<V> sorted = sortedValues;
+        if (sorted == null) {
+            List<String> order = getNames();
+            Object[] found = new Object[order.size()];
+            for (int i = 0; i < found.length; i++) {
+                found[i] = get(order.get(i));
+            }
+            sorted = (List<V>) Collections.unmodifiableList(Arrays.asList(found));
+            sortedValues = sorted;
+        }
+        return sorted;
+    }
+
+    /**
+     * Return the slot holding "name" (case insensitive), hashing and
+     * comparing its characters folded.
+     * @param name The name.
+     * @return The slot, or -1 if the name isn't in the index.
+     */
+    private int find(CharSequence name) {
+        int length = name.length();
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + fold(name.charAt(i));
+        }
+        int mask = keys.length - 1;
+        for (int slot = spread(hash) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            String key = keys[slot];
+            if (key.hashCode() == hash && key.length() == length && matches(key, name)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return whether "name" folded is "key".
+     * @param key A folded name.
+     * @param name The name, of the same length.
+     * @return True if it is.
+     */
+    private static boolean matches(String key, CharSequence name) {
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != fold(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Mix the high bits of a name's hash into the low bits, which pick
+     * the slot, as HashMap does.
+     * @param hash The hash (String.hashCode of the folded name).
+     * @return The mixed hash.
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Double the table, placing every name again.
+     */
+    private void grow() {
+        String[] oldKeys = keys;
+        String[] oldNames = names;
+        Object[] oldValues = values;
+        keys = new String[oldKeys.length * 2];
+        names = new String[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = spread(oldKeys[i].hashCode()) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                names[slot] = oldNames[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Forget the sorted lists, since the index has changed.
+     */
+    private void changed() {
+        sortedNames = null;
+        sortedValues = null;
+    }
+
+    /**
+     * Return the value in "slot".
+     * @param slot The slot.
+     * @return The value.
+     */
+    @SuppressWarnings("unchecked")
+    private V valueAt(int slot) {
+        return (V) values[slot];
+    }
+}
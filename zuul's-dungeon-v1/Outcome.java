@@ -0,0 +1,14 @@
+/**
+ * How a game has ended so far, as returned by Game.getOutcome.
+ */
+public enum Outcome
+{
+    // the game is still being played.
+    PLAYING,
+    // the player left the dungeon.
+    WON,
+    // the player was killed.
+    DIED,
+    // the player gave up.
+    QUIT;
+}
@@ -1,5 +1,6 @@
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.util.Scanner;
-import java.util.StringTokenizer;
 
 /** 
  * This parser reads user input and tries to interpret it as an "Adventure"
@@ -16,56 +17,138 @@ import java.util.StringTokenizer;
  */
 public class Parser
 {
-    // holds all valid command words
-    private CommandWords commands;
+    // holds all valid command words, shared by every parser.
+    private static final CommandWords WORDS = new CommandWords();
     // source of command input
     private Scanner reader;
+    // where the prompt is printed
+    private PrintStream out;
 
     /**
      * Create a parser to read from the terminal window.
      */
     public Parser() 
     {
-        commands = new CommandWords();
-        reader = new Scanner(System.in);
+        this(System.in, System.out);
     }
     
+    /**
+     * Create a parser reading from "in" and printing its prompt to "out".
+     * Used by the server to give every session its own input channel.
+     * @param in The source of command input.
+     * @param out Where the prompt is printed.
+     */
+    public Parser(InputStream in, PrintStream out)
+    {
+        reader = new Scanner(in);
+        this.out = out;
+    }
+    
+    /**
+     * Create a parser without an input stream of its own, for
+     * subclasses that receive their input some other way (see
+     * ChannelParser).
+     * @param out Where the prompt is printed.
+     */
+    protected Parser(PrintStream out)
+    {
+        this.out = out;
+    }
+    
+    /**
+     * Print the prompt and push all pending output to the player,
+     * since the next thing the game does is wait for input.
+     */
+    protected void prompt() {
+        out.print("> ");     // print prompt
+        out.flush();
+    }
+    
+    /**
+     * Return the next line of input, or null if the input has ended
+     * (e.g. the player disconnected).
+     * @return The next line of input.
+     */
     public String getInput() {
+        if (!reader.hasNextLine()) {
+            return null;
+        }
         return reader.nextLine();
     }
 
     /**
-     * @return The next command from the user.
+     * @return The next command from the user, or null if the input
+     * has ended.
      */
     public Command getCommand() 
     {
-        String inputLine;   // will hold the full input line
-        String word1 = null;
-        String word2 = null;
-
-        System.out.print("> ");     // print prompt
-
-        inputLine = reader.nextLine();
+        prompt();
 
-        // Find up to two words on the line.
-        Scanner tokenizer = new Scanner(inputLine);
-        if(tokenizer.hasNext()) {
-            word1 = tokenizer.next().toLowerCase();
-            if(tokenizer.hasNext()) {
-                word2 = inputLine.substring(word1.length() + 1).toLowerCase();
-            }
+        String inputLine = getInput();
+        if (inputLine == null) {
+            return null;
         }
-
-        // Now check whether this word is known. If so, create a command
-        // with it. If not, or if the player entered "" (null), create a
-        // "null" command (for unknown command).
-        if (word1 == null || !commands.isCommand(word1)) {
-            return new Command(null, word2);
+        return parse(inputLine);
+    }
+    
+    /**
+     * Interpret a line as a two word command: the first word is the
+     * command word and the rest of the line is the second word.
+     * @param inputLine The line to interpret.
+     * @return The command. If the first word is not known, or the
+     * line is empty, the command word is UNKNOWN.
+     */
+    public Command parse(String inputLine)
+    {
+        return tokenize(inputLine, 0, inputLine.length());
+    }
+    
+    /**
+     * Interpret the characters of "line" from "start" to "end" as a
+     * two word command, as parse does. The line is tokenized in place,
+     * without a Scanner, and the command word is resolved to a
+     * CommandWord without building a String; only the second word is
+     * taken out of the line, with subSequence. Every parser tokenizes
+     * its lines here, whether they're Strings or still in a receive
+     * buffer (see ChannelParser).
+     * @param line The text holding the line.
+     * @param start The index of the line's first character.
+     * @param end The index after the line's last character.
+     * @return The command. If the first word is not known, or the
+     * line is empty, the command word is UNKNOWN.
+     */
+    static Command tokenize(CharSequence line, int start, int end)
+    {
+        while (start < end && isWhitespace(line.charAt(start))) {
+            start++;
+        }
+        int wordEnd = start;
+        while (wordEnd < end && !isWhitespace(line.charAt(wordEnd))) {
+            wordEnd++;
+        }
+        CommandWord word1 = WORDS.getCommandWord(line, start, wordEnd);
+        String word2 = null;
+        
+        // The second word is everything after the separator following the
+        // first word, as long as there's something more than whitespace.
+        int rest = wordEnd;
+        while (rest < end && isWhitespace(line.charAt(rest))) {
+            rest++;
+        }
+        if (rest < end) {
+            word2 = line.subSequence(wordEnd + 1, end).toString().toLowerCase();
         }
         return new Command(word1, word2);
     }
     
+    /**
+     * Check whether the character is a space, tab or line break.
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '\f';
+    }
+    
     public String showCommands() {
-        return commands.getCommandList();
+        return WORDS.getCommandList();
     }
 }
@@ -1,4 +1,6 @@
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Objects;
 
 /**
  * Class Quest - represents a quest.
@@ -7,9 +9,11 @@ public class Quest
 {
     // the name of the quest (only for internal purposes).
     private String name;
-    // a list with the boolean value describing whether the
-    // part is completed. Index 1 is for part 1 and so on.
-    private ArrayList<Boolean> parts;
+    // one bit per part, set when the part is completed.
+    // Index 1 is for part 1 and so on.
+    private BitSet parts;
+    // the number of parts, including the total quest.
+    private int partCount;
     
     /**
      * Create a quest with name "name".
@@ -17,16 +21,16 @@ public class Quest
      */
     public Quest(String name) {
         this.name = name;
-        parts = new ArrayList<Boolean>();
+        parts = new BitSet();
         // the first index is for the total quest.
-        parts.add(false);
+        partCount = 1;
     }
     
     /**
      * Adds a part to the quest.
      */
     public void addPart() {
-        parts.add(false);
+        partCount++;
     }
     
     /**
@@ -35,7 +39,23 @@ public class Quest
      * @return The status of the part (finished or not).
      */
     public boolean getPart(int number) {
-        return parts.get(number);
+        return parts.get(Objects.checkIndex(number, partCount));
+    }
+    
+    /**
+     * Return the name of the quest.
+     * @return The name.
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Return the number of parts, including the total quest.
+     * @return The number of parts.
+     */
+    public int getPartCount() {
+        return partCount;
     }
     
     /**
@@ -43,6 +63,40 @@ public class Quest
      * @param number The number of the part.
      */
     public void completedPart(int number) {
-        parts.set(number, true);
+        parts.set(Objects.checkIndex(number, partCount));
+    }
+    
+    /**
+     * Write the quest to a snapshot (see Snapshot).
+     * @param out The snapshot being written.
+     */
+    public void writeSnapshot(Snapshot.Writer out) {
+        out.writeString(name);
+        out.writeNumber(partCount);
+        long[] words = parts.toLongArray();
+        out.writeNumber(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+    
+    /**
+     * Read a quest written by writeSnapshot.
+     * @param in The snapshot being read.
+     * @return The quest.
+     * @throws IOException If the snapshot is damaged.
+     */
+    public static Quest readSnapshot(Snapshot.Reader in) throws IOException {
+        Quest quest = new Quest(in.readName());
+        quest.partCount = in.readNumber();
+        if (quest.partCount < 0) {
+            throw new IOException("The snapshot is damaged: a quest of " + quest.partCount + " parts.");
+        }
+        long[] words = new long[in.readCount(8)];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+        }
+        quest.parts = BitSet.valueOf(words);
+        return quest;
     }
 }
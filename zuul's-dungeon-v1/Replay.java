@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Class Replay - plays recorded games (see CommandLog) again,
+ * headless and as fast as possible, and reports how many commands
+ * per second the game handles. Recordings of real sessions thus
+ * double as a throughput benchmark.
+ *
+ * Every round replays all the recordings and prints a checksum of
+ * their output. A game replayed with the same seed and commands
+ * prints exactly the same thing, so the checksum must be the same
+ * in every round; the first round also serves as the warmup.
+ *
+ * Run the main method with any of these options (defaults in brackets):
+ *   log=PATH      a log file, or a directory of *.log files (required)
+ *   world=FILE    the world the games were played in (the standard world)
+ *   rounds=N      number of times the recordings are replayed (5)
+ */
+public class Replay
+{
+    // the options, by name.
+    private static TreeMap<String, String> options = new TreeMap<>();
+
+    /**
+     * Main method for running the replay.
+     * @param args Options of the form name=value.
+     */
+    public static void main(String[] args) throws IOException {
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        if (!options.containsKey("log")) {
+            System.err.println("Usage: java Replay log=PATH [world=FILE] [rounds=N]");
+            return;
+        }
+        WorldTemplate world = options.containsKey("world") ? WorldLoader.load(Paths.get(options.get("world"))) : Game.getStandardWorld();
+        List<List<Consumer<Game>>> recordings = new ArrayList<>();
+        int commandCount = 0;
+        for (Path file : logFiles(Paths.get(options.get("log")))) {
+            List<Consumer<Game>> recording = read(file);
+            recordings.add(recording);
+            commandCount += recording.size();
+        }
+        System.out.printf("%d recordings, %d entries%n", recordings.size(), commandCount);
+        System.out.printf("%6s %12s %14s %10s%n", "round", "ms", "entries/s", "checksum");
+
+        long expected = -1;
+        boolean same = true;
+        int rounds = Integer.parseInt(options.getOrDefault("rounds", "5"));
+        for (int round = 1; round <= rounds; round++) {
+            CRC32 checksum = new CRC32();
+            PrintStream out = new PrintStream(new CheckedOutputStream(OutputStream.nullOutputStream(), checksum));
+            long start = System.nanoTime();
+            for (List<Consumer<Game>> recording : recordings) {
+                replay(recording, world, out);
+            }
+            out.flush();
+            long nanos = System.nanoTime() - start;
+            System.out.printf("%6d %12.2f %14.0f %10x%n", round, nanos / 1e6, commandCount / (nanos / 1e9), checksum.getValue());
+            if (expected == -1) {
+                expected = checksum.getValue();
+            }
+            same &= checksum.getValue() == expected;
+        }
+        System.out.println(same ? "Every round printed the same output." : "The rounds printed different output!");
+    }
+
+    /**
+     * Return the log files at "path": the file itself, or all *.log
+     * files of the directory in name order.
+     * @param path A file or directory.
+     * @return The log files.
+     */
+    private static List<Path> logFiles(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return List.of(path);
+        }
+        try (Stream<Path> files = Files.list(path)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    /**
+     * Read the log in "file" and turn each entry into the call that
+     * plays it again. Commands are parsed here, once, so that the
+     * replay only measures the game.
+     * @param file The log file.
+     * @return The calls, in order.
+     */
+    public static List<Consumer<Game>> read(Path file) throws IOException {
+        return recording(CommandLog.read(file));
+    }
+
+    /**
+     * Turn the entries of a log into the calls that play them again.
+     * @param entries The entries, as read by CommandLog.
+     * @return The calls, in order.
+     */
+    public static List<Consumer<Game>> recording(List<String[]> entries) {
+        Parser parser = new Parser(InputStream.nullInputStream(), new PrintStream(OutputStream.nullOutputStream()));
+        List<Consumer<Game>> recording = new ArrayList<>();
+        for (String[] entry : entries) {
+            String argument = entry[1];
+            switch (entry[0]) {
+                case "seed":
+                    long seed = Long.parseLong(argument);
+                    recording.add(game -> game.setSeed(seed));
+                    break;
+                case "simulated":
+                    boolean simulated = Boolean.parseBoolean(argument);
+                    recording.add(game -> game.setSimulated(simulated));
+                    break;
+                case "start":
+                    recording.add(game -> game.start(argument));
+                    break;
+                case "command":
+                    Command command = parser.parse(argument);
+                    recording.add(game -> game.processCommand(command));
+                    break;
+                case "snapshot":
+                    // the game is played on from where it was.
+                    break;
+                default:
+                    recording.add(Game::tick);
+            }
+        }
+        return recording;
+    }
+
+    /**
+     * Play a recording again in a new game.
+     * @param recording The calls read from a log.
+     * @param world The world the game was played in.
+     * @param out Where the game's output is printed.
+     * @return The game, as it was left at the end of the recording.
+     */
+    public static Game replay(List<Consumer<Game>> recording, WorldTemplate world, PrintStream out) {
+        Game game = new Game(new Parser(InputStream.nullInputStream(), out), out, world);
+        for (Consumer<Game> call : recording) {
+            call.accept(game);
+        }
+        return game;
+    }
+}
@@ -1,11 +1,28 @@
-import java.util.Set;
-import java.util.TreeMap;
-import java.util.Map;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Class Room - represents a room and keeps
  * track of the items and exits in it.
+ *
+ * Rooms belong to a World and start out as they are in its template.
+ * The exits are only created when they're first needed, and the items
+ * are only copied from the template when they first change; until then
+ * the room reads them from the template.
+ *
+ * The text describing the room's items and exits is rendered once and
+ * kept until the items or exits change, so looking around a room that
+ * hasn't changed builds no strings. The characters in the room aren't
+ * part of that text, since they come and go far more often.
+ *
+ * The items are kept in an ItemContainer, so they may be taken and
+ * dropped by several threads at once, as the players of a SharedWorld
+ * do; the text listing them is kept with the container's version it
+ * was rendered from. Everything else about a room must only be changed
+ * by one thread at a time, though exits that never change may be read
+ * by several.
  */
 public class Room 
 {
@@ -13,24 +30,41 @@ public class Room
     private String name;
     // the description of the room (only for display purposes).
     private String description;
-    // a map keeping track of which exits belong to the room.
-    private TreeMap<String, Exit> exits;
-    // a map keeping track of what items are in the room.
-    private TreeMap<String, Item> items;
+    // the world the room belongs to, and its index in the template.
+    private World world;
+    private int index;
+    // an index keeping track of which exits belong to the room,
+    // by direction. Null until the exits are first needed.
+    private volatile NameIndex<Exit> exits;
+    // the items in the room, null while they're still the template's.
+    private volatile ItemContainer items;
+    // the characters in the room, sorted by name. Null until the
+    // first character enters.
+    private ArrayList<Character> occupants;
+    // the rooms the exits lead to, in the order of the exits. Null
+    // until first needed and whenever the exits have changed since.
+    private volatile Room[] neighbours;
+    // the rendered lists of items and exits and the long description.
+    // Null until first needed and whenever the exits have changed
+    // since; the lists of items are kept with the version of the items
+    // they were rendered from.
+    private volatile Rendered itemsString;
+    private String exitString;
+    private volatile Rendered longDescription;
 
     /**
-     * Create a room named "name" and described "description". 
-     * The name is only used internally by the program. Initially,
-     * it has no exits. "description" is something like "a kitchen" or
-     * "an open court yard".
-     * @param name The room's name.
-     * @param description The room's description.
+     * Create room number "index" of the world's template, named
+     * and described as in the template. The name is only used
+     * internally by the program. "description" is something like
+     * "a kitchen" or "an open court yard".
+     * @param world The world the room belongs to.
+     * @param index The room's index in the template.
      */
-    public Room(String name, String description) {
-        this.name = name;
-        this.description = description;
-        exits = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-        items = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    public Room(World world, int index) {
+        this.world = world;
+        this.index = index;
+        name = world.getTemplate().getRoomName(index);
+        description = world.getTemplate().getRoomDescription(index);
     }
     
     /**
@@ -42,7 +76,10 @@ public class Room
      */
     public void setExit(String direction, Room neighbour, boolean unlocked, Item key) {
         Exit exit = new Exit(direction, neighbour, unlocked, key);
-        exits.put(direction, exit);
+        getExits().put(direction, exit);
+        neighbours = null;
+        exitString = null;
+        longDescription = null;
     }
     
     /**
@@ -50,7 +87,7 @@ public class Room
      * @param item The item to be placed.
      */
     public void addItem(Item item) {
-        items.put(item.getName(), item);
+        getItemContainer().put(item);
     }
     
     /**
@@ -58,7 +95,7 @@ public class Room
      * @param name The name of the item to be removed.
      */
     public void removeItem(String name) {
-        items.remove(name);
+        getItemContainer().remove(name);
     }
     
     /**
@@ -68,7 +105,77 @@ public class Room
      * @return The item whose name is "name".
      */
     public Item getItem(String name) {
-        return items.get(name);
+        ItemContainer current = items;
+        if (current != null) {
+            return current.get(name);
+        }
+        WorldTemplate template = world.getTemplate();
+        for (int i = template.getRoomItemStart(index); i < template.getRoomItemStart(index + 1); i++) {
+            Item item = template.getItem(template.getRoomItem(i));
+            if (item.getName().equalsIgnoreCase(name)) {
+                return item;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Add a character to the characters in this room. Only
+     * called by Character, when the character moves.
+     * @param character The character entering.
+     */
+    public void addOccupant(Character character) {
+        if (occupants == null) {
+            occupants = new ArrayList<>(4);
+        }
+        int i = occupants.size();
+        while (i > 0 && String.CASE_INSENSITIVE_ORDER.compare(occupants.get(i - 1).getName(), character.getName()) > 0) {
+            i--;
+        }
+        occupants.add(i, character);
+    }
+    
+    /**
+     * Remove a character from the characters in this room.
+     * Only called by Character, when the character moves.
+     * @param character The character leaving.
+     */
+    public void removeOccupant(Character character) {
+        for (int i = 0; i < occupants.size(); i++) {
+            if (occupants.get(i) == character) {
+                occupants.remove(i);
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Return the characters in this room, including the
+     * player, sorted by name. The list must not be modified.
+     * @return The characters in this room.
+     */
+    public List<Character> getOccupants() {
+        if (occupants == null) {
+            return Collections.emptyList();
+        }
+        return occupants;
+    }
+    
+    /**
+     * Return the first character in this room by name,
+     * leaving out "except" (usually the player).
+     * @param except The character to leave out.
+     * @return The character, or null if there's nobody else.
+     */
+    public Character getFirstOccupant(Character except) {
+        if (occupants != null) {
+            for (Character character : occupants) {
+                if (character != except) {
+                    return character;
+                }
+            }
+        }
+        return null;
     }
     
     /**
@@ -77,17 +184,50 @@ public class Room
      * @return The exit in specified direction.
      */
     public Exit getExit(String direction) {
-        return exits.get(direction);
+        return getExits().get(direction);
+    }
+    
+    /**
+     * Return the directions of the room's exits.
+     * @return The directions, in alphabetical order.
+     */
+    public List<String> getDirections() {
+        return getExits().getNames();
+    }
+    
+    /**
+     * Return the names of the items in the room.
+     * @return The names, in alphabetical order.
+     */
+    public List<String> getItemNames() {
+        ItemContainer current = items;
+        if (current == null) {
+            WorldTemplate template = world.getTemplate();
+            List<String> names = new ArrayList<>();
+            for (int i = template.getRoomItemStart(index); i < template.getRoomItemStart(index + 1); i++) {
+                names.add(template.getItem(template.getRoomItem(i)).getName());
+            }
+            return names;
+        }
+        return current.getNames();
     }
     
     /**
-     * Return all neighbours.
-     * @return The neighbours as an ArrayList.
+     * Return all neighbours, one for every exit, in the order of
+     * the exits' directions. An exit leading nowhere gives a null
+     * neighbour. The array is shared by all callers until the
+     * exits change, so it must not be modified.
+     * @return The neighbours.
      */
-    public ArrayList<Room> getNeighbours() {
-        ArrayList<Room> neighbours = new ArrayList<Room>();
-        for (Exit exit : exits.values()) {
-            neighbours.add(exit.getNeighbour());
+    public Room[] getNeighbours() {
+        if (neighbours == null) {
+            List<Exit> current = getExits().getValues();
+            Room[] found = new Room[current.size()];
+            int i = 0;
+            for (Exit exit : current) {
+                found[i++] = exit.getNeighbour();
+            }
+            neighbours = found;
         }
         return neighbours;
     }
@@ -97,9 +237,12 @@ public class Room
      * @return A string listing all exits.
      */
     public String getExitString() {
-        String exitString = "Exits: ";
-        for (String key : exits.keySet()) {
-            exitString += key + " ";
+        if (exitString == null) {
+            StringBuilder text = new StringBuilder("Exits: ");
+            for (String key : getExits().getNames()) {
+                text.append(key).append(' ');
+            }
+            exitString = text.toString();
         }
         return exitString;
     }
@@ -109,15 +252,75 @@ public class Room
      * @return A string listing all items.
      */
     public String getItemsString() {
-        if (items.isEmpty()) {
-            return "The room doesn't seem to contain anything of interest.";
+        int version = getItemsVersion();
+        Rendered rendered = itemsString;
+        if (rendered == null || rendered.version != version) {
+            List<String> names = getItemNames();
+            if (names.isEmpty()) {
+                rendered = new Rendered(version, "The room doesn't seem to contain anything of interest.");
+            } else {
+                rendered = new Rendered(version, "Items of interest: " + String.join("; ", names) + ".");
+            }
+            itemsString = rendered;
+        }
+        return rendered.text;
+    }
+    
+    /**
+     * Return the version of the items (see ItemContainer), -1 while
+     * they're still the template's.
+     * @return The version.
+     */
+    private int getItemsVersion() {
+        ItemContainer current = items;
+        return current == null ? -1 : current.getVersion();
+    }
+    
+    /**
+     * Return the exits, creating them from the template
+     * if this is the first time they're needed.
+     * @return The exits by direction.
+     */
+    private NameIndex<Exit> getExits() {
+        NameIndex<Exit> current = exits;
+        if (current == null) {
+            // filled in before it's published, so a thread reading the
+            // exits at the same time never sees them half created.
+            WorldTemplate template = world.getTemplate();
+            current = new NameIndex<>(template.getExitStart(index + 1) - template.getExitStart(index));
+            for (int e = template.getExitStart(index); e < template.getExitStart(index + 1); e++) {
+                int key = template.getExitKey(e);
+                Exit exit = new Exit(template.getExitDirection(e), world, template.getExitTarget(e), template.getExitUnlocked(e), key == WorldTemplate.NONE ? null : template.getItem(key));
+                current.put(exit.getDirection(), exit);
+            }
+            exits = current;
         }
-        String itemsString = "Items of interest: ";
-        for (String key : items.keySet()) {
-            itemsString += key + "; ";
+        return current;
+    }
+    
+    /**
+     * Return the items, copying them from the template
+     * if this is the first time they change. Items may be
+     * moved in and out of the container by several threads
+     * at once (see ItemContainer.moveTo).
+     * @return The items.
+     */
+    public ItemContainer getItemContainer() {
+        ItemContainer current = items;
+        if (current == null) {
+            synchronized (this) {
+                current = items;
+                if (current == null) {
+                    current = new ItemContainer();
+                    WorldTemplate template = world.getTemplate();
+                    for (int i = template.getRoomItemStart(index); i < template.getRoomItemStart(index + 1); i++) {
+                        current.put(template.getItem(template.getRoomItem(i)));
+                    }
+                    items = current;
+                }
+            }
         }
-        itemsString = itemsString.substring(0, itemsString.length()-2) + ".";
-        return itemsString;
+        return current;
     }
     
     /**
@@ -127,14 +330,30 @@ public class Room
      * return null.
      */
     public Exit lookForExit(Item key) {
-        for (Map.Entry<String, Exit> exit : exits.entrySet()) {
-            if (key == exit.getValue().getKey()) {
-                return exit.getValue();
+        for (Exit exit : getExits().getValues()) {
+            if (key == exit.getKey()) {
+                return exit;
             }
         }
         return null;
     }
     
+    /**
+     * Return the world the room belongs to.
+     * @return The world.
+     */
+    public World getWorld() {
+        return world;
+    }
+    
+    /**
+     * Return the room's index in the world's template.
+     * @return The room's index.
+     */
+    public int getIndex() {
+        return index;
+    }
+    
     /**
      * Return the name of the room.
      * @return The name of the room.
@@ -158,6 +377,127 @@ public class Room
      * @return A description of the room, including exits.
      */
     public String getLongDescription() {
-        return "You are " + description + "\n" + getItemsString() + "\n" + getExitString();
+        int version = getItemsVersion();
+        Rendered rendered = longDescription;
+        if (rendered == null || rendered.version != version) {
+            rendered = new Rendered(version, "You are " + description + "\n" + getItemsString() + "\n" + getExitString());
+            longDescription = rendered;
+        }
+        return rendered.text;
+    }
+    
+    /**
+     * Return whether the room's items or exits differ from the
+     * template's, i.e. whether it has to be in a snapshot.
+     * @return True if the room has changed.
+     */
+    public boolean hasChanged() {
+        return items != null || exitsChanged();
+    }
+    
+    /**
+     * Return whether the exits differ from the template's.
+     */
+    private boolean exitsChanged() {
+        if (exits == null) {
+            return false;
+        }
+        WorldTemplate template = world.getTemplate();
+        int start = template.getExitStart(index);
+        int end = template.getExitStart(index + 1);
+        if (exits.size() != end - start) {
+            return true;
+        }
+        for (int e = start; e < end; e++) {
+            Exit exit = exits.get(template.getExitDirection(e));
+            int key = template.getExitKey(e);
+            if (exit == null || exit.getTargetIndex() != template.getExitTarget(e) || exit.getUnlocked() != template.getExitUnlocked(e)
+                    || exit.getKey() != (key == WorldTemplate.NONE ? null : template.getItem(key))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Write what differs from the template, the items and the exits,
+     * to a snapshot (see Snapshot).
+     * @param out The snapshot being written.
+     */
+    public void writeSnapshot(Snapshot.Writer out) {
+        WorldTemplate template = world.getTemplate();
+        out.writeNumber(index);
+        ItemContainer current = items;
+        out.writeBoolean(current != null);
+        if (current != null) {
+            List<Item> sorted = current.getItems();
+            out.writeNumber(sorted.size());
+            for (Item item : sorted) {
+                out.writeNumber(template.getItemIndex(item.getName()));
+            }
+        }
+        boolean exitsChanged = exitsChanged();
+        out.writeBoolean(exitsChanged);
+        if (exitsChanged) {
+            out.writeNumber(exits.size());
+            for (Exit exit : exits.getValues()) {
+                out.writeString(exit.getDirection());
+                out.writeNumber(exit.getTargetIndex());
+                out.writeBoolean(exit.getUnlocked());
+                out.writeNumber(exit.getKey() == null ? WorldTemplate.NONE : template.getItemIndex(exit.getKey().getName()));
+            }
+        }
+    }
+    
+    /**
+     * Read what writeSnapshot wrote after the room's index.
+     * @param in The snapshot being read.
+     * @throws IOException If the snapshot is damaged.
+     */
+    public void readSnapshot(Snapshot.Reader in) throws IOException {
+        WorldTemplate template = world.getTemplate();
+        if (in.readBoolean()) {
+            ItemContainer read = new ItemContainer();
+            for (int count = in.readCount(1); count > 0; count--) {
+                read.put(template.getItem(in.readIndex(template.getItemCount())));
+            }
+            items = read;
+        }
+        if (in.readBoolean()) {
+            NameIndex<Exit> read = new NameIndex<>();
+            for (int count = in.readCount(4); count > 0; count--) {
+                String direction = in.readName();
+                int target = in.readIndexOrNone(template.getRoomCount());
+                boolean unlocked = in.readBoolean();
+                int key = in.readIndexOrNone(template.getItemCount());
+                read.put(direction, new Exit(direction, world, target, unlocked, key == WorldTemplate.NONE ? null : template.getItem(key)));
+            }
+            exits = read;
+        }
+        neighbours = null;
+        itemsString = null;
+        exitString = null;
+        longDescription = null;
+    }
+    
+    /**
+     * Text rendered from the items, and the version of the items
+     * it was rendered from.
+     */
+    private static class Rendered
+    {
+        // the version of the items.
+        private int version;
+        // the text.
+        private String text;
+        
+        /**
+         * @param version The version of the items.
+         * @param text The text.
+         */
+        public Rendered(int version, String text) {
+            this.version = version;
+            this.text = text;
+        }
     }
 }
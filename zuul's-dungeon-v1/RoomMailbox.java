@@ -0,0 +1,116 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Class RoomMailbox - runs the tasks of one room of a SharedWorld, one
+ * at a time and in the order they were posted, on threads borrowed
+ * from a shared executor. Since nothing else touches the room, its
+ * items, its occupants and their inventories while a task runs, the
+ * tasks need no locks, and rooms with nothing posted take no threads.
+ *
+ * A mailbox runs at most BATCH_SIZE tasks before handing its thread
+ * back, so a busy room can't starve the others. The time from posting
+ * a task until it has run is recorded in a LatencyHistogram.
+ */
+public class RoomMailbox implements Executor
+{
+    // the most tasks run before the thread is handed back.
+    private static final int BATCH_SIZE = 64;
+
+    // the index of the room in its world.
+    private int room;
+    // lends the threads the tasks run on.
+    private Executor executor;
+    // the tasks posted and not yet run.
+    private ConcurrentLinkedQueue<Task> tasks;
+    // true while the mailbox has a thread or is waiting for one.
+    private AtomicBoolean scheduled;
+    // the time from posting to the end of each task.
+    private LatencyHistogram latencies;
+
+    /**
+     * Create an empty mailbox for room number "room".
+     * @param room The index of the room.
+     * @param executor Lends the threads the tasks run on.
+     */
+    public RoomMailbox(int room, Executor executor) {
+        this.room = room;
+        this.executor = executor;
+        tasks = new ConcurrentLinkedQueue<>();
+        scheduled = new AtomicBoolean();
+        latencies = new LatencyHistogram();
+    }
+
+    /**
+     * Post a task, to be run after those posted before it.
+     * @param task The task.
+     */
+    public void execute(Runnable task) {
+        tasks.add(new Task(task, System.nanoTime()));
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * Run up to BATCH_SIZE tasks, then hand the thread back, asking
+     * for another one if tasks are left.
+     */
+    private void drain() {
+        try {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                Task task = tasks.poll();
+                if (task == null) {
+                    break;
+                }
+                try {
+                    task.runnable.run();
+                } finally {
+                    latencies.record(System.nanoTime() - task.posted);
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            // a task posted after the last poll may have found the
+            // mailbox still scheduled.
+            if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+    }
+
+    /**
+     * @return The index of the room.
+     */
+    public int getRoom() {
+        return room;
+    }
+
+    /**
+     * @return The time from posting to the end of each task so far.
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * A posted task, and when it was posted.
+     */
+    private static class Task
+    {
+        // the task.
+        private Runnable runnable;
+        // when it was posted (System.nanoTime).
+        private long posted;
+
+        /**
+         * @param runnable The task.
+         * @param posted When it was posted.
+         */
+        public Task(Runnable runnable, long posted) {
+            this.runnable = runnable;
+            this.posted = posted;
+        }
+    }
+}
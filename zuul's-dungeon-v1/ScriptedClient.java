@@ -0,0 +1,84 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class ScriptedClient - plays scripted sessions against a server
+ * (LineServer or GameServer) to test it on localhost. Every client
+ * sends the whole script, one command per line, and reads until
+ * the server closes the connection; the transcript of the first
+ * client is printed.
+ * 
+ * Usage: ScriptedClient host port script-file [clients]
+ * The script should end the game, e.g. with "quit".
+ */
+public class ScriptedClient
+{
+    /**
+     * Main method for running the clients.
+     * @param args Host, port, script file and optionally the number
+     * of concurrent clients.
+     */
+    public static void main(String[] args) throws Exception {
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        byte[] script = Files.readAllBytes(Paths.get(args[2]));
+        int clients = 1;
+        if (args.length > 3) {
+            clients = Integer.parseInt(args[3]);
+        }
+        
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        AtomicInteger completed = new AtomicInteger();
+        ArrayList<Thread> threads = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            final boolean print = i == 0;
+            threads.add(Thread.ofVirtual().start(() -> {
+                try {
+                    String transcript = play(address, script);
+                    if (print) {
+                        System.out.println(transcript);
+                    }
+                    completed.incrementAndGet();
+                } catch (IOException e) {
+                    System.err.println("Client failed: " + e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        System.out.println(completed.get() + " of " + clients + " clients completed in " + millis + " ms.");
+    }
+    
+    /**
+     * Play one scripted session.
+     * @param address The server's address.
+     * @param script The commands to send.
+     * @return Everything the server sent.
+     */
+    public static String play(InetSocketAddress address, byte[] script) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            ByteBuffer out = ByteBuffer.wrap(script);
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            StringBuilder transcript = new StringBuilder();
+            ByteBuffer in = ByteBuffer.allocate(8192);
+            while (channel.read(in) != -1) {
+                in.flip();
+                transcript.append(StandardCharsets.UTF_8.decode(in));
+                in.clear();
+            }
+            return transcript.toString();
+        }
+    }
+}
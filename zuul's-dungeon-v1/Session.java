@@ -0,0 +1,288 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Class Session - represents one player's game together with
+ * the channel the player's commands come from and the channel
+ * the game's output goes to. Sessions share no state with each
+ * other, so any number of them may run in the same JVM.
+ *
+ * While the player is idle, a session may be hibernated (see
+ * Hibernation): its game is then only kept as a snapshot, and
+ * restored when the player's next command comes in.
+ */
+public class Session implements Runnable
+{
+    // the id of the session, unique within its server.
+    private int id;
+    // the session's game, holding its own rooms, items,
+    // characters and quests. Null while the session is hibernated.
+    private Game game;
+    // the source of the player's commands.
+    private Parser parser;
+    // renders the game's events to "out", kept for the games
+    // restored from snapshots.
+    private TextSink sink;
+    // the world the game is played in.
+    private WorldTemplate world;
+    // where the game's output is printed.
+    private PrintStream out;
+    // the connection to close when the game ends (null if
+    // there's nothing to close).
+    private Closeable connection;
+    // hibernates the session while the player is idle, null if
+    // it's never hibernated.
+    private Hibernation hibernation;
+    // the log of the game while it's hibernated, null if none.
+    private CommandLog log;
+    // when the player's latest command came in (System.nanoTime).
+    private volatile long lastActive;
+    // true while a command is processed, and once the session has
+    // ended; the session isn't hibernated then.
+    private boolean busy;
+    private boolean ended;
+
+    /**
+     * Create a session reading commands from "in" and printing
+     * to "out".
+     * @param id The session's id.
+     * @param in The source of the player's commands.
+     * @param out Where the game's output is printed.
+     * @param connection The connection to close when the game
+     * ends, null if none.
+     */
+    public Session(int id, InputStream in, PrintStream out, Closeable connection) {
+        this(id, new Parser(in, out), out, connection);
+    }
+    
+    /**
+     * Create a session reading commands from "parser" and printing
+     * to "out".
+     * @param id The session's id.
+     * @param parser The source of the player's commands.
+     * @param out Where the game's output is printed.
+     * @param connection The connection to close when the game
+     * ends, null if none.
+     */
+    public Session(int id, Parser parser, PrintStream out, Closeable connection) {
+        this.id = id;
+        this.parser = parser;
+        this.out = out;
+        this.connection = connection;
+        sink = new TextSink(out);
+        world = Game.getStandardWorld();
+        game = new Game(parser, sink, world);
+        lastActive = System.nanoTime();
+    }
+    
+    /**
+     * Play the game until the player quits, dies, wins or
+     * disconnects, then close the connection.
+     */
+    public void run() {
+        try {
+            if (!game.begin()) {
+                return;
+            }
+            while (true) {
+                Command command = parser.getCommand();
+                if (command == null || !process(command)) {
+                    return;
+                }
+            }
+        } finally {
+            if (hibernation != null) {
+                hibernation.remove(this);
+            }
+            out.flush();
+            close();
+        }
+    }
+    
+    /**
+     * Process one command. The game is only referred to from here,
+     * not from run, so that it can be hibernated and collected while
+     * run waits for the next command.
+     * @param command The command.
+     * @return False if the game is over.
+     */
+    private boolean process(Command command) {
+        Game playing = enter();
+        try {
+            playing.processCommand(command);
+        } finally {
+            leave();
+        }
+        return !playing.isFinished();
+    }
+    
+    /**
+     * Get the game ready for a command, rehydrating it if it's
+     * hibernated, and keep it from being hibernated meanwhile.
+     * @return The game.
+     */
+    private Game enter() {
+        synchronized (this) {
+            busy = true;
+            lastActive = System.nanoTime();
+        }
+        if (hibernation == null) {
+            return game;
+        }
+        try {
+            return hibernation.wake(this);
+        } catch (IOException e) {
+            leave();
+            throw new UncheckedIOException("Session " + id + "'s game couldn't be restored.", e);
+        }
+    }
+    
+    /**
+     * Let the game be hibernated again once it's been idle.
+     */
+    private synchronized void leave() {
+        busy = false;
+        lastActive = System.nanoTime();
+    }
+    
+    /**
+     * Hibernate the session: write its game to "store" and drop it.
+     * Does nothing if the session is busy, hasn't started, has ended
+     * or is hibernated already.
+     * @param store Where the game's snapshot is kept.
+     * @param simulation The simulation ticking the game, null if
+     * there's none.
+     * @return True if the session was hibernated.
+     * @throws IOException If the snapshot can't be stored, in which
+     * case the game is kept.
+     */
+    public synchronized boolean hibernate(SessionStore store, Simulation simulation) throws IOException {
+        if (game == null || busy || ended || game.getPlayer() == null) {
+            return false;
+        }
+        // the game is locked, so that a tick already under way can't
+        // change it after its snapshot has been taken.
+        synchronized (game) {
+            if (simulation != null) {
+                simulation.remove(game);
+            }
+            try {
+                store.put(id, Snapshot.write(game));
+            } catch (IOException e) {
+                if (simulation != null) {
+                    simulation.add(game);
+                }
+                throw e;
+            }
+            log = game.getCommandLog();
+            game.retire();
+        }
+        game = null;
+        return true;
+    }
+    
+    /**
+     * Rehydrate the session if it's hibernated: restore its game
+     * from "store" and carry on recording and simulating it.
+     * @param store Where the game's snapshot is kept.
+     * @param simulation The simulation ticking the game, null if
+     * there's none.
+     * @return True if the session was hibernated.
+     * @throws IOException If the game can't be restored.
+     */
+    public synchronized boolean wake(SessionStore store, Simulation simulation) throws IOException {
+        if (game != null) {
+            return false;
+        }
+        ByteBuffer snapshot = store.take(id);
+        if (snapshot == null) {
+            throw new IOException("The store has no snapshot of session " + id + ".");
+        }
+        Game restored = Snapshot.read(snapshot, parser, sink, world);
+        restored.setCommandLog(log);
+        log = null;
+        if (simulation != null) {
+            simulation.add(restored);
+        }
+        game = restored;
+        return true;
+    }
+    
+    /**
+     * Let the session be hibernated by "hibernation" while idle.
+     * @param hibernation The hibernation.
+     */
+    public void setHibernation(Hibernation hibernation) {
+        this.hibernation = hibernation;
+    }
+    
+    /**
+     * Keep the session from being hibernated any more, as it has
+     * ended.
+     */
+    public synchronized void end() {
+        ended = true;
+    }
+    
+    /**
+     * Return whether the session is hibernated.
+     * @return True if its game is only kept as a snapshot.
+     */
+    public synchronized boolean isHibernated() {
+        return game == null;
+    }
+    
+    /**
+     * Return when the player's latest command came in.
+     * @return The time, as given by System.nanoTime.
+     */
+    public long getLastActive() {
+        return lastActive;
+    }
+    
+    /**
+     * Return the number of rooms the game has created, a measure
+     * of how much of the heap it takes.
+     * @return The number of rooms, 0 if the session is hibernated
+     * or hasn't started.
+     */
+    public synchronized int getRoomsCreated() {
+        World current = game == null ? null : game.getWorld();
+        return current == null ? 0 : current.getRoomsCreated();
+    }
+    
+    /**
+     * Close the session's connection, if any.
+     */
+    private void close() {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // the player is gone either way.
+        }
+    }
+    
+    /**
+     * Return the id of the session.
+     * @return The id of the session.
+     */
+    public int getId() {
+        return id;
+    }
+    
+    /**
+     * Return the session's game.
+     * @return The session's game, null while the session is
+     * hibernated.
+     */
+    public synchronized Game getGame() {
+        return game;
+    }
+}
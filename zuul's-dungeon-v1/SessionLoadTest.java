@@ -0,0 +1,168 @@
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class SessionLoadTest - starts increasing numbers of concurrent
+ * sessions on a GameServer, lets every player idle at the prompt
+ * and reports how heap usage and OS threads scale with the number
+ * of sessions.
+ * 
+ * Run the main method with the session counts to measure, e.g.
+ * "1000 10000 50000". Give the JVM enough heap (-Xmx) for the
+ * largest count.
+ */
+public class SessionLoadTest
+{
+    // the session counts measured when none are given.
+    private static final int[] DEFAULT_COUNTS = {1000, 10000, 25000};
+
+    /**
+     * Main method for running the load test.
+     * @param args The session counts to measure.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int[] counts = DEFAULT_COUNTS;
+        if (args.length > 0) {
+            counts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.println("sessions   setup ms   heap MB   KB/session   OS threads");
+        for (int count : counts) {
+            measure(count);
+        }
+    }
+    
+    /**
+     * Start "count" sessions, have every player enter a name and
+     * look around, then measure while all of them idle at the
+     * prompt. Finally let every player quit.
+     * @param count The number of sessions.
+     */
+    private static void measure(int count) throws InterruptedException {
+        GameServer server = new GameServer();
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        
+        CountDownLatch idle = new CountDownLatch(count);
+        ArrayList<ScriptedInput> inputs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ScriptedInput in = new ScriptedInput();
+            // the second prompt is printed once "look" has been processed.
+            PrintStream out = new PrintStream(new PromptCounter(idle, 2));
+            server.startSession(in, out, null);
+            in.send("Player" + i + "\nlook\n");
+            inputs.add(in);
+        }
+        idle.await();
+        long setupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        
+        long heap = usedHeap() - heapBefore;
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        System.out.printf("%8d %10d %9.1f %12.1f %12d%n", count, setupMillis,
+                          heap / 1048576.0, heap / 1024.0 / count, threads);
+        
+        for (ScriptedInput in : inputs) {
+            in.send("quit\n");
+        }
+        while (server.getActiveSessions() > 0) {
+            Thread.sleep(10);
+        }
+    }
+    
+    /**
+     * Return the heap in use after a garbage collection.
+     * @return The used heap in bytes.
+     */
+    static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    /**
+     * An input stream fed by the load test. Reading blocks until
+     * the test sends more input, the same way a socket would.
+     */
+    static class ScriptedInput extends InputStream
+    {
+        // chunks of input not yet read.
+        private LinkedBlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+        // the chunk currently being read and the position in it.
+        private byte[] current = new byte[0];
+        private int position;
+        
+        /**
+         * Make "text" available to the reader.
+         * @param text The input to send.
+         */
+        public void send(String text) {
+            chunks.add(text.getBytes(StandardCharsets.UTF_8));
+        }
+        
+        public int read() {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0];
+        }
+        
+        public int read(byte[] b, int off, int len) {
+            if (position == current.length) {
+                try {
+                    current = chunks.take();
+                } catch (InterruptedException e) {
+                    return -1;
+                }
+                position = 0;
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+    
+    /**
+     * An output stream that discards the game's output but counts
+     * prompts, and counts the latch down when the session has
+     * printed a given number of them.
+     */
+    private static class PromptCounter extends OutputStream
+    {
+        // the latch to count down.
+        private CountDownLatch latch;
+        // the number of prompts still to be seen.
+        private int remaining;
+        
+        /**
+         * @param latch The latch to count down.
+         * @param prompts The number of prompts to wait for.
+         */
+        public PromptCounter(CountDownLatch latch, int prompts) {
+            this.latch = latch;
+            this.remaining = prompts;
+        }
+        
+        public void write(int b) {
+            if (b == '>' && remaining > 0 && --remaining == 0) {
+                latch.countDown();
+            }
+        }
+        
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Class SessionStore - keeps the snapshots of hibernated sessions
+ * (see Hibernation) in a memory-mapped file instead of on the heap,
+ * so the operating system pages them out when memory is short.
+ *
+ * The file is mapped in segments of SEGMENT_SIZE bytes. Snapshots
+ * are put at the end of the segment being filled, and a segment is
+ * filled again from the start once every snapshot in it has been
+ * taken out. The store only lives as long as the server: the file is
+ * deleted when the store is closed, and games are made durable by a
+ * Journal, not by the store.
+ */
+public class SessionStore implements Closeable
+{
+    // the size of a segment, the largest snapshot that can be stored.
+    public static final int SEGMENT_SIZE = 16 << 20;
+
+    // the file.
+    private FileChannel channel;
+    // the mapped segments, in the order of the file.
+    private ArrayList<Segment> segments;
+    // the segment being filled.
+    private Segment current;
+    // where each session's snapshot is, by session id.
+    private HashMap<Integer, Slot> slots;
+    // the total size of the stored snapshots.
+    private long bytes;
+
+    /**
+     * Create an empty store in the file "file", replacing it if it
+     * exists.
+     * @param file The file, deleted when the store is closed.
+     * @throws IOException If the file can't be created.
+     */
+    public SessionStore(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.DELETE_ON_CLOSE);
+        segments = new ArrayList<>();
+        slots = new HashMap<>();
+    }
+
+    /**
+     * Store the snapshot of session "id", replacing any it had.
+     * @param id The session's id.
+     * @param snapshot The snapshot, from its position to its limit,
+     * which is left as it is.
+     * @throws IOException If the file can't grow, or the snapshot is
+     * larger than a segment.
+     */
+    public synchronized void put(int id, ByteBuffer snapshot) throws IOException {
+        int length = snapshot.remaining();
+        if (length > SEGMENT_SIZE) {
+            throw new IOException("A snapshot of " + length + " bytes doesn't fit in the store.");
+        }
+        remove(id);
+        if (current == null || SEGMENT_SIZE - current.end < length) {
+            current = emptySegment();
+        }
+        current.buffer.put(current.end, snapshot, snapshot.position(), length);
+        slots.put(id, new Slot(current, current.end, length));
+        current.end += length;
+        current.used += length;
+        bytes += length;
+    }
+
+    /**
+     * Take the snapshot of session "id" out of the store.
+     * @param id The session's id.
+     * @return The snapshot, on the heap and ready to be read, or null
+     * if the session has none.
+     */
+    public synchronized ByteBuffer take(int id) {
+        Slot slot = slots.get(id);
+        if (slot == null) {
+            return null;
+        }
+        ByteBuffer snapshot = ByteBuffer.allocate(slot.length);
+        snapshot.put(0, slot.segment.buffer, slot.offset, slot.length);
+        remove(id);
+        return snapshot;
+    }
+
+    /**
+     * Throw away the snapshot of session "id", if it has one.
+     * @param id The session's id.
+     */
+    public synchronized void remove(int id) {
+        Slot slot = slots.remove(id);
+        if (slot == null) {
+            return;
+        }
+        slot.segment.used -= slot.length;
+        bytes -= slot.length;
+        if (slot.segment.used == 0 && slot.segment != current) {
+            slot.segment.end = 0;
+        }
+    }
+
+    /**
+     * Return a segment with nothing in it, mapping a new one at the
+     * end of the file if every segment is in use.
+     * @return The segment.
+     */
+    private Segment emptySegment() throws IOException {
+        for (Segment segment : segments) {
+            if (segment.used == 0) {
+                segment.end = 0;
+                return segment;
+            }
+        }
+        long position = (long) segments.size() * SEGMENT_SIZE;
+        Segment segment = new Segment(channel.map(FileChannel.MapMode.READ_WRITE, position, SEGMENT_SIZE));
+        segments.add(segment);
+        return segment;
+    }
+
+    /**
+     * Return the number of snapshots in the store.
+     * @return The number of snapshots.
+     */
+    public synchronized int getCount() {
+        return slots.size();
+    }
+
+    /**
+     * Return the total size of the snapshots in the store.
+     * @return The size in bytes.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Return the size of the mapped file.
+     * @return The size in bytes.
+     */
+    public synchronized long getMappedBytes() {
+        return (long) segments.size() * SEGMENT_SIZE;
+    }
+
+    /**
+     * Throw away every snapshot and delete the file.
+     */
+    public synchronized void close() throws IOException {
+        slots.clear();
+        segments.clear();
+        current = null;
+        bytes = 0;
+        channel.close();
+    }
+
+    /**
+     * A mapped part of the file.
+     */
+    private static class Segment
+    {
+        // the mapped bytes.
+        private MappedByteBuffer buffer;
+        // where the next snapshot goes.
+        private int end;
+        // the bytes of the snapshots still in the segment.
+        private int used;
+
+        /**
+         * @param buffer The mapped bytes.
+         */
+        public Segment(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Where a snapshot is stored.
+     */
+    private static class Slot
+    {
+        // the segment, and where in it the snapshot is.
+        private Segment segment;
+        private int offset;
+        private int length;
+
+        /**
+         * @param segment The segment.
+         * @param offset Where in the segment the snapshot starts.
+         * @param length The size of the snapshot.
+         */
+        public Slot(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
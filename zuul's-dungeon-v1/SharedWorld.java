@@ -0,0 +1,824 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class SharedWorld - one World played by many players at once. Unlike
+ * a Game, which copies the world for its single player, a shared world
+ * has one copy of every room and item, and the players meet each other,
+ * take what the others dropped and give each other items.
+ *
+ * A command only changes the room its player is in: a player's
+ * location and a room's occupants only change while the room concerned
+ * is held. Items are handed on by take, drop and give with
+ * ItemContainer.moveTo, which lets exactly one of two players taking
+ * the same item have it, so an item is always in exactly one place,
+ * or on its way between two. A world holds its rooms in one of two
+ * ways:
+ *   locks      room r is guarded by lock r % stripes, and commands are
+ *              processed on the players' own threads (see process). A
+ *              move holds the locks of both rooms, always taking the
+ *              lower stripe first, while take and drop hold no lock
+ *              at all. The locks are ReentrantLocks rather than
+ *              monitors, so that players waiting for a room don't pin
+ *              the carrier threads of their virtual threads.
+ *   mailboxes  every room has a RoomMailbox running its commands one
+ *              at a time, and commands are posted to the mailbox of
+ *              the player's room (see submit). A move is handed off
+ *              from the room left to the room entered, so no command
+ *              ever holds two rooms, and no locks are taken at all.
+ *              The latencies of each room's commands are recorded.
+ * Either way players in different rooms hardly ever wait for each
+ * other, however many players there are.
+ *
+ * What a player does is published to an InterestManager, which tells
+ * the players in the same room and, as a noise, those next door.
+ *
+ * Only the parts of the game that make sense for many players are
+ * played: going, looking, taking, dropping, giving and saying. The
+ * story, the quests, the keys and the characters of the template stay
+ * with Game.
+ */
+public class SharedWorld
+{
+    // the number of lock stripes unless set otherwise.
+    public static final int DEFAULT_STRIPES = 1024;
+
+    // the rooms and items the players share.
+    private World world;
+    // the locks guarding the rooms, by room index modulo their
+    // number. Null if the rooms have mailboxes.
+    private ReentrantLock[] locks;
+    // the mailboxes of the rooms, by room index, created when first
+    // needed, and the executor lending them threads. Null if the
+    // rooms are guarded by locks.
+    private ConcurrentHashMap<Integer, RoomMailbox> mailboxes;
+    private Executor executor;
+    // the players in the world, by name folded by NameIndex.fold.
+    private ConcurrentHashMap<String, Player> players;
+    // tells the players what the others around them do.
+    private InterestManager interest;
+    // the metrics: commands processed, and locks a command had to
+    // wait for. Adders, since every player updates them.
+    private LongAdder commands;
+    private LongAdder contended;
+
+    /**
+     * Create a shared world copied from "template", guarded by
+     * DEFAULT_STRIPES locks.
+     * @param template The template.
+     */
+    public SharedWorld(WorldTemplate template) {
+        this(template, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Create a shared world copied from "template".
+     * @param template The template.
+     * @param stripes The number of locks guarding the rooms.
+     */
+    public SharedWorld(WorldTemplate template, int stripes) {
+        world = new World(template);
+        locks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        players = new ConcurrentHashMap<>();
+        interest = new InterestManager();
+        commands = new LongAdder();
+        contended = new LongAdder();
+    }
+
+    /**
+     * Create a shared world copied from "template", whose rooms run
+     * their commands in mailboxes.
+     * @param template The template.
+     * @param executor Lends the mailboxes the threads they run on.
+     */
+    public SharedWorld(WorldTemplate template, Executor executor) {
+        world = new World(template);
+        mailboxes = new ConcurrentHashMap<>();
+        this.executor = executor;
+        players = new ConcurrentHashMap<>();
+        interest = new InterestManager();
+        commands = new LongAdder();
+        contended = new LongAdder();
+    }
+
+    /**
+     * Let a player named "name" into the world, in the template's
+     * starting room and carrying nothing.
+     * @param name The player's name, unique within the world (case
+     * insensitive).
+     * @param sink Where the player's events go.
+     * @return The player.
+     * @throws IllegalArgumentException If there's already a player
+     * with that name.
+     */
+    public Player join(String name, EventSink sink) {
+        return join(name, sink, world.getTemplate().getStartRoom());
+    }
+
+    /**
+     * Let a player named "name" into the world, in room number
+     * "room" and carrying nothing.
+     * @param name The player's name, unique within the world (case
+     * insensitive).
+     * @param sink Where the player's events go.
+     * @param room The index of the room the player starts in.
+     * @return The player.
+     * @throws IllegalArgumentException If there's already a player
+     * with that name.
+     */
+    public Player join(String name, EventSink sink, int room) {
+        Player player = new Player(new Character(name, 50, 10, 100, true, false), sink);
+        if (players.putIfAbsent(NameIndex.fold(name), player) != null) {
+            throw new IllegalArgumentException("There's already a player named " + name + ".");
+        }
+        Room start = world.getRoom(room);
+        if (mailboxes != null) {
+            CompletableFuture<Boolean> done = new CompletableFuture<>();
+            mailbox(start).execute(() -> {
+                arrive(player, start, false);
+                finish(player, done);
+            });
+            done.join();
+            return player;
+        }
+        lock(start);
+        try {
+            arrive(player, start, false);
+        } finally {
+            unlock(start);
+        }
+        player.flush();
+        return player;
+    }
+
+    /**
+     * Let "player" leave the world, dropping whatever they carry in
+     * the room they're in. Must not be called from a mailbox.
+     * @param player The player.
+     */
+    public void leave(Player player) {
+        Room room = player.character.getLocation();
+        if (room == null) {
+            return;
+        }
+        if (mailboxes != null) {
+            CompletableFuture<Boolean> done = new CompletableFuture<>();
+            mailbox(room).execute(() -> {
+                vacate(player);
+                done.complete(false);
+            });
+            done.join();
+            return;
+        }
+        lock(room);
+        try {
+            vacate(player);
+        } finally {
+            unlock(room);
+        }
+    }
+
+    /**
+     * Take "player" out of the world, dropping whatever they carry in
+     * the room they're in, which must be held.
+     * @param player The player.
+     */
+    private void vacate(Player player) {
+        Room room = player.character.getLocation();
+        ItemContainer inventory = player.character.getInventory();
+        for (Item item : inventory.getItems()) {
+            inventory.moveTo(item, room.getItemContainer(), Long.MAX_VALUE);
+        }
+        depart(player, room, "the dungeon");
+        player.character.clearLocationHistory();
+        players.remove(NameIndex.fold(player.character.getName()));
+    }
+
+    /**
+     * Process one of the player's commands and hand its events to
+     * the player's sink, holding the locks of the rooms concerned;
+     * take and drop only move an item, and hold no lock. A
+     * player's commands must be processed one at a time, as a session
+     * does; different players' commands may be processed at the same
+     * time.
+     * @param player The player.
+     * @param command The command.
+     * @return False if the player has left the world.
+     * @throws IllegalStateException If the world runs its rooms'
+     * commands in mailboxes; use submit then.
+     */
+    public boolean process(Player player, Command command) {
+        if (mailboxes != null) {
+            throw new IllegalStateException("The rooms' commands run in mailboxes.");
+        }
+        Room room = player.character.getLocation();
+        if (room == null) {
+            return false;
+        }
+        commands.increment();
+        try {
+            if (command.getCommandWord() == CommandWord.GO && command.hasSecondWord()) {
+                boolean back = command.getSecondWord().equals("back");
+                Room next;
+                // the exits never change, so the neighbour found still
+                // lies that way once both rooms are locked.
+                lock(room);
+                try {
+                    next = findWay(player, command.getSecondWord());
+                } finally {
+                    unlock(room);
+                }
+                if (next != null) {
+                    lock(room, next);
+                    try {
+                        depart(player, room, back ? wayTo(room, next) : command.getSecondWord());
+                        arrive(player, next, back);
+                    } finally {
+                        unlock(room, next);
+                    }
+                }
+            } else if (command.getCommandWord() == CommandWord.TAKE || command.getCommandWord() == CommandWord.DROP) {
+                perform(player, command);
+            } else {
+                lock(room);
+                try {
+                    perform(player, command);
+                } finally {
+                    unlock(room);
+                }
+            }
+            player.print();
+        } finally {
+            player.flush();
+        }
+        return player.character.getLocation() != null;
+    }
+
+    /**
+     * Post one of the player's commands to the mailbox of the room
+     * the player is in. The events go to the player's sink from the
+     * mailbox's thread. A move is handed off in two steps: the room
+     * left takes the player out of its occupants, and then posts the
+     * rest of the move to the room entered, which takes the player
+     * in; in between the player is in neither room. A player's
+     * commands must be submitted one at a time, each once the one
+     * before it is done.
+     * @param player The player.
+     * @param command The command.
+     * @return Completes once the command is done, with false if the
+     * player has left the world.
+     * @throws IllegalStateException If the world guards its rooms
+     * with locks; use process then.
+     */
+    public CompletableFuture<Boolean> submit(Player player, Command command) {
+        if (mailboxes == null) {
+            throw new IllegalStateException("The rooms are guarded by locks.");
+        }
+        CompletableFuture<Boolean> done = new CompletableFuture<>();
+        Room room = player.character.getLocation();
+        if (room == null) {
+            done.complete(false);
+            return done;
+        }
+        commands.increment();
+        mailbox(room).execute(() -> {
+            try {
+                if (command.getCommandWord() == CommandWord.GO && command.hasSecondWord()) {
+                    boolean back = command.getSecondWord().equals("back");
+                    Room next = findWay(player, command.getSecondWord());
+                    if (next != null) {
+                        depart(player, room, back ? wayTo(room, next) : command.getSecondWord());
+                        mailbox(next).execute(() -> {
+                            try {
+                                arrive(player, next, back);
+                                finish(player, done);
+                            } catch (RuntimeException e) {
+                                done.completeExceptionally(e);
+                            }
+                        });
+                        return;
+                    }
+                } else {
+                    perform(player, command);
+                }
+                finish(player, done);
+            } catch (RuntimeException e) {
+                done.completeExceptionally(e);
+            }
+        });
+        return done;
+    }
+
+    /**
+     * Take the player out of "room", the first half of a move, and
+     * tell those around. The room must be held.
+     * @param player The player.
+     * @param room The room the player is in.
+     * @param where Where the player goes, e.g. a direction.
+     */
+    private void depart(Player player, Room room, String where) {
+        player.character.depart();
+        interest.leave(player.listener, room);
+        interest.publish(room, player.listener, new GameEvent(GameEvent.Type.LEFT, player.getName(), where));
+    }
+
+    /**
+     * Move the player into "room", the second half of a move begun by
+     * depart or the player's first step into the world, tell those
+     * around, and show the player where they are. The room must be
+     * held.
+     * @param player The player.
+     * @param room The room entered.
+     * @param back True if the player goes back through their history.
+     */
+    private void arrive(Player player, Room room, boolean back) {
+        player.character.arrive(room, back);
+        interest.enter(player.listener, room);
+        interest.publish(room, player.listener, new GameEvent(GameEvent.Type.ENTERED, player.getName()));
+        player.locationInfo();
+    }
+
+    /**
+     * Return the direction leading from "room" to "next", for telling
+     * those in "room" where a player going back went.
+     * @param room The room left, which must be held.
+     * @param next The room entered.
+     * @return The direction, or "back" if no exit leads there.
+     */
+    private String wayTo(Room room, Room next) {
+        for (String direction : room.getDirections()) {
+            if (room.getExit(direction).getNeighbour() == next) {
+                return direction;
+            }
+        }
+        return "back";
+    }
+
+    /**
+     * End a command run in a mailbox: hand its events to the
+     * player's sink and complete "done".
+     * @param player The player.
+     * @param done Completes with whether the player is still in the
+     * world.
+     */
+    private void finish(Player player, CompletableFuture<Boolean> done) {
+        player.print();
+        player.flush();
+        done.complete(player.character.getLocation() != null);
+    }
+
+    /**
+     * Return the mailbox of "room", creating it if this is the first
+     * time it's needed.
+     * @param room The room.
+     * @return The mailbox.
+     */
+    private RoomMailbox mailbox(Room room) {
+        RoomMailbox mailbox = mailboxes.get(room.getIndex());
+        if (mailbox == null) {
+            mailbox = mailboxes.computeIfAbsent(room.getIndex(), index -> new RoomMailbox(index, executor));
+        }
+        return mailbox;
+    }
+
+    /**
+     * Carry out a command other than a move. The room the player is
+     * in must be held, except for take and drop.
+     * @param player The player.
+     * @param command The command.
+     */
+    private void perform(Player player, Command command) {
+        switch (command.getCommandWord()) {
+            case GO:
+                player.print("Go where?");
+                break;
+            case LOOK:
+                look(player, command);
+                break;
+            case TAKE:
+                take(player, command);
+                break;
+            case DROP:
+                drop(player, command);
+                break;
+            case GIVE:
+                give(player, command);
+                break;
+            case SAY:
+                say(player, command);
+                break;
+            case HELP:
+                player.print("In the shared world you can go, look, take, drop, give items to the other players and say things to them.");
+                break;
+            case QUIT:
+                vacate(player);
+                player.print("Thank you for playing 'Zuul's Dungeon'!");
+                break;
+            case UNKNOWN:
+                player.print("This command is not valid. Type 'help' for a list of valid commands.");
+                break;
+            default:
+                player.print("That can't be done in the shared world.");
+                break;
+        }
+    }
+
+    /**
+     * Find the room the player would go to in "direction", or back.
+     * The room the player is in must be held.
+     * @param player The player.
+     * @param direction The direction, or "back".
+     * @return The room, or null if the player can't go that way.
+     */
+    private Room findWay(Player player, String direction) {
+        if (direction.equals("back")) {
+            Room previous = player.character.getPreviousLocation();
+            if (previous == null) {
+                player.print("You can't remember the way back any further.\n");
+            }
+            return previous;
+        }
+        Exit exit = player.character.getLocation().getExit(direction);
+        Room next = exit == null ? null : exit.getNeighbour();
+        if (next == null) {
+            player.print("There's no room in that direction.\n");
+            return null;
+        }
+        if (!exit.getUnlocked()) {
+            player.print("The door is locked.\n");
+            return null;
+        }
+        return next;
+    }
+
+    /**
+     * Look around the room, at the inventory or at an item. The
+     * room must be held.
+     */
+    private void look(Player player, Command command) {
+        Room room = player.character.getLocation();
+        if (!command.hasSecondWord()) {
+            player.locationInfo();
+            return;
+        }
+        String name = command.getSecondWord();
+        Character character = player.character;
+        if (name.equals("inventory")) {
+            player.emit(new GameEvent(GameEvent.Type.INVENTORY, character.getItemNames().toArray(), character.getWeight(), character.getFreeCapacityGrams() / 1000.0));
+            return;
+        }
+        Item item = room.getItem(name);
+        if (item == null) {
+            item = character.getItem(name);
+        }
+        if (item == null) {
+            player.print("There is no such item here.\n");
+            return;
+        }
+        player.emit(new GameEvent(GameEvent.Type.ITEM, item));
+    }
+
+    /**
+     * Try to take an item from the room. The room needn't be held:
+     * if another player takes the item first, it's gone.
+     */
+    private void take(Player player, Command command) {
+        if (!command.hasSecondWord()) {
+            player.print("Take what?\n");
+            return;
+        }
+        Room room = player.character.getLocation();
+        ItemContainer floor = room.getItemContainer();
+        Item item = floor.get(command.getSecondWord());
+        ItemContainer.Transfer transfer = item == null ? ItemContainer.Transfer.MISSING
+                : floor.moveTo(item, player.character.getInventory(), player.character.getCapacityGrams());
+        if (transfer == ItemContainer.Transfer.MISSING) {
+            player.print("There is no such item in this room.");
+        } else if (transfer == ItemContainer.Transfer.MOVED) {
+            player.emit(new GameEvent(GameEvent.Type.TAKEN, item.getName()));
+            interest.publish(room, player.listener, new GameEvent(GameEvent.Type.PICKED_UP, player.getName(), item.getName()));
+        } else {
+            double neededCapacity = (item.getGrams() - player.character.getFreeCapacityGrams()) / 1000.0;
+            player.emit(new GameEvent(GameEvent.Type.TOO_HEAVY, item.getName(), neededCapacity));
+        }
+    }
+
+    /**
+     * Try to drop an item in the room, which needn't be held.
+     */
+    private void drop(Player player, Command command) {
+        if (!command.hasSecondWord()) {
+            player.print("Drop what?\n");
+            return;
+        }
+        Room room = player.character.getLocation();
+        Item item = player.character.getItem(command.getSecondWord());
+        if (item == null) {
+            player.print("There is no such item in your inventory.\n");
+            return;
+        }
+        player.character.getInventory().moveTo(item, room.getItemContainer(), Long.MAX_VALUE);
+        player.emit(new GameEvent(GameEvent.Type.DROPPED, item.getName()));
+        interest.publish(room, player.listener, new GameEvent(GameEvent.Type.PUT_DOWN, player.getName(), item.getName()));
+    }
+
+    /**
+     * Try to give an item to another player in the same room. The
+     * command is "give [player name] [item name]". The room must
+     * be held.
+     */
+    private void give(Player player, Command command) {
+        if (!command.hasSecondWord()) {
+            player.print("Give whom?\n");
+            return;
+        }
+        String rest = command.getSecondWord();
+        Room room = player.character.getLocation();
+        Character receiver = null;
+        for (Character occupant : room.getOccupants()) {
+            String name = occupant.getName();
+            if (occupant != player.character && rest.length() > name.length() && rest.regionMatches(true, 0, name, 0, name.length()) && rest.charAt(name.length()) == ' ') {
+                receiver = occupant;
+                break;
+            }
+        }
+        if (receiver == null) {
+            player.print("There doesn't seem to be any such person in here.\n");
+            return;
+        }
+        Item item = player.character.getItem(rest.substring(receiver.getName().length() + 1));
+        if (item == null) {
+            player.print("There is no such item in your inventory.\n");
+            return;
+        }
+        if (item.getQuestItem()) {
+            player.print("You figure you might want to hold on to this.\n");
+            return;
+        }
+        // the receiver may be taking something at the same time.
+        if (player.character.getInventory().moveTo(item, receiver.getInventory(), receiver.getCapacityGrams()) != ItemContainer.Transfer.MOVED) {
+            player.print(receiver.getName() + " can't carry the " + item.getName() + ".\n");
+            return;
+        }
+        player.emit(new GameEvent(GameEvent.Type.GIVEN, item.getName(), receiver.getName()));
+        interest.publish(room, player.listener, new GameEvent(GameEvent.Type.HANDED, player.getName(), item.getName(), receiver.getName()));
+    }
+
+    /**
+     * Say something to the players in the room, which must be held.
+     */
+    private void say(Player player, Command command) {
+        if (!command.hasSecondWord()) {
+            player.print("Say what?\n");
+            return;
+        }
+        GameEvent speech = new GameEvent(GameEvent.Type.SPEECH, player.getName(), command.getSecondWord());
+        player.emit(speech);
+        interest.publish(player.character.getLocation(), player.listener, speech);
+    }
+
+    /**
+     * Return the lock guarding "room".
+     * @param room The room.
+     * @return The lock.
+     */
+    private ReentrantLock lockOf(Room room) {
+        return locks[room.getIndex() % locks.length];
+    }
+
+    /**
+     * Take the lock guarding "room", counting it if it has to be
+     * waited for.
+     * @param room The room.
+     */
+    private void lock(Room room) {
+        ReentrantLock lock = lockOf(room);
+        if (!lock.tryLock()) {
+            contended.increment();
+            lock.lock();
+        }
+    }
+
+    /**
+     * Take the locks guarding two rooms, the lower stripe first, so
+     * that two moves in opposite directions can't deadlock.
+     * @param from The room left.
+     * @param to The room entered.
+     */
+    private void lock(Room from, Room to) {
+        int first = from.getIndex() % locks.length;
+        int second = to.getIndex() % locks.length;
+        lock(first <= second ? from : to);
+        if (first != second) {
+            lock(first <= second ? to : from);
+        }
+    }
+
+    /**
+     * Release the lock guarding "room".
+     * @param room The room.
+     */
+    private void unlock(Room room) {
+        lockOf(room).unlock();
+    }
+
+    /**
+     * Release the locks taken by lock(from, to).
+     * @param from The room left.
+     * @param to The room entered.
+     */
+    private void unlock(Room from, Room to) {
+        unlock(from);
+        if (lockOf(from) != lockOf(to)) {
+            unlock(to);
+        }
+    }
+
+    /**
+     * Count the items in the rooms and the players' inventories. As
+     * no item is ever created or destroyed, it's always the number of
+     * items the template places in rooms, as long as no commands are
+     * under way: since take and drop hold no locks, an item may be
+     * counted twice or not at all while it's being moved.
+     * @return The number of items.
+     */
+    public int countItems() {
+        WorldTemplate template = world.getTemplate();
+        int count = template.getRoomItemStart(template.getRoomCount());
+        for (Room room : world.getRooms()) {
+            int index = room.getIndex();
+            count += room.getItemNames().size() - (template.getRoomItemStart(index + 1) - template.getRoomItemStart(index));
+        }
+        for (Player player : players.values()) {
+            count += player.character.getInventory().size();
+        }
+        return count;
+    }
+
+    /**
+     * Return the latencies of the commands run in the mailbox of
+     * "room", from posting until they were done.
+     * @param room The room.
+     * @return The latencies, null if the room has no mailbox yet or
+     * the rooms are guarded by locks.
+     */
+    public LatencyHistogram getLatencies(Room room) {
+        RoomMailbox mailbox = mailboxes == null ? null : mailboxes.get(room.getIndex());
+        return mailbox == null ? null : mailbox.getLatencies();
+    }
+
+    /**
+     * Return the mailboxes created so far, in no particular order.
+     * @return The mailboxes, empty if the rooms are guarded by locks.
+     */
+    public Collection<RoomMailbox> getMailboxes() {
+        return mailboxes == null ? List.of() : mailboxes.values();
+    }
+
+    /**
+     * Return the interest manager telling the players what the others
+     * around them do. Its ticks deliver what it's told, so it must be
+     * started, or ticked directly.
+     * @return The interest manager.
+     */
+    public InterestManager getInterest() {
+        return interest;
+    }
+
+    /**
+     * Return the world the players share.
+     * @return The world.
+     */
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * @return The number of players in the world.
+     */
+    public int getPlayerCount() {
+        return players.size();
+    }
+
+    /**
+     * Return the metrics as one line of text.
+     * @return The metrics.
+     */
+    public String getMetrics() {
+        long processed = commands.sum();
+        if (mailboxes != null) {
+            LatencyHistogram all = new LatencyHistogram();
+            for (RoomMailbox mailbox : mailboxes.values()) {
+                all.add(mailbox.getLatencies());
+            }
+            return String.format("%d players, %d rooms created, %d mailboxes; %d commands, room latency p50 %.1f us, p99 %.1f us, max %.1f us",
+                                 players.size(), world.getRoomsCreated(), mailboxes.size(), processed, all.getPercentile(50) / 1e3,
+                                 all.getPercentile(99) / 1e3, all.getMax() / 1e3);
+        }
+        long waited = contended.sum();
+        return String.format("%d players, %d rooms created, %d lock stripes; %d commands, %d waited for a lock (%.2f%%)",
+                             players.size(), world.getRoomsCreated(), locks.length, processed, waited,
+                             processed == 0 ? 0 : waited * 100.0 / processed);
+    }
+
+    /**
+     * A player in a shared world: their character, and the events of
+     * the command being processed, which go to the player's sink once
+     * it's done.
+     */
+    public static class Player
+    {
+        // the player's character.
+        private Character character;
+        // hands the player's events to the player's sink, and hears
+        // what the others around the player do.
+        private InterestManager.Listener listener;
+        // the events of the command being processed.
+        private List<GameEvent> events;
+
+        /**
+         * @param character The player's character.
+         * @param sink Where the player's events go.
+         */
+        private Player(Character character, EventSink sink) {
+            this.character = character;
+            listener = new InterestManager.Listener(sink);
+            events = new ArrayList<>();
+        }
+
+        /**
+         * Add the player's location to the events. The lock of
+         * the location must be held.
+         */
+        private void locationInfo() {
+            Room location = character.getLocation();
+            List<Character> occupants = location.getOccupants();
+            String[] names = new String[occupants.size() - 1];
+            int i = 0;
+            for (Character occupant : occupants) {
+                if (occupant != character) {
+                    names[i++] = occupant.getName();
+                }
+            }
+            emit(new GameEvent(GameEvent.Type.LOCATION, location.getDescription(), location.getItemsString(), names, location.getExitString()));
+        }
+
+        /**
+         * Add an event to the output of the command being processed.
+         * @param event The event.
+         */
+        private void emit(GameEvent event) {
+            events.add(event);
+        }
+
+        /**
+         * Add a line of text to the output of the command being
+         * processed.
+         * @param text The text.
+         */
+        private void print(String text) {
+            events.add(GameEvent.text(text));
+        }
+
+        /**
+         * Add an empty line to the output of the command being
+         * processed.
+         */
+        private void print() {
+            events.add(GameEvent.BLANK);
+        }
+
+        /**
+         * Hand the events so far to the sink.
+         */
+        private void flush() {
+            if (!events.isEmpty()) {
+                listener.send(events);
+                events.clear();
+            }
+        }
+
+        /**
+         * @return The player's character.
+         */
+        public Character getCharacter() {
+            return character;
+        }
+
+        /**
+         * @return The player's name.
+         */
+        public String getName() {
+            return character.getName();
+        }
+    }
+}
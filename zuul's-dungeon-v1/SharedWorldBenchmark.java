@@ -0,0 +1,264 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class SharedWorldBenchmark - lets many players play in one
+ * SharedWorld at once, each on a virtual thread of its own the way
+ * GameServer runs sessions, and reports how many commands per second
+ * they get through and how long the commands took, both with the rooms
+ * guarded by locks and with the rooms running their commands in
+ * mailboxes (see SharedWorld). With mailboxes, the latencies of the
+ * busiest rooms are shown too, and after every run, how many listeners
+ * the InterestManager told about each event on average. It also checks
+ * that no item was lost or duplicated on its way between the rooms and
+ * the players.
+ *
+ * The players wander, look around, take the items they see, drop
+ * them again, give them to the players they've met and talk. Each
+ * player only knows what its own events and those of the others
+ * around it told it, as a real player would.
+ *
+ * Run the main method with any of these options (defaults in brackets):
+ *   players=LIST  comma separated numbers of players (1000,10000)
+ *   commands=N    number of commands per player (200)
+ *   world=N       number of rooms of the synthetic world, 0 for the
+ *                 standard world (10000)
+ *   items=N       number of items in every room (2)
+ *   modes=LIST    the runs, any of locks and mailboxes (locks,mailboxes)
+ *   stripes=N     number of lock stripes (1024)
+ *   threads=N     number of threads lending the mailboxes (one per core)
+ *   rooms=N       number of busiest rooms shown (3)
+ *   tick=MS       time between the interest manager's ticks (100)
+ *   spread=B      whether the players start in random rooms rather
+ *                 than all in the starting room (true)
+ *   seed=N        seed of the players' choices (1)
+ */
+public class SharedWorldBenchmark
+{
+    // the options, by name.
+    private static TreeMap<String, String> options = new TreeMap<>();
+
+    /**
+     * Main method for running the benchmark.
+     * @param args Options of the form name=value.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        int rooms = Integer.parseInt(options.getOrDefault("world", "10000"));
+        int items = Integer.parseInt(options.getOrDefault("items", "2"));
+        WorldTemplate template = rooms == 0 ? Game.getStandardWorld() : SyntheticWorld.build(rooms, 0, items, 0, 42);
+        System.out.printf("%d rooms, %d items, %d cores%n", template.getRoomCount(), template.getRoomItemStart(template.getRoomCount()),
+                          Runtime.getRuntime().availableProcessors());
+        System.out.printf("%8s %-10s %10s %12s %10s %10s %10s  %s%n", "players", "mode", "commands", "commands/s", "p50 us", "p99 us", "max us", "items");
+        int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        AtomicInteger workerCount = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "mailbox-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        String[] modes = options.getOrDefault("modes", "locks,mailboxes").split(",");
+        // warm up on worlds of their own.
+        for (String mode : modes) {
+            run(newWorld(template, mode, workers), mode, 1000, false);
+        }
+        for (String players : options.getOrDefault("players", "1000,10000").split(",")) {
+            for (String mode : modes) {
+                run(newWorld(template, mode, workers), mode, Integer.parseInt(players.trim()), true);
+            }
+        }
+        workers.shutdown();
+    }
+
+    /**
+     * Create a shared world holding its rooms in the way "mode" says.
+     * @param template The world's template.
+     * @param mode "locks" or "mailboxes".
+     * @param workers Lends the mailboxes their threads.
+     * @return The world.
+     */
+    private static SharedWorld newWorld(WorldTemplate template, String mode, ExecutorService workers) {
+        if (mode.equals("mailboxes")) {
+            return new SharedWorld(template, workers);
+        }
+        return new SharedWorld(template, Integer.parseInt(options.getOrDefault("stripes", "1024")));
+    }
+
+    /**
+     * Let "count" players play a fresh shared world and print the
+     * results.
+     * @param world The world.
+     * @param mode How the world holds its rooms, "locks" or
+     * "mailboxes".
+     * @param count The number of players.
+     * @param print Whether to print the results.
+     */
+    private static void run(SharedWorld world, String mode, int count, boolean print) throws InterruptedException {
+        int commands = Integer.parseInt(options.getOrDefault("commands", "200"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        boolean mailboxes = mode.equals("mailboxes");
+        boolean spread = Boolean.parseBoolean(options.getOrDefault("spread", "true"));
+        int expected = world.countItems();
+        world.getInterest().start(Long.parseLong(options.getOrDefault("tick", "100")));
+        // the latencies each player saw, kept apart so the players
+        // don't wait for each other to record them.
+        LatencyHistogram[] latencies = new LatencyHistogram[count];
+        CountDownLatch ready = new CountDownLatch(count);
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] threads = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            final int number = i;
+            latencies[i] = new LatencyHistogram();
+            threads[i] = Thread.ofVirtual().start(() -> {
+                SplittableRandom random = new SplittableRandom(seed + number);
+                Knowledge knowledge = new Knowledge();
+                int room = spread ? random.nextInt(world.getWorld().getTemplate().getRoomCount()) : world.getWorld().getTemplate().getStartRoom();
+                SharedWorld.Player player = world.join("Player" + number, knowledge, room);
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int c = 0; c < commands; c++) {
+                    Command command = knowledge.choose(player, random);
+                    long sent = System.nanoTime();
+                    if (mailboxes) {
+                        world.submit(player, command).join();
+                    } else {
+                        world.process(player, command);
+                    }
+                    latencies[number].record(System.nanoTime() - sent);
+                }
+            });
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        world.getInterest().stop();
+        int found = world.countItems();
+        if (!print) {
+            return;
+        }
+        LatencyHistogram all = new LatencyHistogram();
+        for (LatencyHistogram latency : latencies) {
+            all.add(latency);
+        }
+        System.out.printf("%8d %-10s %10d %12.0f %10.1f %10.1f %10.1f  %s%n", count, mode, (long) count * commands, count * commands / seconds,
+                          all.getPercentile(50) / 1e3, all.getPercentile(99) / 1e3, all.getMax() / 1e3,
+                          found == expected ? "all " + found + " kept" : found + " instead of " + expected);
+        if (mailboxes) {
+            List<RoomMailbox> busiest = new ArrayList<>(world.getMailboxes());
+            busiest.sort(Comparator.comparingLong((RoomMailbox mailbox) -> mailbox.getLatencies().getCount()).reversed());
+            int shown = Integer.parseInt(options.getOrDefault("rooms", "3"));
+            for (RoomMailbox mailbox : busiest.subList(0, Math.min(shown, busiest.size()))) {
+                LatencyHistogram room = mailbox.getLatencies();
+                System.out.printf("%19s %-10s %10d %12s %10.1f %10.1f %10.1f%n", "", world.getWorld().getTemplate().getRoomName(mailbox.getRoom()), room.getCount(), "",
+                                  room.getPercentile(50) / 1e3, room.getPercentile(99) / 1e3, room.getMax() / 1e3);
+            }
+        }
+        System.out.printf("%19s %s%n", "", world.getInterest().getMetrics());
+    }
+
+    /**
+     * What a player has learnt from its events: the items it sees
+     * and carries and the players it has met. Also picks the player's
+     * next command from that.
+     */
+    private static class Knowledge implements EventSink
+    {
+        // the items in the room, as last seen.
+        private List<String> seen = new ArrayList<>();
+        // the items the player carries.
+        private List<String> carried = new ArrayList<>();
+        // the other players in the room, as last seen.
+        private List<String> met = new ArrayList<>();
+
+        public synchronized void accept(List<GameEvent> events) {
+            for (GameEvent event : events) {
+                switch (event.getType()) {
+                    case LOCATION:
+                        String items = (String) event.getArgument(1);
+                        seen.clear();
+                        if (items.startsWith("Items of interest: ")) {
+                            for (String name : items.substring(19, items.length() - 1).split("; ")) {
+                                seen.add(name);
+                            }
+                        }
+                        met.clear();
+                        for (String name : (String[]) event.getArgument(2)) {
+                            met.add(name);
+                        }
+                        break;
+                    case ENTERED:
+                        met.add((String) event.getArgument(0));
+                        break;
+                    case LEFT:
+                        met.remove((String) event.getArgument(0));
+                        break;
+                    case PICKED_UP:
+                        seen.remove((String) event.getArgument(1));
+                        break;
+                    case PUT_DOWN:
+                        seen.add((String) event.getArgument(1));
+                        break;
+                    case TAKEN:
+                        seen.remove((String) event.getArgument(0));
+                        carried.add((String) event.getArgument(0));
+                        break;
+                    case DROPPED:
+                    case GIVEN:
+                        carried.remove((String) event.getArgument(0));
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Pick the player's next command.
+         * @param player The player.
+         * @param random The source of the player's choices.
+         * @return The command.
+         */
+        public synchronized Command choose(SharedWorld.Player player, SplittableRandom random) {
+            int choice = random.nextInt(100);
+            if (choice < 20 && !seen.isEmpty()) {
+                return new Command(CommandWord.TAKE, seen.get(random.nextInt(seen.size())));
+            }
+            if (choice < 35 && !carried.isEmpty()) {
+                return new Command(CommandWord.DROP, carried.get(random.nextInt(carried.size())));
+            }
+            if (choice < 50 && !carried.isEmpty() && !met.isEmpty()) {
+                return new Command(CommandWord.GIVE, met.get(random.nextInt(met.size())) + " " + carried.get(random.nextInt(carried.size())));
+            }
+            if (choice < 55) {
+                return new Command(CommandWord.SAY, "hi");
+            }
+            // only the player moves itself, so its location can be
+            // read without the world's locks.
+            WorldTemplate template = player.getCharacter().getLocation().getWorld().getTemplate();
+            int room = player.getCharacter().getLocation().getIndex();
+            if (choice < 60 || template.getExitStart(room + 1) == template.getExitStart(room)) {
+                return new Command(CommandWord.LOOK, null);
+            }
+            int exit = template.getExitStart(room) + random.nextInt(template.getExitStart(room + 1) - template.getExitStart(room));
+            return new Command(CommandWord.GO, template.getExitDirection(exit));
+        }
+    }
+}
@@ -0,0 +1,257 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class Simulation - runs the characters of many games on a clock of
+ * their own. On every tick each game's characters act once (see
+ * Game.tick), whether the players have typed anything or not, so the
+ * world keeps the same pace however fast or slowly they play.
+ *
+ * The games are split into batches that a pool of worker threads,
+ * one per core by default, ticks in parallel. A game is locked while
+ * it's ticked, so ticks never interleave with its player's commands.
+ * The duration of every tick is recorded. A tick taking longer than
+ * the period is counted as an overrun, and the next tick then starts
+ * late instead of overlapping it.
+ */
+public class Simulation
+{
+    // the time between ticks unless set otherwise, in milliseconds.
+    public static final long DEFAULT_PERIOD = 1000;
+    // the number of games ticked by one task.
+    private static final int BATCH_SIZE = 64;
+
+    // the games being simulated.
+    private Set<Game> games;
+    // the time between ticks, in milliseconds.
+    private long period;
+    // the number of worker threads.
+    private int threads;
+    // runs the ticks at a fixed rate, null until started.
+    private ScheduledExecutorService clock;
+    // ticks the batches of games, null until started.
+    private ExecutorService workers;
+    // the tick metrics: the number of ticks, their total, longest
+    // and latest duration in nanoseconds, and the number of ticks
+    // that took longer than the period.
+    private long ticks;
+    private long totalNanos;
+    private long maxNanos;
+    private long lastNanos;
+    private long overruns;
+
+    /**
+     * Create a simulation ticking once per DEFAULT_PERIOD, with one
+     * worker thread per core.
+     */
+    public Simulation() {
+        this(DEFAULT_PERIOD, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a simulation ticking every "period" milliseconds once
+     * started.
+     * @param period The time between ticks, in milliseconds.
+     * @param threads The number of worker threads.
+     */
+    public Simulation(long period, int threads) {
+        this.period = period;
+        this.threads = threads;
+        games = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Start simulating "game". From now on its characters act on
+     * the simulation's ticks instead of after every command.
+     * @param game The game.
+     */
+    public void add(Game game) {
+        game.setSimulated(true);
+        games.add(game);
+    }
+
+    /**
+     * Stop simulating "game".
+     * @param game The game.
+     */
+    public void remove(Game game) {
+        games.remove(game);
+    }
+
+    /**
+     * Start ticking at a fixed rate.
+     */
+    public synchronized void start() {
+        if (clock != null) {
+            return;
+        }
+        AtomicInteger workerCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "simulation-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        clock = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "simulation-clock");
+            thread.setDaemon(true);
+            return thread;
+        });
+        clock.scheduleAtFixedRate(this::tick, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Print the metrics to "out" every "seconds" seconds, for as
+     * long as the simulation runs.
+     * @param out Where to print the metrics.
+     * @param seconds The time between reports.
+     */
+    public synchronized void reportTo(PrintStream out, long seconds) {
+        start();
+        clock.scheduleAtFixedRate(() -> out.println(getMetrics()), seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop ticking. Games being ticked finish their tick.
+     */
+    public synchronized void stop() {
+        if (clock != null) {
+            clock.shutdown();
+            workers.shutdown();
+            clock = null;
+            workers = null;
+        }
+    }
+
+    /**
+     * Tick every game once and record how long it took. Called by
+     * the clock, but may also be called directly on a simulation
+     * that hasn't been started, e.g. by benchmarks.
+     */
+    public void tick() {
+        long start = System.nanoTime();
+        ArrayList<Game> snapshot = new ArrayList<>(games);
+        ArrayList<Callable<Void>> batches = new ArrayList<>();
+        for (int from = 0; from < snapshot.size(); from += BATCH_SIZE) {
+            final List<Game> batch = snapshot.subList(from, Math.min(from + BATCH_SIZE, snapshot.size()));
+            batches.add(() -> {
+                for (Game game : batch) {
+                    tick(game);
+                }
+                return null;
+            });
+        }
+        ExecutorService pool = workers;
+        try {
+            if (pool == null || batches.size() == 1) {
+                for (Callable<Void> batch : batches) {
+                    batch.call();
+                }
+            } else {
+                pool.invokeAll(batches);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // tick(Game) handles every game's failures itself.
+        }
+        record(System.nanoTime() - start);
+    }
+
+    /**
+     * Tick one game, and stop simulating it once it's over or if
+     * it fails, so that one broken game can't stall the others.
+     * @param game The game.
+     */
+    private void tick(Game game) {
+        if (game.isFinished()) {
+            games.remove(game);
+            return;
+        }
+        try {
+            game.tick();
+        } catch (RuntimeException e) {
+            games.remove(game);
+            System.err.println("A game was removed from the simulation after failing: " + e);
+        }
+    }
+
+    /**
+     * Add a tick to the metrics.
+     * @param nanos The tick's duration.
+     */
+    private synchronized void record(long nanos) {
+        ticks++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+        lastNanos = nanos;
+        if (nanos > period * 1000000) {
+            overruns++;
+        }
+    }
+
+    /**
+     * Return the number of games being simulated.
+     * @return The number of games.
+     */
+    public int getGameCount() {
+        return games.size();
+    }
+
+    /**
+     * Return the number of ticks so far.
+     * @return The number of ticks.
+     */
+    public synchronized long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Return the average duration of a tick.
+     * @return The average duration, in nanoseconds.
+     */
+    public synchronized long getAverageTickNanos() {
+        return ticks == 0 ? 0 : totalNanos / ticks;
+    }
+
+    /**
+     * Return the duration of the longest tick.
+     * @return The longest duration, in nanoseconds.
+     */
+    public synchronized long getMaxTickNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Return the duration of the latest tick.
+     * @return The latest duration, in nanoseconds.
+     */
+    public synchronized long getLastTickNanos() {
+        return lastNanos;
+    }
+
+    /**
+     * Return the number of ticks that took longer than the period.
+     * @return The number of overruns.
+     */
+    public synchronized long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * Return the metrics as one line of text.
+     * @return The metrics.
+     */
+    public synchronized String getMetrics() {
+        return String.format("%d games, %d ticks: last %.2f ms, average %.2f ms, max %.2f ms, %d overruns",
+                             getGameCount(), ticks, lastNanos / 1e6, getAverageTickNanos() / 1e6, maxNanos / 1e6, overruns);
+    }
+}
@@ -0,0 +1,92 @@
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class SimulationLoadTest - ticks many games of a synthetic world on
+ * a Simulation while their players type as fast as they can, and
+ * reports the tick metrics every second. The ticks should keep their
+ * pace whatever the players do.
+ *
+ * Run the main method with any of these options (defaults in brackets):
+ *   games=N       number of games (100)
+ *   rooms=N       number of rooms in the world (1000)
+ *   characters=N  number of characters in every game (1000)
+ *   period=MS     milliseconds between ticks (100)
+ *   threads=N     worker threads (one per core)
+ *   players=N     games whose player types commands (all)
+ *   seconds=N     seconds to run (10)
+ */
+public class SimulationLoadTest
+{
+    // the options, by name.
+    private static TreeMap<String, String> options = new TreeMap<>();
+
+    /**
+     * Main method for running the load test.
+     * @param args Options of the form name=value.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        int gameCount = option("games", 100);
+        Simulation simulation = new Simulation(option("period", 100), option("threads", Runtime.getRuntime().availableProcessors()));
+        WorldTemplate world = SyntheticWorld.build(option("rooms", 1000), option("characters", 1000), 1, 0, 42);
+        PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+        ArrayList<Game> games = new ArrayList<>();
+        for (int i = 0; i < gameCount; i++) {
+            Game game = new Game(new Parser(InputStream.nullInputStream(), out), out, world);
+            game.start("Player");
+            simulation.add(game);
+            games.add(game);
+        }
+
+        // every player walks around and looks as fast as the game lets them.
+        Parser parser = new Parser(InputStream.nullInputStream(), out);
+        Command[] commands = {parser.parse("go east"), parser.parse("look"), parser.parse("go south"), parser.parse("take item 0-0"), parser.parse("go west"), parser.parse("go north")};
+        LongAdder commandCount = new LongAdder();
+        ArrayList<Thread> players = new ArrayList<>();
+        for (int i = 0; i < Math.min(option("players", gameCount), gameCount); i++) {
+            final Game game = games.get(i);
+            players.add(Thread.ofVirtual().start(() -> {
+                for (int j = 0; !Thread.currentThread().isInterrupted(); j++) {
+                    game.processCommand(commands[j % commands.length]);
+                    commandCount.increment();
+                }
+            }));
+        }
+
+        simulation.start();
+        System.out.printf("%d games, %d characters each, ticking every %d ms%n", gameCount, option("characters", 1000), option("period", 100));
+        long previousCommands = 0;
+        for (int second = 1; second <= option("seconds", 10); second++) {
+            Thread.sleep(1000);
+            long commandTotal = commandCount.sum();
+            System.out.printf("%3d s  %8d commands/s  %s%n", second, commandTotal - previousCommands, simulation.getMetrics());
+            previousCommands = commandTotal;
+        }
+        for (Thread player : players) {
+            player.interrupt();
+        }
+        simulation.stop();
+    }
+
+    /**
+     * Return the value of an integer option.
+     * @param name The option's name.
+     * @param defaultValue The value used when the option isn't given.
+     * @return The option's value.
+     */
+    private static int option(String name, int defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value);
+    }
+}
@@ -0,0 +1,443 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Class Snapshot - saves a game's whole state in a compact binary
+ * form and restores it, so that sessions survive a restart.
+ *
+ * A snapshot only holds what the game has changed: the player, the
+ * characters, the quests, and the rooms whose items or exits differ
+ * from the world's template. Rooms, items and characters' locations
+ * are referred to by their index in the template, so a snapshot can
+ * only be restored into a game of the same world. Numbers are written
+ * as variable-length integers, and every distinct string is written
+ * once and referred to by number after that, so snapshots of large
+ * worlds stay small. How the game is hosted isn't part of it: the
+ * restored game's parser, sink, log and whether it's simulated are
+ * set by whoever restores it.
+ *
+ * A snapshot starts with "ZDS1", the version of the form and the
+ * sizes of the world, which are checked when it's restored.
+ */
+public class Snapshot
+{
+    // the first four bytes of a snapshot: "ZDS1".
+    private static final int MAGIC = 0x5A445331;
+    // the version of the form.
+    private static final int VERSION = 1;
+
+    /**
+     * Write a snapshot of "game" to "channel".
+     * @param game The game.
+     * @param channel Where the snapshot is written.
+     * @return The size of the snapshot in bytes.
+     * @throws IOException If the snapshot can't be written.
+     */
+    public static int write(Game game, WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = write(game);
+        int size = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return size;
+    }
+
+    /**
+     * Write a snapshot of "game" to the file "path", replacing it.
+     * The file is forced to the disk before this returns.
+     * @param game The game.
+     * @param path The file.
+     * @return The size of the snapshot in bytes.
+     * @throws IOException If the file can't be written.
+     */
+    public static int write(Game game, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            int size = write(game, channel);
+            channel.force(false);
+            return size;
+        }
+    }
+
+    /**
+     * Take a snapshot of "game".
+     * @param game The game.
+     * @return The snapshot, ready to be read from.
+     * @throws IllegalStateException If the game hasn't started.
+     */
+    public static ByteBuffer write(Game game) {
+        if (game.getWorld() == null) {
+            throw new IllegalStateException("The game hasn't started.");
+        }
+        WorldTemplate world = game.getWorld().getTemplate();
+        Writer out = new Writer();
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeNumber(world.getRoomCount());
+        out.writeNumber(world.getItemCount());
+        out.writeNumber(world.getCharacterCount());
+        game.writeSnapshot(out);
+        return out.finish();
+    }
+
+    /**
+     * Restore a game from the snapshot in the file "path".
+     * @param path The file.
+     * @param parser The source of the player's commands.
+     * @param sink Receives everything the player is told.
+     * @param world The world the game was played in.
+     * @return The game, ready for its next command.
+     * @throws IOException If the file can't be read or isn't a
+     * snapshot of a game of this world.
+     */
+    public static Game read(Path path, Parser parser, EventSink sink, WorldTemplate world) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException(path + ": the snapshot is truncated.");
+                }
+            }
+            buffer.flip();
+            return read(buffer, parser, sink, world);
+        }
+    }
+
+    /**
+     * Restore a game from the snapshot read from "channel".
+     * @param channel The channel, read to its end.
+     * @param parser The source of the player's commands.
+     * @param sink Receives everything the player is told.
+     * @param world The world the game was played in.
+     * @return The game, ready for its next command.
+     * @throws IOException If the channel can't be read or doesn't
+     * hold a snapshot of a game of this world.
+     */
+    public static Game read(ReadableByteChannel channel, Parser parser, EventSink sink, WorldTemplate world) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (channel.read(buffer) >= 0) {
+            if (!buffer.hasRemaining()) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+            }
+        }
+        buffer.flip();
+        return read(buffer, parser, sink, world);
+    }
+
+    /**
+     * Restore a game from a snapshot.
+     * @param buffer The snapshot, from its position to its limit.
+     * @param parser The source of the player's commands.
+     * @param sink Receives everything the player is told.
+     * @param world The world the game was played in.
+     * @return The game, ready for its next command.
+     * @throws IOException If the buffer doesn't hold a snapshot of a
+     * game of this world.
+     */
+    public static Game read(ByteBuffer buffer, Parser parser, EventSink sink, WorldTemplate world) throws IOException {
+        try {
+            Reader in = new Reader(buffer);
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a snapshot.");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ".");
+            }
+            if (in.readNumber() != world.getRoomCount() || in.readNumber() != world.getItemCount() || in.readNumber() != world.getCharacterCount()) {
+                throw new IOException("The snapshot is of a game of another world.");
+            }
+            Game game = new Game(parser, sink, world);
+            game.readSnapshot(in);
+            return game;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+            throw new IOException("The snapshot is damaged.", e);
+        }
+    }
+
+    /**
+     * Restore a game from a snapshot, for games nobody plays, e.g.
+     * to check a snapshot. Its events are dropped.
+     * @param buffer The snapshot, from its position to its limit.
+     * @param world The world the game was played in.
+     * @return The game.
+     * @throws IOException If the buffer doesn't hold a snapshot of a
+     * game of this world.
+     */
+    public static Game read(ByteBuffer buffer, WorldTemplate world) throws IOException {
+        PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+        return read(buffer, new Parser(InputStream.nullInputStream(), out), events -> { }, world);
+    }
+
+    /**
+     * Writes the parts of a snapshot into a buffer that grows as
+     * needed.
+     */
+    public static class Writer
+    {
+        // the snapshot so far.
+        private ByteBuffer buffer;
+        // the numbers of the strings written so far.
+        private HashMap<String, Integer> strings;
+
+        /**
+         * Create an empty writer.
+         */
+        public Writer() {
+            buffer = ByteBuffer.allocate(1024);
+            strings = new HashMap<>();
+        }
+
+        /**
+         * Make room for at least "bytes" more bytes.
+         */
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer = grown.put(buffer.flip());
+            }
+        }
+
+        /**
+         * Write four bytes.
+         * @param value The value.
+         */
+        public void writeInt(int value) {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        /**
+         * Write eight bytes.
+         * @param value The value.
+         */
+        public void writeLong(long value) {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        /**
+         * Write a double in eight bytes.
+         * @param value The value.
+         */
+        public void writeDouble(double value) {
+            ensure(8);
+            buffer.putDouble(value);
+        }
+
+        /**
+         * Write a boolean in one byte.
+         * @param value The value.
+         */
+        public void writeBoolean(boolean value) {
+            ensure(1);
+            buffer.put((byte) (value ? 1 : 0));
+        }
+
+        /**
+         * Write a number in as few bytes as it needs: seven bits per
+         * byte, with the top bit set on every byte but the last.
+         * Small negative numbers, such as WorldTemplate.NONE, are
+         * short too.
+         * @param value The number.
+         */
+        public void writeNumber(int value) {
+            ensure(5);
+            int bits = (value << 1) ^ (value >> 31);
+            while ((bits & ~0x7F) != 0) {
+                buffer.put((byte) ((bits & 0x7F) | 0x80));
+                bits >>>= 7;
+            }
+            buffer.put((byte) bits);
+        }
+
+        /**
+         * Write a string. The first time a string is written its
+         * bytes follow, afterwards only its number.
+         * @param value The string, may be null.
+         */
+        public void writeString(String value) {
+            if (value == null) {
+                writeNumber(-1);
+                return;
+            }
+            Integer number = strings.get(value);
+            if (number != null) {
+                writeNumber(number + 1);
+                return;
+            }
+            strings.put(value, strings.size());
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeNumber(0);
+            writeNumber(bytes.length);
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+
+        /**
+         * Finish the snapshot.
+         * @return The snapshot, ready to be read from.
+         */
+        public ByteBuffer finish() {
+            return buffer.flip();
+        }
+    }
+
+    /**
+     * Reads the parts of a snapshot in the order they were written.
+     */
+    public static class Reader
+    {
+        // the snapshot.
+        private ByteBuffer buffer;
+        // the strings read so far, by number.
+        private ArrayList<String> strings;
+
+        /**
+         * Create a reader of the snapshot in "buffer".
+         * @param buffer The snapshot, from its position to its limit.
+         */
+        public Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+            strings = new ArrayList<>();
+        }
+
+        /**
+         * @return The next four bytes as an int.
+         */
+        public int readInt() {
+            return buffer.getInt();
+        }
+
+        /**
+         * @return The next eight bytes as a long.
+         */
+        public long readLong() {
+            return buffer.getLong();
+        }
+
+        /**
+         * @return The next eight bytes as a double.
+         */
+        public double readDouble() {
+            return buffer.getDouble();
+        }
+
+        /**
+         * @return The next byte as a boolean.
+         */
+        public boolean readBoolean() {
+            return buffer.get() != 0;
+        }
+
+        /**
+         * @return The next number (see Writer.writeNumber).
+         */
+        public int readNumber() {
+            int bits = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (shift > 28) {
+                    throw new IllegalArgumentException("Number too long.");
+                }
+                byte b = buffer.get();
+                bits |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            return (bits >>> 1) ^ -(bits & 1);
+        }
+
+        /**
+         * Read the number of things that follow, each taking at least
+         * "bytesEach" bytes, so a damaged count can't make the reader
+         * allocate more than the snapshot could hold.
+         * @param bytesEach The fewest bytes one of the things takes.
+         * @return The count.
+         * @throws IOException If the count is negative or more than the
+         * rest of the snapshot can hold.
+         */
+        public int readCount(int bytesEach) throws IOException {
+            int count = readNumber();
+            if (count < 0 || count > buffer.remaining() / bytesEach) {
+                throw new IOException("The snapshot is damaged: a count of " + count + " with " + buffer.remaining() + " bytes left.");
+            }
+            return count;
+        }
+
+        /**
+         * Read the index of one of "count" things, e.g. the rooms of
+         * the world.
+         * @param count The number of things.
+         * @return The index, from 0 up to "count".
+         * @throws IOException If the index is out of that range.
+         */
+        public int readIndex(int count) throws IOException {
+            int index = readNumber();
+            if (index < 0 || index >= count) {
+                throw new IOException("The snapshot is damaged: index " + index + " of " + count + ".");
+            }
+            return index;
+        }
+
+        /**
+         * Read the index of one of "count" things, or NONE.
+         * @param count The number of things.
+         * @return The index, or WorldTemplate.NONE.
+         * @throws IOException If the index is neither NONE nor in range.
+         */
+        public int readIndexOrNone(int count) throws IOException {
+            int index = readNumber();
+            if (index != WorldTemplate.NONE && (index < 0 || index >= count)) {
+                throw new IOException("The snapshot is damaged: index " + index + " of " + count + ".");
+            }
+            return index;
+        }
+
+        /**
+         * Read a string that must be there, such as a name.
+         * @return The string.
+         * @throws IOException If the snapshot holds null instead.
+         */
+        public String readName() throws IOException {
+            String value = readString();
+            if (value == null) {
+                throw new IOException("The snapshot is damaged: a name is missing.");
+            }
+            return value;
+        }
+
+        /**
+         * @return The next string (see Writer.writeString), may be null.
+         */
+        public String readString() {
+            int number = readNumber();
+            if (number == -1) {
+                return null;
+            }
+            if (number > 0) {
+                return strings.get(number - 1);
+            }
+            int length = readNumber();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IllegalArgumentException("Bad string length.");
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(value);
+            return value;
+        }
+    }
+}
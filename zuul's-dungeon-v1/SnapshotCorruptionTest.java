@@ -0,0 +1,123 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+
+/**
+ * Class SnapshotCorruptionTest - damages a snapshot of a game over and
+ * over and checks that restoring it either works or fails with an
+ * IOException, never with any other exception or error. The game is
+ * played into the dungeon first, so its snapshot holds quests,
+ * dialogue, histories and rooms whose items and exits have changed.
+ *
+ * Every damaged copy has a few bytes after the header changed at
+ * random, a number overwritten with a large or negative one, or its
+ * end cut off.
+ *
+ * Run the main method with any of these options (defaults in brackets):
+ *   copies=N      number of damaged copies (20000)
+ *   seed=N        seed of the damage (1)
+ */
+public class SnapshotCorruptionTest
+{
+    // the options, by name.
+    private static TreeMap<String, String> options = new TreeMap<>();
+    // what the player types before the snapshot is taken.
+    private static final String[] COMMANDS = {"go south", "go down", "go down", "go west", "take bread loaf", "take note from kidnappers",
+                                              "go east", "go north", "take crude key", "go south", "use crude key", "go south", "go east",
+                                              "use crude key", "say hi", "go north", "give hrangst jaltibrond bread loaf", "go back"};
+    // the snapshot's magic number and version, which aren't damaged.
+    private static final int HEADER = 8;
+
+    /**
+     * Main method for running the test.
+     * @param args Options of the form name=value.
+     */
+    public static void main(String[] args) throws IOException {
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        int copies = Integer.parseInt(options.getOrDefault("copies", "20000"));
+        SplittableRandom random = new SplittableRandom(Long.parseLong(options.getOrDefault("seed", "1")));
+
+        WorldTemplate world = Game.getStandardWorld();
+        PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+        Parser parser = new Parser(InputStream.nullInputStream(), out);
+        Game game = new Game(parser, out, world);
+        game.setSeed(42);
+        game.start("Tester");
+        for (String command : COMMANDS) {
+            game.processCommand(parser.parse(command));
+        }
+        byte[] snapshot = snapshotBytes(game);
+        Snapshot.read(ByteBuffer.wrap(snapshot), world);
+
+        int loaded = 0;
+        int rejected = 0;
+        TreeMap<String, Integer> failures = new TreeMap<>();
+        for (int copy = 0; copy < copies; copy++) {
+            byte[] damaged = damage(snapshot, random);
+            try {
+                Snapshot.read(ByteBuffer.wrap(damaged), world);
+                loaded++;
+            } catch (IOException e) {
+                rejected++;
+            } catch (RuntimeException | Error e) {
+                failures.merge(e.getClass().getName(), 1, Integer::sum);
+            }
+        }
+        System.out.printf("%d byte snapshot, %d damaged copies: %d restored, %d rejected with an IOException%n", snapshot.length, copies, loaded, rejected);
+        if (!failures.isEmpty()) {
+            for (String failure : failures.keySet()) {
+                System.out.printf("  %6d threw %s%n", failures.get(failure), failure);
+            }
+            throw new IllegalStateException("A damaged snapshot failed with something other than an IOException.");
+        }
+        System.out.println("Every damaged snapshot was restored or rejected with an IOException.");
+    }
+
+    /**
+     * Return the snapshot of "game", as Snapshot.write writes it.
+     * @param game The game.
+     * @return The snapshot.
+     */
+    private static byte[] snapshotBytes(Game game) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Snapshot.write(game, Channels.newChannel(bytes));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Return a copy of "snapshot" damaged after its header.
+     * @param snapshot The snapshot.
+     * @param random Decides the damage.
+     * @return The damaged copy.
+     */
+    private static byte[] damage(byte[] snapshot, SplittableRandom random) {
+        byte[] damaged = snapshot.clone();
+        switch (random.nextInt(3)) {
+            case 0:
+                for (int changes = 1 + random.nextInt(4); changes > 0; changes--) {
+                    damaged[HEADER + random.nextInt(damaged.length - HEADER)] = (byte) random.nextInt(256);
+                }
+                return damaged;
+            case 1:
+                // a five byte number: large, or negative once zigzag decoded.
+                int at = HEADER + random.nextInt(damaged.length - HEADER - 5);
+                for (int i = 0; i < 4; i++) {
+                    damaged[at + i] = (byte) (0x80 | random.nextInt(128));
+                }
+                damaged[at + 4] = (byte) random.nextInt(16);
+                return damaged;
+            default:
+                return Arrays.copyOf(damaged, HEADER + random.nextInt(damaged.length - HEADER));
+        }
+    }
+}
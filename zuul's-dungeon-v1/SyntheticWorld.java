@@ -0,0 +1,85 @@
+import java.util.Random;
+
+/**
+ * Class SyntheticWorld - builds worlds of any size, for benchmarks and
+ * load tests. The rooms form a square grid connected north, south, east
+ * and west. Items are spread evenly over the rooms and characters are
+ * placed at random; they all wander, except the first one, who stays in
+ * the starting room so that there's always somebody near the player.
+ */
+public class SyntheticWorld
+{
+    // a description of typical length, shared by all rooms.
+    private static final String DESCRIPTION = "in a damp corridor of the dungeon. Torches are put at regular intervals, illuminating the moist rock, and the dripping of water echoes from somewhere further away.";
+
+    /**
+     * Build a world starting in its first room.
+     * @param roomCount The number of rooms.
+     * @param characterCount The number of characters besides the player.
+     * @param itemsPerRoom The number of items in every room.
+     * @param inventorySize The number of items the player carries.
+     * @param seed The seed deciding where characters are placed.
+     * @return The world.
+     */
+    public static WorldTemplate build(int roomCount, int characterCount, int itemsPerRoom, int inventorySize, long seed) {
+        Random random = new Random(seed);
+        int width = (int) Math.ceil(Math.sqrt(roomCount));
+        WorldTemplate.Builder world = new WorldTemplate.Builder();
+        for (int i = 0; i < roomCount; i++) {
+            world.addRoom(roomName(i), DESCRIPTION);
+        }
+        for (int i = 0; i < roomCount; i++) {
+            int column = i % width;
+            if (i >= width) {
+                world.addExit(i, "north", i - width, true, WorldTemplate.NONE);
+            }
+            if (i + width < roomCount) {
+                world.addExit(i, "south", i + width, true, WorldTemplate.NONE);
+            }
+            if (column > 0) {
+                world.addExit(i, "west", i - 1, true, WorldTemplate.NONE);
+            }
+            if (column < width - 1 && i + 1 < roomCount) {
+                world.addExit(i, "east", i + 1, true, WorldTemplate.NONE);
+            }
+        }
+        for (int i = 0; i < roomCount; i++) {
+            for (int j = 0; j < itemsPerRoom; j++) {
+                Item item = new Item("Item " + i + "-" + j, "A synthetic item.", 0.1, "none", 0, true, "miscellaneous", "Nothing happens.", false);
+                world.addItem(item, i, WorldTemplate.NONE);
+            }
+        }
+        for (int i = 0; i < characterCount; i++) {
+            int room = i == 0 ? 0 : random.nextInt(roomCount);
+            int character = world.addCharacter(characterName(i), 50, 10, 100, i != 0, false, room);
+            world.addDialogue(character, "pardon", "Pardon?");
+            world.addDialogue(character, "greetingsNear", "You hear someone in the adjoining room.");
+            world.addDialogue(character, "greetingsSame", characterName(i) + ": Well met.");
+            world.addDialogue(character, "salutations", "Hello, stranger.");
+        }
+        world.setStart(0);
+        for (int i = 0; i < inventorySize; i++) {
+            Item item = new Item("Trinket " + i, "A synthetic trinket.", 0.01, "none", 0, true, "miscellaneous", "Nothing happens.", false);
+            world.addStartItem(world.addItem(item, WorldTemplate.NONE, WorldTemplate.NONE));
+        }
+        return world.build();
+    }
+    
+    /**
+     * Return the name of room number "i".
+     * @param i The room's number.
+     * @return The room's name.
+     */
+    public static String roomName(int i) {
+        return "room" + i;
+    }
+    
+    /**
+     * Return the name of character number "i".
+     * @param i The character's number.
+     * @return The character's name.
+     */
+    public static String characterName(int i) {
+        return "Npc" + i;
+    }
+}
@@ -0,0 +1,44 @@
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Class TextSink - renders a game's events as text and prints them.
+ * The events of a command are rendered into one buffer and printed
+ * with a single write, so a command takes the stream's lock once
+ * however much it prints.
+ */
+public class TextSink implements EventSink
+{
+    // where the text is printed.
+    private PrintStream out;
+    // the text of the events being printed, reused between commands.
+    private StringBuilder text;
+
+    /**
+     * Create a sink printing to "out".
+     * @param out Where the text is printed.
+     */
+    public TextSink(PrintStream out) {
+        this.out = out;
+        text = new StringBuilder();
+    }
+
+    /**
+     * Render the events and print their text.
+     * @param events The events.
+     */
+    public void accept(List<GameEvent> events) {
+        for (GameEvent event : events) {
+            event.render(text);
+        }
+        out.print(text.toString());
+        text.setLength(0);
+    }
+
+    /**
+     * Flush the stream.
+     */
+    public void flush() {
+        out.flush();
+    }
+}
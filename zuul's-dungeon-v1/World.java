@@ -0,0 +1,88 @@
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class World - one game's copy of a WorldTemplate. The template holds
+ * everything that's the same for every game, such as descriptions and
+ * items, and is shared by all games played in it; a World only holds
+ * what its game has touched. Rooms are created from the template when
+ * the game first reaches them, and each room copies its exits and items
+ * only when they're first used or changed, so a game costs kilobytes no
+ * matter how large the world is. Rooms may be looked up from several
+ * threads at once, e.g. while characters move in parallel.
+ */
+public class World
+{
+    // the template the world is copied from.
+    private WorldTemplate template;
+    // the rooms created so far, by index.
+    private ConcurrentHashMap<Integer, Room> rooms;
+
+    /**
+     * Create a world copied from "template". Nothing is copied yet.
+     * @param template The template.
+     */
+    public World(WorldTemplate template) {
+        this.template = template;
+        rooms = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Return the room with index "index", creating it if this is the
+     * first time it's needed.
+     * @param index The room's index in the template.
+     * @return The room, or null if the index is WorldTemplate.NONE.
+     */
+    public Room getRoom(int index) {
+        if (index == WorldTemplate.NONE) {
+            return null;
+        }
+        Room room = rooms.get(index);
+        if (room == null) {
+            room = rooms.computeIfAbsent(index, created -> new Room(this, created));
+        }
+        return room;
+    }
+
+    /**
+     * Return the room named "name" (case insensitive).
+     * @param name The room's name.
+     * @return The room, or null if there's no such room.
+     */
+    public Room getRoom(String name) {
+        return getRoom(template.getRoomIndex(name));
+    }
+
+    /**
+     * Return the item named "name" (case insensitive). Items never
+     * change, so they're shared with the template.
+     * @param name The item's name.
+     * @return The item, or null if there's no such item.
+     */
+    public Item getItem(String name) {
+        int item = template.getItemIndex(name);
+        return item == WorldTemplate.NONE ? null : template.getItem(item);
+    }
+
+    /**
+     * @return The template the world is copied from.
+     */
+    public WorldTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * Return the rooms created so far, in no particular order.
+     * @return The rooms.
+     */
+    public Collection<Room> getRooms() {
+        return rooms.values();
+    }
+    
+    /**
+     * @return The number of rooms created so far.
+     */
+    public int getRoomsCreated() {
+        return rooms.size();
+    }
+}
@@ -0,0 +1,477 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Class WorldLoader - reads and writes world files, so that the world
+ * can be changed without recompiling the game.
+ *
+ * World files come in two forms. The text form is meant to be written
+ * by hand: one record per line, its fields separated by tabs, in which
+ * "\n", "\t" and "\\" stand for a new line, a tab and a backslash.
+ * Empty lines and lines starting with "#" are skipped. The records are
+ *   intro      text
+ *   quest      name  parts
+ *   room       name  description
+ *   character  name  capacity  damage  health  moveable  hostile  room
+ *   dialogue   character  wordGroup  response
+ *   item       name  description  weight  parameterType  parameter
+ *              takeable  type  use  questItem  place
+ *   exit       from  direction  to  unlocked  key
+ *   start      room  item...
+ * A name must be defined before it's referred to. Empty places, exit
+ * targets and keys mean none.
+ *
+ * The binary form is compiled from the text form and is what large
+ * worlds should be shipped as. It refers to everything by index, keeps
+ * each distinct string only once and is memory mapped when loaded, so
+ * no parsing or name lookups are needed.
+ *
+ * Run the main method to write or compile world files:
+ *   export FILE     write the standard world to FILE, in text form
+ *   compile IN OUT  compile the world file IN to binary form in OUT
+ */
+public class WorldLoader
+{
+    // the first four bytes of a binary world file: "ZDW1".
+    private static final int MAGIC = 0x5A445731;
+    // the version of the binary form.
+    private static final int VERSION = 1;
+
+    /**
+     * Main method for writing and compiling world files.
+     * @param args The command and its files.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("export")) {
+            writeText(Game.buildStandardWorld(), Paths.get(args[1]));
+        } else if (args.length == 3 && args[0].equals("compile")) {
+            writeBinary(load(Paths.get(args[1])), Paths.get(args[2]));
+        } else {
+            System.out.println("Usage: WorldLoader export FILE | compile IN OUT");
+        }
+    }
+
+    /**
+     * Load a world file of either form.
+     * @param path The world file.
+     * @return The world.
+     * @throws IOException If the file can't be read or isn't a valid world.
+     */
+    public static WorldTemplate load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            channel.read(magic, 0);
+            if (magic.position() == 4 && magic.getInt(0) == MAGIC) {
+                return loadBinary(channel, path);
+            }
+        }
+        return loadText(path);
+    }
+
+    /**
+     * Load a world file of the text form.
+     * @param path The world file.
+     * @return The world.
+     * @throws IOException If the file can't be read or isn't a valid world.
+     */
+    public static WorldTemplate loadText(Path path) throws IOException {
+        WorldTemplate.Builder world = new WorldTemplate.Builder();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            int lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    parseRecord(world, line.split("\t", -1));
+                } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                    throw new IOException(path + ":" + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        try {
+            return world.build();
+        } catch (IllegalStateException e) {
+            throw new IOException(path + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Add one record of the text form to the world.
+     * @param world The world being built.
+     * @param fields The record's fields, the first one being its type.
+     */
+    private static void parseRecord(WorldTemplate.Builder world, String[] fields) {
+        switch (fields[0]) {
+            case "intro":
+                world.setIntro(unescape(fields[1]));
+                break;
+            case "quest":
+                world.addQuest(unescape(fields[1]), Integer.parseInt(fields[2]));
+                break;
+            case "room":
+                world.addRoom(unescape(fields[1]), unescape(fields[2]));
+                break;
+            case "character":
+                world.addCharacter(unescape(fields[1]), Double.parseDouble(fields[2]), Integer.parseInt(fields[3]), Integer.parseInt(fields[4]), parseBoolean(fields[5]), parseBoolean(fields[6]), unescape(fields[7]));
+                break;
+            case "dialogue":
+                world.addDialogue(unescape(fields[1]), unescape(fields[2]), unescape(fields[3]));
+                break;
+            case "item":
+                world.addItem(unescape(fields[1]), unescape(fields[2]), Double.parseDouble(fields[3]), unescape(fields[4]), Integer.parseInt(fields[5]), parseBoolean(fields[6]), unescape(fields[7]), unescape(fields[8]), parseBoolean(fields[9]), unescape(fields[10]));
+                break;
+            case "exit":
+                world.addExit(unescape(fields[1]), unescape(fields[2]), fields[3].isEmpty() ? null : unescape(fields[3]), parseBoolean(fields[4]), fields[5].isEmpty() ? null : unescape(fields[5]));
+                break;
+            case "start":
+                String[] startItems = new String[fields.length - 2];
+                for (int i = 0; i < startItems.length; i++) {
+                    startItems[i] = unescape(fields[i + 2]);
+                }
+                world.setStart(unescape(fields[1]), startItems);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown record \"" + fields[0] + "\".");
+        }
+    }
+
+    /**
+     * Write a world in text form.
+     * @param world The world.
+     * @param path The file to write.
+     * @throws IOException If the file can't be written.
+     */
+    public static void writeText(WorldTemplate world, Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writeRecord(writer, "intro", escape(world.getIntro()));
+            for (int q = 0; q < world.getQuestCount(); q++) {
+                writeRecord(writer, "quest", escape(world.getQuestName(q)), Integer.toString(world.getQuestParts(q)));
+            }
+            for (int r = 0; r < world.getRoomCount(); r++) {
+                writeRecord(writer, "room", escape(world.getRoomName(r)), escape(world.getRoomDescription(r)));
+            }
+            for (int c = 0; c < world.getCharacterCount(); c++) {
+                writeRecord(writer, "character", escape(world.getCharacterName(c)), Double.toString(world.getCharacterCapacity(c)),
+                            Integer.toString(world.getCharacterDamage(c)), Integer.toString(world.getCharacterHealth(c)),
+                            Boolean.toString(world.getCharacterMoveable(c)), Boolean.toString(world.getCharacterHostile(c)),
+                            escape(world.getRoomName(world.getCharacterRoom(c))));
+            }
+            for (int c = 0; c < world.getCharacterCount(); c++) {
+                for (int d = world.getDialogueStart(c); d < world.getDialogueStart(c + 1); d++) {
+                    writeRecord(writer, "dialogue", escape(world.getCharacterName(c)), escape(world.getDialogueGroup(d)), escape(world.getDialogueResponse(d)));
+                }
+            }
+            for (int i = 0; i < world.getItemCount(); i++) {
+                Item item = world.getItem(i);
+                String place = "";
+                if (world.getItemRoom(i) != WorldTemplate.NONE) {
+                    place = world.getRoomName(world.getItemRoom(i));
+                } else if (world.getItemCharacter(i) != WorldTemplate.NONE) {
+                    place = world.getCharacterName(world.getItemCharacter(i));
+                }
+                writeRecord(writer, "item", escape(item.getName()), escape(item.getDescription()), Double.toString(item.getWeight()),
+                            escape(item.getParameterType()), Integer.toString(item.getParameter()), Boolean.toString(item.getTakeable()),
+                            escape(item.getType()), escape(item.printUse()), Boolean.toString(item.getQuestItem()), escape(place));
+            }
+            for (int r = 0; r < world.getRoomCount(); r++) {
+                for (int e = world.getExitStart(r); e < world.getExitStart(r + 1); e++) {
+                    int target = world.getExitTarget(e);
+                    int key = world.getExitKey(e);
+                    writeRecord(writer, "exit", escape(world.getRoomName(r)), escape(world.getExitDirection(e)),
+                                target == WorldTemplate.NONE ? "" : escape(world.getRoomName(target)),
+                                Boolean.toString(world.getExitUnlocked(e)),
+                                key == WorldTemplate.NONE ? "" : escape(world.getItem(key).getName()));
+                }
+            }
+            int[] startItems = world.getStartItems();
+            String[] start = new String[startItems.length + 1];
+            start[0] = escape(world.getRoomName(world.getStartRoom()));
+            for (int i = 0; i < startItems.length; i++) {
+                start[i + 1] = escape(world.getItem(startItems[i]).getName());
+            }
+            writeRecord(writer, "start", start);
+        }
+    }
+
+    /**
+     * Write one record of the text form.
+     */
+    private static void writeRecord(BufferedWriter writer, String type, String... fields) throws IOException {
+        writer.write(type);
+        for (String field : fields) {
+            writer.write('\t');
+            writer.write(field);
+        }
+        writer.newLine();
+    }
+
+    /**
+     * Load a world file of the binary form by mapping it into memory.
+     * @param channel The open world file.
+     * @param path The world file's path, for error messages.
+     * @return The world.
+     * @throws IOException If the file can't be read or isn't a valid world.
+     */
+    private static WorldTemplate loadBinary(FileChannel channel, Path path) throws IOException {
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        try {
+            buffer.getInt();
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException(path + ": unsupported world file version " + version + ".");
+            }
+            // every string takes at least its length, so counts and
+            // lengths larger than what's left of the file can only come
+            // from a damaged file, and mustn't be allocated.
+            int stringCount = buffer.getInt();
+            if (stringCount > buffer.remaining() / 4) {
+                throw new IOException(path + ": the world file is damaged.");
+            }
+            String[] strings = new String[stringCount];
+            byte[] bytes = new byte[256];
+            for (int i = 0; i < strings.length; i++) {
+                int length = buffer.getInt();
+                if (length > buffer.remaining()) {
+                    throw new IOException(path + ": the world file is damaged.");
+                }
+                if (length > bytes.length) {
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                }
+                buffer.get(bytes, 0, length);
+                strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            }
+
+            WorldTemplate.Builder world = new WorldTemplate.Builder();
+            world.setIntro(strings[buffer.getInt()]);
+            int count = buffer.getInt();
+            for (int q = 0; q < count; q++) {
+                world.addQuest(strings[buffer.getInt()], buffer.getInt());
+            }
+            count = buffer.getInt();
+            for (int r = 0; r < count; r++) {
+                world.addRoom(strings[buffer.getInt()], strings[buffer.getInt()]);
+            }
+            count = buffer.getInt();
+            for (int c = 0; c < count; c++) {
+                world.addCharacter(strings[buffer.getInt()], buffer.getDouble(), buffer.getInt(), buffer.getInt(), buffer.get() != 0, buffer.get() != 0, buffer.getInt());
+            }
+            count = buffer.getInt();
+            for (int d = 0; d < count; d++) {
+                world.addDialogue(buffer.getInt(), strings[buffer.getInt()], strings[buffer.getInt()]);
+            }
+            count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                Item item = new Item(strings[buffer.getInt()], strings[buffer.getInt()], buffer.getDouble(), strings[buffer.getInt()],
+                                     buffer.getInt(), buffer.get() != 0, strings[buffer.getInt()], strings[buffer.getInt()], buffer.get() != 0);
+                world.addItem(item, buffer.getInt(), buffer.getInt());
+            }
+            count = buffer.getInt();
+            for (int e = 0; e < count; e++) {
+                world.addExit(buffer.getInt(), strings[buffer.getInt()], buffer.getInt(), buffer.get() != 0, buffer.getInt());
+            }
+            world.setStart(buffer.getInt());
+            count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                world.addStartItem(buffer.getInt());
+            }
+            return world.build();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalStateException | IllegalArgumentException | NegativeArraySizeException e) {
+            throw new IOException(path + ": the world file is damaged.", e);
+        }
+    }
+
+    /**
+     * Write a world in binary form.
+     * @param world The world.
+     * @param path The file to write.
+     * @throws IOException If the file can't be written.
+     */
+    public static void writeBinary(WorldTemplate world, Path path) throws IOException {
+        // collect every distinct string, numbering them in order of appearance.
+        HashMap<String, Integer> index = new HashMap<>();
+        ArrayList<String> strings = new ArrayList<>();
+        intern(world.getIntro(), index, strings);
+        for (int q = 0; q < world.getQuestCount(); q++) {
+            intern(world.getQuestName(q), index, strings);
+        }
+        for (int r = 0; r < world.getRoomCount(); r++) {
+            intern(world.getRoomName(r), index, strings);
+            intern(world.getRoomDescription(r), index, strings);
+        }
+        for (int c = 0; c < world.getCharacterCount(); c++) {
+            intern(world.getCharacterName(c), index, strings);
+        }
+        for (int d = 0; d < world.getDialogueStart(world.getCharacterCount()); d++) {
+            intern(world.getDialogueGroup(d), index, strings);
+            intern(world.getDialogueResponse(d), index, strings);
+        }
+        for (int i = 0; i < world.getItemCount(); i++) {
+            Item item = world.getItem(i);
+            intern(item.getName(), index, strings);
+            intern(item.getDescription(), index, strings);
+            intern(item.getParameterType(), index, strings);
+            intern(item.getType(), index, strings);
+            intern(item.printUse(), index, strings);
+        }
+        int exitCount = world.getExitStart(world.getRoomCount());
+        for (int e = 0; e < exitCount; e++) {
+            intern(world.getExitDirection(e), index, strings);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(strings.size());
+            for (String string : strings) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(index.get(world.getIntro()));
+            out.writeInt(world.getQuestCount());
+            for (int q = 0; q < world.getQuestCount(); q++) {
+                out.writeInt(index.get(world.getQuestName(q)));
+                out.writeInt(world.getQuestParts(q));
+            }
+            out.writeInt(world.getRoomCount());
+            for (int r = 0; r < world.getRoomCount(); r++) {
+                out.writeInt(index.get(world.getRoomName(r)));
+                out.writeInt(index.get(world.getRoomDescription(r)));
+            }
+            out.writeInt(world.getCharacterCount());
+            for (int c = 0; c < world.getCharacterCount(); c++) {
+                out.writeInt(index.get(world.getCharacterName(c)));
+                out.writeDouble(world.getCharacterCapacity(c));
+                out.writeInt(world.getCharacterDamage(c));
+                out.writeInt(world.getCharacterHealth(c));
+                out.writeBoolean(world.getCharacterMoveable(c));
+                out.writeBoolean(world.getCharacterHostile(c));
+                out.writeInt(world.getCharacterRoom(c));
+            }
+            out.writeInt(world.getDialogueStart(world.getCharacterCount()));
+            for (int c = 0; c < world.getCharacterCount(); c++) {
+                for (int d = world.getDialogueStart(c); d < world.getDialogueStart(c + 1); d++) {
+                    out.writeInt(c);
+                    out.writeInt(index.get(world.getDialogueGroup(d)));
+                    out.writeInt(index.get(world.getDialogueResponse(d)));
+                }
+            }
+            out.writeInt(world.getItemCount());
+            for (int i = 0; i < world.getItemCount(); i++) {
+                Item item = world.getItem(i);
+                out.writeInt(index.get(item.getName()));
+                out.writeInt(index.get(item.getDescription()));
+                out.writeDouble(item.getWeight());
+                out.writeInt(index.get(item.getParameterType()));
+                out.writeInt(item.getParameter());
+                out.writeBoolean(item.getTakeable());
+                out.writeInt(index.get(item.getType()));
+                out.writeInt(index.get(item.printUse()));
+                out.writeBoolean(item.getQuestItem());
+                out.writeInt(world.getItemRoom(i));
+                out.writeInt(world.getItemCharacter(i));
+            }
+            out.writeInt(exitCount);
+            for (int r = 0; r < world.getRoomCount(); r++) {
+                for (int e = world.getExitStart(r); e < world.getExitStart(r + 1); e++) {
+                    out.writeInt(r);
+                    out.writeInt(index.get(world.getExitDirection(e)));
+                    out.writeInt(world.getExitTarget(e));
+                    out.writeBoolean(world.getExitUnlocked(e));
+                    out.writeInt(world.getExitKey(e));
+                }
+            }
+            out.writeInt(world.getStartRoom());
+            int[] startItems = world.getStartItems();
+            out.writeInt(startItems.length);
+            for (int item : startItems) {
+                out.writeInt(item);
+            }
+        }
+    }
+
+    /**
+     * Number "string" unless it already has a number.
+     */
+    private static void intern(String string, HashMap<String, Integer> index, ArrayList<String> strings) {
+        if (!index.containsKey(string)) {
+            index.put(string, strings.size());
+            strings.add(string);
+        }
+    }
+
+    /**
+     * Return a field of the text form as a boolean.
+     * @throws IllegalArgumentException If it's neither "true" nor "false".
+     */
+    private static boolean parseBoolean(String field) {
+        if (field.equals("true")) {
+            return true;
+        } else if (field.equals("false")) {
+            return false;
+        }
+        throw new IllegalArgumentException("Expected true or false, found \"" + field + "\".");
+    }
+
+    /**
+     * Replace tabs, new lines and backslashes by escapes.
+     */
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length() + 16);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                escaped.append("\\\\");
+            } else if (c == '\t') {
+                escaped.append("\\t");
+            } else if (c == '\n') {
+                escaped.append("\\n");
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Replace escapes by the characters they stand for.
+     */
+    private static String unescape(String field) {
+        if (field.indexOf('\\') < 0) {
+            return field;
+        }
+        StringBuilder text = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' && i + 1 < field.length()) {
+                char next = field.charAt(++i);
+                if (next == 'n') {
+                    text.append('\n');
+                } else if (next == 't') {
+                    text.append('\t');
+                } else {
+                    text.append(next);
+                }
+            } else {
+                text.append(c);
+            }
+        }
+        return text.toString();
+    }
+}
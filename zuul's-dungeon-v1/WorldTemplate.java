@@ -0,0 +1,786 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Class WorldTemplate - the definition of a world: its rooms, exits,
+ * items, characters, dialogue and quests, and where the player starts.
+ * Templates are built by a Builder, either from Java code (see
+ * Game.buildStandardWorld) or from a world file (see WorldLoader), and
+ * never change once built, so one template is shared by every game
+ * played in it. Each game keeps its own changes in a World.
+ *
+ * Everything is stored in arrays and refers to other parts of the world
+ * by index, so that worlds with hundreds of thousands of rooms load
+ * quickly and compactly. The exits of room r are the exits from
+ * getExitStart(r) up to getExitStart(r + 1).
+ */
+public class WorldTemplate
+{
+    // marks a missing room, item or character.
+    public static final int NONE = -1;
+
+    // the text printed when the game starts.
+    private String intro;
+    // the name and description of every room.
+    private String[] roomNames;
+    private String[] roomDescriptions;
+    // the exits, grouped by the room they leave from.
+    private int[] exitStart;
+    private String[] exitDirections;
+    private int[] exitTargets;
+    private boolean[] exitUnlocked;
+    private int[] exitKeys;
+    // the items, and where each of them is placed.
+    private Item[] items;
+    private int[] itemRooms;
+    private int[] itemCharacters;
+    // the items in each room, sorted by name like a room lists them.
+    private int[] roomItemStart;
+    private int[] roomItems;
+    // the items carried by characters at the start.
+    private int[] carriedItems;
+    // the characters' parameters.
+    private String[] characterNames;
+    private double[] characterCapacities;
+    private int[] characterDamages;
+    private int[] characterHealths;
+    private boolean[] characterMoveable;
+    private boolean[] characterHostile;
+    private int[] characterRooms;
+    // the dialogue, grouped by character.
+    private int[] dialogueStart;
+    private String[] dialogueGroups;
+    private String[] dialogueResponses;
+    // the quests and their number of parts.
+    private String[] questNames;
+    private int[] questParts;
+    // where the player starts and the items the player starts with.
+    private int startRoom;
+    private int[] startItems;
+    // map room and item names to their index (case insensitive).
+    private NameIndex<Integer> roomIndex;
+    private NameIndex<Integer> itemIndex;
+
+    /**
+     * Create a template from the parts collected by a builder.
+     */
+    private WorldTemplate(Builder builder) {
+        intro = builder.intro;
+        roomNames = builder.roomNames.toArray(new String[0]);
+        roomDescriptions = builder.roomDescriptions.toArray(new String[0]);
+
+        // sort the exits by the room they leave from, keeping the order
+        // they were added in within each room.
+        int exitCount = builder.exitFrom.size();
+        exitStart = new int[roomNames.length + 1];
+        for (int i = 0; i < exitCount; i++) {
+            exitStart[builder.exitFrom.get(i) + 1]++;
+        }
+        for (int r = 0; r < roomNames.length; r++) {
+            exitStart[r + 1] += exitStart[r];
+        }
+        int[] next = Arrays.copyOf(exitStart, roomNames.length);
+        exitDirections = new String[exitCount];
+        exitTargets = new int[exitCount];
+        exitUnlocked = new boolean[exitCount];
+        exitKeys = new int[exitCount];
+        for (int i = 0; i < exitCount; i++) {
+            int e = next[builder.exitFrom.get(i)]++;
+            exitDirections[e] = builder.exitDirections.get(i);
+            exitTargets[e] = builder.exitTargets.get(i);
+            exitUnlocked[e] = builder.exitUnlocked.get(i) != 0;
+            exitKeys[e] = builder.exitKeys.get(i);
+        }
+
+        items = builder.items.toArray(new Item[0]);
+        itemRooms = builder.itemRooms.toArray();
+        itemCharacters = builder.itemCharacters.toArray();
+        roomItemStart = new int[roomNames.length + 1];
+        int carriedCount = 0;
+        for (int i = 0; i < items.length; i++) {
+            if (itemRooms[i] != NONE) {
+                roomItemStart[itemRooms[i] + 1]++;
+            } else if (itemCharacters[i] != NONE) {
+                carriedCount++;
+            }
+        }
+        for (int r = 0; r < roomNames.length; r++) {
+            roomItemStart[r + 1] += roomItemStart[r];
+        }
+        next = Arrays.copyOf(roomItemStart, roomNames.length);
+        roomItems = new int[roomItemStart[roomNames.length]];
+        carriedItems = new int[carriedCount];
+        carriedCount = 0;
+        for (int i = 0; i < items.length; i++) {
+            if (itemRooms[i] != NONE) {
+                roomItems[next[itemRooms[i]]++] = i;
+            } else if (itemCharacters[i] != NONE) {
+                carriedItems[carriedCount++] = i;
+            }
+        }
+        for (int r = 0; r < roomNames.length; r++) {
+            sortByName(roomItems, roomItemStart[r], roomItemStart[r + 1]);
+        }
+
+        characterNames = builder.characterNames.toArray(new String[0]);
+        int characterCount = characterNames.length;
+        characterCapacities = new double[characterCount];
+        for (int i = 0; i < characterCount; i++) {
+            characterCapacities[i] = builder.characterCapacities.get(i);
+        }
+        characterDamages = builder.characterDamages.toArray();
+        characterHealths = builder.characterHealths.toArray();
+        characterMoveable = new boolean[characterCount];
+        characterHostile = new boolean[characterCount];
+        for (int i = 0; i < characterCount; i++) {
+            characterMoveable[i] = builder.characterMoveable.get(i) != 0;
+            characterHostile[i] = builder.characterHostile.get(i) != 0;
+        }
+        characterRooms = builder.characterRooms.toArray();
+
+        int dialogueCount = builder.dialogueCharacters.size();
+        dialogueStart = new int[characterCount + 1];
+        for (int i = 0; i < dialogueCount; i++) {
+            dialogueStart[builder.dialogueCharacters.get(i) + 1]++;
+        }
+        for (int c = 0; c < characterCount; c++) {
+            dialogueStart[c + 1] += dialogueStart[c];
+        }
+        next = Arrays.copyOf(dialogueStart, characterCount);
+        dialogueGroups = new String[dialogueCount];
+        dialogueResponses = new String[dialogueCount];
+        for (int i = 0; i < dialogueCount; i++) {
+            int d = next[builder.dialogueCharacters.get(i)]++;
+            dialogueGroups[d] = builder.dialogueGroups.get(i);
+            dialogueResponses[d] = builder.dialogueResponses.get(i);
+        }
+
+        questNames = builder.questNames.toArray(new String[0]);
+        questParts = builder.questParts.toArray();
+        startRoom = builder.startRoom;
+        startItems = builder.startItems.toArray();
+        roomIndex = builder.roomIndex;
+        itemIndex = builder.itemIndex;
+    }
+
+    /**
+     * Sort a few item indexes by the items' names, ignoring case.
+     * @param indexes The item indexes.
+     * @param from The first index to sort.
+     * @param to The index after the last one to sort.
+     */
+    private void sortByName(int[] indexes, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            int item = indexes[i];
+            int j = i;
+            while (j > from && String.CASE_INSENSITIVE_ORDER.compare(items[indexes[j - 1]].getName(), items[item].getName()) > 0) {
+                indexes[j] = indexes[j - 1];
+                j--;
+            }
+            indexes[j] = item;
+        }
+    }
+
+    /**
+     * Put the characters and the player of a new game in their starting
+     * rooms and give them their items, and add the quests. The game's
+     * World and player must already exist; the rooms are taken from
+     * the template as the game needs them.
+     * @param game The game to fill.
+     */
+    public void populate(Game game) {
+        World world = game.getWorld();
+        Character[] characters = new Character[characterNames.length];
+        for (int c = 0; c < characters.length; c++) {
+            characters[c] = game.initializeCharacter(characterNames[c], characterCapacities[c], characterDamages[c], characterHealths[c], characterMoveable[c], characterHostile[c], world.getRoom(characterRooms[c]));
+            for (int d = dialogueStart[c]; d < dialogueStart[c + 1]; d++) {
+                characters[c].addDialogue(dialogueGroups[d], dialogueResponses[d]);
+            }
+        }
+        for (int item : carriedItems) {
+            characters[itemCharacters[item]].addItem(items[item]);
+        }
+        for (int q = 0; q < questNames.length; q++) {
+            game.initializeQuest(questNames[q], questParts[q]);
+        }
+        Character player = game.getPlayer();
+        player.addLocationHistory(world.getRoom(startRoom));
+        for (int item : startItems) {
+            player.addItem(items[item]);
+        }
+    }
+
+    /**
+     * Return the index of the room named "name" (case insensitive).
+     * @param name The room's name.
+     * @return The room's index, or NONE if there's no such room.
+     */
+    public int getRoomIndex(String name) {
+        Integer room = roomIndex.get(name);
+        return room == null ? NONE : room;
+    }
+
+    /**
+     * Return the index of the item named "name" (case insensitive).
+     * @param name The item's name.
+     * @return The item's index, or NONE if there's no such item.
+     */
+    public int getItemIndex(String name) {
+        Integer item = itemIndex.get(name);
+        return item == null ? NONE : item;
+    }
+
+    /**
+     * @return The text printed when the game starts.
+     */
+    public String getIntro() {
+        return intro;
+    }
+
+    /**
+     * @return The number of rooms.
+     */
+    public int getRoomCount() {
+        return roomNames.length;
+    }
+
+    /**
+     * @return The name of room "room".
+     */
+    public String getRoomName(int room) {
+        return roomNames[room];
+    }
+
+    /**
+     * @return The description of room "room".
+     */
+    public String getRoomDescription(int room) {
+        return roomDescriptions[room];
+    }
+
+    /**
+     * Return the index of the first exit of room "room". The exits
+     * of the room end where the exits of the next room start.
+     * @param room The room's index, up to getRoomCount().
+     * @return The index of the room's first exit.
+     */
+    public int getExitStart(int room) {
+        return exitStart[room];
+    }
+
+    /**
+     * @return The direction of exit "exit".
+     */
+    public String getExitDirection(int exit) {
+        return exitDirections[exit];
+    }
+
+    /**
+     * @return The room exit "exit" leads to, or NONE.
+     */
+    public int getExitTarget(int exit) {
+        return exitTargets[exit];
+    }
+
+    /**
+     * @return True if exit "exit" starts out unlocked.
+     */
+    public boolean getExitUnlocked(int exit) {
+        return exitUnlocked[exit];
+    }
+
+    /**
+     * @return The item unlocking exit "exit", or NONE.
+     */
+    public int getExitKey(int exit) {
+        return exitKeys[exit];
+    }
+
+    /**
+     * @return The number of items.
+     */
+    public int getItemCount() {
+        return items.length;
+    }
+
+    /**
+     * @return Item "item".
+     */
+    public Item getItem(int item) {
+        return items[item];
+    }
+
+    /**
+     * @return The room item "item" starts in, or NONE.
+     */
+    public int getItemRoom(int item) {
+        return itemRooms[item];
+    }
+
+    /**
+     * Return the index of the first item in room "room", in the order
+     * of getRoomItem. The items of the room end where the items of the
+     * next room start.
+     * @param room The room's index, up to getRoomCount().
+     * @return The index of the room's first item.
+     */
+    public int getRoomItemStart(int room) {
+        return roomItemStart[room];
+    }
+
+    /**
+     * @return The item at position "position" of the rooms' item lists.
+     */
+    public int getRoomItem(int position) {
+        return roomItems[position];
+    }
+
+    /**
+     * @return The character carrying item "item" at the start, or NONE.
+     */
+    public int getItemCharacter(int item) {
+        return itemCharacters[item];
+    }
+
+    /**
+     * @return The number of characters.
+     */
+    public int getCharacterCount() {
+        return characterNames.length;
+    }
+
+    /**
+     * @return The name of character "character".
+     */
+    public String getCharacterName(int character) {
+        return characterNames[character];
+    }
+
+    /**
+     * @return The carrying capacity of character "character".
+     */
+    public double getCharacterCapacity(int character) {
+        return characterCapacities[character];
+    }
+
+    /**
+     * @return The initial damage of character "character".
+     */
+    public int getCharacterDamage(int character) {
+        return characterDamages[character];
+    }
+
+    /**
+     * @return The initial health of character "character".
+     */
+    public int getCharacterHealth(int character) {
+        return characterHealths[character];
+    }
+
+    /**
+     * @return The initial moveable status of character "character".
+     */
+    public boolean getCharacterMoveable(int character) {
+        return characterMoveable[character];
+    }
+
+    /**
+     * @return The initial hostile status of character "character".
+     */
+    public boolean getCharacterHostile(int character) {
+        return characterHostile[character];
+    }
+
+    /**
+     * @return The room character "character" starts in.
+     */
+    public int getCharacterRoom(int character) {
+        return characterRooms[character];
+    }
+
+    /**
+     * Return the index of the first dialogue line of "character". The
+     * lines of the character end where those of the next one start.
+     * @param character The character's index, up to getCharacterCount().
+     * @return The index of the character's first dialogue line.
+     */
+    public int getDialogueStart(int character) {
+        return dialogueStart[character];
+    }
+
+    /**
+     * @return The word group dialogue line "line" responds to.
+     */
+    public String getDialogueGroup(int line) {
+        return dialogueGroups[line];
+    }
+
+    /**
+     * @return The response of dialogue line "line".
+     */
+    public String getDialogueResponse(int line) {
+        return dialogueResponses[line];
+    }
+
+    /**
+     * @return The number of quests.
+     */
+    public int getQuestCount() {
+        return questNames.length;
+    }
+
+    /**
+     * @return The name of quest "quest".
+     */
+    public String getQuestName(int quest) {
+        return questNames[quest];
+    }
+
+    /**
+     * @return The number of parts of quest "quest".
+     */
+    public int getQuestParts(int quest) {
+        return questParts[quest];
+    }
+
+    /**
+     * @return The room the player starts in.
+     */
+    public int getStartRoom() {
+        return startRoom;
+    }
+
+    /**
+     * @return The items the player starts with.
+     */
+    public int[] getStartItems() {
+        return startItems.clone();
+    }
+
+    /**
+     * Collects the parts of a world and builds the template. Parts may
+     * be referred to by index or by name; a name must be defined before
+     * it's referred to, so define rooms first, then characters, items
+     * and finally exits.
+     */
+    public static class Builder
+    {
+        // the parts collected so far, named like the template's fields.
+        private String intro = "";
+        private ArrayList<String> roomNames = new ArrayList<>();
+        private ArrayList<String> roomDescriptions = new ArrayList<>();
+        private IntList exitFrom = new IntList();
+        private ArrayList<String> exitDirections = new ArrayList<>();
+        private IntList exitTargets = new IntList();
+        private IntList exitUnlocked = new IntList();
+        private IntList exitKeys = new IntList();
+        private ArrayList<Item> items = new ArrayList<>();
+        private IntList itemRooms = new IntList();
+        private IntList itemCharacters = new IntList();
+        private ArrayList<String> characterNames = new ArrayList<>();
+        private ArrayList<Double> characterCapacities = new ArrayList<>();
+        private IntList characterDamages = new IntList();
+        private IntList characterHealths = new IntList();
+        private IntList characterMoveable = new IntList();
+        private IntList characterHostile = new IntList();
+        private IntList characterRooms = new IntList();
+        private IntList dialogueCharacters = new IntList();
+        private ArrayList<String> dialogueGroups = new ArrayList<>();
+        private ArrayList<String> dialogueResponses = new ArrayList<>();
+        private ArrayList<String> questNames = new ArrayList<>();
+        private IntList questParts = new IntList();
+        private int startRoom = NONE;
+        private IntList startItems = new IntList();
+        // map names to indexes (case insensitive), for parts referred
+        // to by name.
+        private NameIndex<Integer> roomIndex = new NameIndex<>();
+        private NameIndex<Integer> itemIndex = new NameIndex<>();
+        private NameIndex<Integer> characterIndex = new NameIndex<>();
+
+        /**
+         * Set the text printed when the game starts.
+         * @param intro The text.
+         */
+        public void setIntro(String intro) {
+            this.intro = intro;
+        }
+
+        /**
+         * Add a quest with a defined number of parts.
+         * @param name Name of the quest.
+         * @param parts Number of parts.
+         */
+        public void addQuest(String name, int parts) {
+            questNames.add(name);
+            questParts.add(parts);
+        }
+
+        /**
+         * Add a room.
+         * @param name The room's name.
+         * @param description The room's description.
+         * @return The room's index.
+         */
+        public int addRoom(String name, String description) {
+            roomIndex.put(name, roomNames.size());
+            roomNames.add(name);
+            roomDescriptions.add(description);
+            return roomNames.size() - 1;
+        }
+
+        /**
+         * Add an exit between rooms given by name.
+         * @param from The room the exit leaves from.
+         * @param direction The direction of the exit.
+         * @param to The room the exit leads to, null if none.
+         * @param unlocked The lock status of the exit.
+         * @param key The item unlocking the exit, null if none.
+         */
+        public void addExit(String from, String direction, String to, boolean unlocked, String key) {
+            addExit(room(from), direction, to == null ? NONE : room(to), unlocked, key == null ? NONE : item(key));
+        }
+
+        /**
+         * Add an exit between rooms given by index.
+         * @param from The room the exit leaves from.
+         * @param direction The direction of the exit.
+         * @param to The room the exit leads to, or NONE.
+         * @param unlocked The lock status of the exit.
+         * @param key The item unlocking the exit, or NONE.
+         */
+        public void addExit(int from, String direction, int to, boolean unlocked, int key) {
+            exitFrom.add(from);
+            exitDirections.add(direction);
+            exitTargets.add(to);
+            exitUnlocked.add(unlocked ? 1 : 0);
+            exitKeys.add(key);
+        }
+
+        /**
+         * Add a character, starting in a room given by name.
+         * @return The character's index.
+         * @see Character
+         */
+        public int addCharacter(String name, double capacity, int damage, int health, boolean moveable, boolean hostile, String room) {
+            return addCharacter(name, capacity, damage, health, moveable, hostile, room(room));
+        }
+
+        /**
+         * Add a character, starting in a room given by index.
+         * @return The character's index.
+         * @see Character
+         */
+        public int addCharacter(String name, double capacity, int damage, int health, boolean moveable, boolean hostile, int room) {
+            characterIndex.put(name, characterNames.size());
+            characterNames.add(name);
+            characterCapacities.add(capacity);
+            characterDamages.add(damage);
+            characterHealths.add(health);
+            characterMoveable.add(moveable ? 1 : 0);
+            characterHostile.add(hostile ? 1 : 0);
+            characterRooms.add(room);
+            return characterNames.size() - 1;
+        }
+
+        /**
+         * Add a dialogue option for a character given by name.
+         * @param character The character's name.
+         * @param wordGroup The type of action to reply to.
+         * @param response The response.
+         */
+        public void addDialogue(String character, String wordGroup, String response) {
+            addDialogue(character(character), wordGroup, response);
+        }
+
+        /**
+         * Add a dialogue option for a character given by index.
+         * @param character The character's index.
+         * @param wordGroup The type of action to reply to.
+         * @param response The response.
+         */
+        public void addDialogue(int character, String wordGroup, String response) {
+            dialogueCharacters.add(character);
+            dialogueGroups.add(wordGroup);
+            dialogueResponses.add(response);
+        }
+
+        /**
+         * Add an item, placed in the room or with the character named
+         * "place". The item is not placed if "place" names neither.
+         * The use description may contain "{player}", which is replaced
+         * by the player's name when the item is used.
+         * @return The item's index.
+         * @see Item
+         */
+        public int addItem(String name, String description, double weight, String parameterType, int parameter, boolean takeable, String type, String use, boolean questItem, String place) {
+            Integer room = roomIndex.get(place);
+            Integer character = characterIndex.get(place);
+            int itemRoom = room == null ? NONE : room;
+            int itemCharacter = room == null && character != null ? character : NONE;
+            return addItem(new Item(name, description, weight, parameterType, parameter, takeable, type, use, questItem), itemRoom, itemCharacter);
+        }
+
+        /**
+         * Add an item, placed in a room or with a character given by
+         * index.
+         * @param item The item.
+         * @param room The room the item starts in, or NONE.
+         * @param character The character carrying the item, or NONE.
+         * @return The item's index.
+         */
+        public int addItem(Item item, int room, int character) {
+            itemIndex.put(item.getName(), items.size());
+            items.add(item);
+            itemRooms.add(room);
+            itemCharacters.add(character);
+            return items.size() - 1;
+        }
+
+        /**
+         * Set where the player starts, and the items the player starts
+         * with, by name.
+         * @param room The name of the starting room.
+         * @param startItems The names of the items.
+         */
+        public void setStart(String room, String... startItems) {
+            startRoom = room(room);
+            for (String name : startItems) {
+                this.startItems.add(item(name));
+            }
+        }
+
+        /**
+         * Set where the player starts by index.
+         * @param room The starting room.
+         */
+        public void setStart(int room) {
+            startRoom = room;
+        }
+
+        /**
+         * Give the player an item to start with, by index.
+         * @param item The item.
+         */
+        public void addStartItem(int item) {
+            startItems.add(item);
+        }
+
+        /**
+         * Build the template.
+         * @return The template.
+         * @throws IllegalStateException If no starting room was set,
+         * or a part refers to a room, item or character by an index
+         * the world doesn't have, as a damaged world file can.
+         */
+        public WorldTemplate build() {
+            if (startRoom == NONE) {
+                throw new IllegalStateException("The world has no starting room.");
+            }
+            int roomCount = roomNames.size();
+            checkIndex(startRoom, roomCount, false, "room");
+            checkIndexes(characterRooms, roomCount, false, "room");
+            checkIndexes(exitFrom, roomCount, false, "room");
+            checkIndexes(exitTargets, roomCount, true, "room");
+            checkIndexes(exitKeys, items.size(), true, "item");
+            checkIndexes(itemRooms, roomCount, true, "room");
+            checkIndexes(itemCharacters, characterNames.size(), true, "character");
+            checkIndexes(dialogueCharacters, characterNames.size(), false, "character");
+            checkIndexes(startItems, items.size(), false, "item");
+            for (int q = 0; q < questParts.size(); q++) {
+                if (questParts.get(q) < 0) {
+                    throw new IllegalStateException("The quest " + questNames.get(q) + " has " + questParts.get(q) + " parts.");
+                }
+            }
+            return new WorldTemplate(this);
+        }
+
+        /**
+         * Check every index in "indexes" (see checkIndex).
+         * @throws IllegalStateException If one is out of range.
+         */
+        private static void checkIndexes(IntList indexes, int count, boolean noneAllowed, String kind) {
+            for (int i = 0; i < indexes.size(); i++) {
+                checkIndex(indexes.get(i), count, noneAllowed, kind);
+            }
+        }
+
+        /**
+         * Check that "index" refers to one of "count" parts of a kind,
+         * or is NONE where that's allowed.
+         * @throws IllegalStateException If it doesn't.
+         */
+        private static void checkIndex(int index, int count, boolean noneAllowed, String kind) {
+            if (noneAllowed && index == NONE) {
+                return;
+            }
+            if (index < 0 || index >= count) {
+                throw new IllegalStateException("The world refers to " + kind + " " + index + ", but has " + count + ".");
+            }
+        }
+
+        /**
+         * Return the index of a room given by name.
+         * @throws IllegalArgumentException If there's no such room.
+         */
+        private int room(String name) {
+            return lookup(roomIndex, name, "room");
+        }
+
+        /**
+         * Return the index of an item given by name.
+         * @throws IllegalArgumentException If there's no such item.
+         */
+        private int item(String name) {
+            return lookup(itemIndex, name, "item");
+        }
+
+        /**
+         * Return the index of a character given by name.
+         * @throws IllegalArgumentException If there's no such character.
+         */
+        private int character(String name) {
+            return lookup(characterIndex, name, "character");
+        }
+
+        /**
+         * Look a name up in one of the indexes.
+         */
+        private static int lookup(NameIndex<Integer> index, String name, String kind) {
+            Integer found = index.get(name);
+            if (found == null) {
+                throw new IllegalArgumentException("There is no " + kind + " named \"" + name + "\".");
+            }
+            return found;
+        }
+    }
+
+    /**
+     * A growable list of ints, so that large worlds don't box every
+     * index while they're being built.
+     */
+    private static class IntList
+    {
+        // the values, and the number of them in use.
+        private int[] values = new int[16];
+        private int size;
+
+        public void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        public int get(int i) {
+            return values[i];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}